@@ -0,0 +1,102 @@
+package at.fhv.wd.benchmarks;
+
+import at.fhv.wd.tictactoe.Board;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The board operations every search is built from. Every benchmark works on
+ * the position halfway through a random game, so there are marks of both
+ * players and free cells left.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+
+    @Param({"3x3x3", "7x6x4", "15x15x5"})
+    public String layout;
+
+    private Board _board;
+    private int[] _moves;
+    private int[] _available;
+
+    /**
+     * Play the first half of a random game.
+     */
+    @Setup(Level.Trial)
+    public void setUp () {
+        Board empty = Positions.createEmpty(layout);
+        int[] game = Positions.randomGame(empty);
+
+        _board = Positions.play(empty, Arrays.copyOf(game, game.length / 2));
+        _moves = Arrays.copyOfRange(game, game.length / 2, game.length);
+        _available = new int[_board.getCellCount()];
+    }
+
+    /**
+     * Play the rest of the game and take it back, the way the searches walk
+     * the tree. One operation is the whole rest of the game.
+     * @return          the hash of the final position
+     */
+    @Benchmark
+    public long moveAndUndo () {
+        for (int move : _moves) {
+            _board.move(move);
+        }
+        long hash = _board.getHash();
+        for (int i = 0; i < _moves.length; i++) {
+            _board.undo();
+        }
+        return hash;
+    }
+
+    /**
+     * Copy the board, the way the searches did before make/unmake.
+     * @return          the copy
+     */
+    @Benchmark
+    public Board getDeepCopy () {
+        return _board.getDeepCopy();
+    }
+
+    /**
+     * Iterate over the free cells through the Set view.
+     * @param blackhole consumes the moves
+     */
+    @Benchmark
+    public void getAvailableMoves (Blackhole blackhole) {
+        for (Integer move : _board.getAvailableMoves()) {
+            blackhole.consume(move);
+        }
+    }
+
+    /**
+     * Copy the free cells into a buffer, the way the searches do.
+     * @param blackhole consumes the moves
+     */
+    @Benchmark
+    public void getAvailableMovesIntoBuffer (Blackhole blackhole) {
+        int count = _board.getAvailableMoves(_available);
+        for (int i = 0; i < count; i++) {
+            blackhole.consume(_available[i]);
+        }
+    }
+}
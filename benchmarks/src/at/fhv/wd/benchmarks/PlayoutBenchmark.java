@@ -0,0 +1,58 @@
+package at.fhv.wd.benchmarks;
+
+import at.fhv.wd.logic.RandomPlayouts;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Random games from the empty board, the rollouts of Monte Carlo searches.
+ * One operation is one game, run with -prof gc to see that they allocate
+ * nothing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlayoutBenchmark {
+
+    private static final int GAMES = 1 << 16;
+
+    @Param({"3x3x3", "7x6x4", "15x15x5"})
+    public String layout;
+
+    private RandomPlayouts _playouts;
+    private long _seed;
+
+    /**
+     * Create the playouts of the empty board.
+     */
+    @Setup(Level.Trial)
+    public void setUp () {
+        _playouts = new RandomPlayouts(Positions.createEmpty(layout));
+    }
+
+    /**
+     * Play a batch of games on the calling thread.
+     * @return          the number of draws, so the games are not optimized away
+     */
+    @Benchmark
+    @OperationsPerInvocation(GAMES)
+    public long playouts () {
+        return _playouts.run(GAMES, _seed++).getDraws();
+    }
+}
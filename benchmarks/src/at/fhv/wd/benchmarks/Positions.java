@@ -0,0 +1,96 @@
+package at.fhv.wd.benchmarks;
+
+import at.fhv.wd.tictactoe.Board;
+
+import java.util.Random;
+
+class Positions {
+
+    /**
+     * The 3x3 positions the searches start from, as the moves that lead to
+     * them. None of them is over.
+     */
+    static final String EMPTY = "empty";
+    static final String OPENING = "opening";
+    static final String MIDGAME = "midgame";
+    static final String ENDGAME = "endgame";
+
+    private static final int[] OPENING_MOVES = {4, 0};
+    private static final int[] MIDGAME_MOVES = {4, 0, 8, 2};
+    private static final int[] ENDGAME_MOVES = {4, 0, 8, 2, 1, 7};
+
+    /**
+     * Positions cannot be instantiated.
+     */
+    private Positions() {}
+
+    /**
+     * Set up one of the named 3x3 positions.
+     * @param name      the name of the position
+     * @return          a new board with the moves of the position played
+     */
+    static Board create (String name) {
+        switch (name) {
+            case EMPTY:
+                return new Board();
+            case OPENING:
+                return play(new Board(), OPENING_MOVES);
+            case MIDGAME:
+                return play(new Board(), MIDGAME_MOVES);
+            case ENDGAME:
+                return play(new Board(), ENDGAME_MOVES);
+            default:
+                throw new IllegalArgumentException("Unknown position: " + name);
+        }
+    }
+
+    /**
+     * Create an empty board from a layout like "7x6x4" (width x height x K).
+     * @param layout    the layout
+     * @return          the empty board
+     */
+    static Board createEmpty (String layout) {
+        String[] parts = layout.split("x");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Layout must be given as WIDTHxHEIGHTxK.");
+        }
+        return new Board(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+    }
+
+    /**
+     * Play random moves until the game is over. The seed is fixed, so every
+     * run of a benchmark plays the same game.
+     * @param board     the empty board to play on (not changed)
+     * @return          the moves of the game
+     */
+    static int[] randomGame (Board board) {
+        Board game = board.getDeepCopy();
+        Random random = new Random(board.getCellCount());
+        int[] moves = new int[game.getCellCount()];
+        int[] available = new int[game.getCellCount()];
+        int length = 0;
+
+        while (!game.isGameOver()) {
+            int count = game.getAvailableMoves(available);
+            moves[length] = available[random.nextInt(count)];
+            game.move(moves[length++]);
+        }
+
+        int[] result = new int[length];
+        System.arraycopy(moves, 0, result, 0, length);
+        return result;
+    }
+
+    /**
+     * Play the given moves.
+     * @param board     the board to play on
+     * @param moves     the moves to play
+     * @return          the board
+     */
+    static Board play (Board board, int[] moves) {
+        for (int move : moves) {
+            board.move(move);
+        }
+        return board;
+    }
+}
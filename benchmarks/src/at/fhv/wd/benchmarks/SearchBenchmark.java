@@ -0,0 +1,125 @@
+package at.fhv.wd.benchmarks;
+
+import at.fhv.wd.logic.AlphaBetaAdvanced;
+import at.fhv.wd.logic.AlphaBetaPruning;
+import at.fhv.wd.logic.HeapTranspositionTable;
+import at.fhv.wd.logic.MinMax;
+import at.fhv.wd.logic.OffHeapTranspositionTable;
+import at.fhv.wd.logic.Random;
+import at.fhv.wd.logic.SearchEngine;
+import at.fhv.wd.logic.SearchResult;
+import at.fhv.wd.logic.TranspositionTable;
+import at.fhv.wd.tictactoe.Board;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A full search for one move on 3x3 with the engines behind
+ * Algorithms.random(), minMax(), alphaBetaPruning() and alphaBetaAdvanced().
+ * Besides searches per second JMH reports the nodes per second, counted by
+ * the engines themselves. The engines with a transposition table use one
+ * on the heap, -p table=heap,offHeap compares it with OffHeapTranspositionTable.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+
+    @Param({"random", "minMax", "alphaBetaPruning", "alphaBetaAdvanced"})
+    public String engine;
+
+    @Param({Positions.EMPTY, Positions.OPENING, Positions.MIDGAME, Positions.ENDGAME})
+    public String position;
+
+    @Param({"heap"})
+    public String table;
+
+    private TranspositionTable _table;
+    private AlphaBetaPruning _alphaBetaPruning;
+    private AlphaBetaAdvanced _alphaBetaAdvanced;
+    private SearchEngine _engine;
+    private Board _board;
+
+    /**
+     * The nodes searched, which JMH turns into nodes per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Nodes {
+        public long nodes;
+
+        /**
+         * Start every iteration from 0.
+         */
+        @Setup(Level.Iteration)
+        public void clear () {
+            nodes = 0;
+        }
+    }
+
+    /**
+     * Create the engine and the position.
+     */
+    @Setup(Level.Trial)
+    public void setUp () {
+        _table = table.equals("offHeap") ? new OffHeapTranspositionTable(TranspositionTable.DEFAULT_SIZE)
+                : new HeapTranspositionTable(TranspositionTable.DEFAULT_SIZE);
+
+        switch (engine) {
+            case "random":
+                _engine = new Random();
+                break;
+            case "minMax":
+                _engine = new MinMax();
+                break;
+            case "alphaBetaPruning":
+                _engine = _alphaBetaPruning = new AlphaBetaPruning(_table, true);
+                break;
+            case "alphaBetaAdvanced":
+                _engine = _alphaBetaAdvanced = new AlphaBetaAdvanced(_table, true);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown engine: " + engine);
+        }
+
+        _board = Positions.create(position);
+    }
+
+    /**
+     * Search for a move. Every search starts with an empty table and move
+     * ordering, otherwise all searches after the first would read the answer
+     * back.
+     * @param nodes     counts the nodes searched
+     * @return          the result
+     */
+    @Benchmark
+    public SearchResult search (Nodes nodes) {
+        _table.clear();
+        if (_alphaBetaPruning != null) {
+            _alphaBetaPruning.getMoveOrdering().clear();
+        }
+        if (_alphaBetaAdvanced != null) {
+            _alphaBetaAdvanced.getMoveOrdering().clear();
+        }
+
+        SearchResult result = _engine.search(_board);
+        nodes.nodes += result.getNodes();
+        return result;
+    }
+}
@@ -2,62 +2,194 @@ package at.fhv.wd.logic;
 
 import at.fhv.wd.tictactoe.Board;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
 public class Algorithms {
 
+    private static final Random RANDOM = new Random();
+
+    /**
+     * Keeps the tree of every thread between moves, so it is created once.
+     */
+    private static final MonteCarloTreeSearch MONTE_CARLO = new MonteCarloTreeSearch();
+    private static final PerfectPlay PERFECT_PLAY = new PerfectPlay();
+
+    /**
+     * The running statistics of every engine, by the name of the method that
+     * plays with it.
+     */
+    private static final Map<String, EngineStatistics> STATISTICS = new ConcurrentHashMap<>();
+
+    /**
+     * The transposition table shared by the Alpha-Beta Pruning algorithms and
+     * Principal Variation Search. Mapped to the file named by the
+     * tictactoe.table system property if it is set.
+     */
+    private static volatile TranspositionTable transpositionTable = createTranspositionTable();
+
+    /**
+     * The killers and history shared by the Alpha-Beta Pruning algorithms,
+     * one set per thread.
+     */
+    private static final ThreadLocal<MoveOrdering> moveOrderings = ThreadLocal.withInitial(MoveOrdering::new);
+    private static volatile boolean moveOrderingEnabled = true;
+
+    /**
+     * The threads of the parallel Alpha-Beta Pruning algorithms.
+     */
+    private static volatile ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    /**
+     * The book the Alpha-Beta Pruning algorithms and Principal Variation
+     * Search look a position up in before they search it, unless they are
+     * limited (null for none). Named by the tictactoe.book system property.
+     */
+    private static volatile OpeningBook openingBook = OpeningBook.fromProperty();
+
+    /**
+     * The solved positions the same algorithms look up before the opening
+     * book, once a game has as many marks as the tablebase starts with (null
+     * for none). Named by the tictactoe.tablebase system property.
+     */
+    private static volatile Tablebase tablebase = Tablebase.fromProperty();
+
+    /**
+     * The engines built from the settings above. The settings can be changed
+     * while other threads play, so all of them are volatile and the setters
+     * that rebuild the engines are synchronized.
+     */
+    private static volatile AlphaBetaPruning alphaBetaPruning;
+    private static volatile AlphaBetaAdvanced alphaBetaAdvanced;
+    private static volatile PrincipalVariationSearch principalVariationSearch;
+
+    static {
+        createEngines();
+    }
+
     /**
      * Algorithms cannot be instantiated.
      */
     private Algorithms() {}
 
+    /**
+     * Let an engine search for a move and play it. The statistics are added
+     * up under the class name of the engine.
+     * @param engine    the engine to ask
+     * @param board     the Tic Tac Toe board to play on
+     * @return          the statistics of the search
+     */
+    public static SearchStats play (SearchEngine engine, Board board) {
+        return play(engine.getClass().getSimpleName(), engine, board);
+    }
+
+    /**
+     * Let an engine search for a move and play it.
+     * @param name      the name to add the statistics up under
+     * @param engine    the engine to ask
+     * @param board     the Tic Tac Toe board to play on
+     * @return          the statistics of the search
+     */
+    private static SearchStats play (String name, SearchEngine engine, Board board) {
+        return play(name, engine, board, false);
+    }
+
+    /**
+     * Let an engine search for a move and play it, or play the move of the
+     * tablebase or the opening book if the position is in one of them.
+     * @param name      the name to add the statistics up under
+     * @param engine    the engine to ask
+     * @param board     the Tic Tac Toe board to play on
+     * @param book      true to look in the tablebase and the opening book first
+     * @return          the statistics of the search
+     */
+    private static SearchStats play (String name, SearchEngine engine, Board board, boolean book) {
+        Tablebase tablebase = book ? Algorithms.tablebase : null;
+        SearchResult result = (tablebase != null) ? tablebase.probe(board) : null;
+
+        OpeningBook openingBook = book ? Algorithms.openingBook : null;
+        if (result == null && openingBook != null) {
+            result = openingBook.probe(board);
+        }
+        if (result == null) {
+            result = engine.search(board);
+        }
+        if (result.getMove() != -1) {
+            board.move(result.getMove());
+        }
+
+        getStatistics(name).add(result.getStats());
+        return result.getStats();
+    }
+
     /**
      * Play a random move.
      * @param board     the Tic Tac Toe board to play on
+     * @return          the statistics of the search
      */
-    public static void random (Board board) {
-        Random.run(board);
+    public static SearchStats random (Board board) {
+        return play("random", RANDOM, board);
     }
 
     /**
      * Play using the MiniMax Algorithm.
      * @param board     the Tic Tac Toe board to play on
+     * @return          the statistics of the search
      */
-    public static void minMax(Board board) {
-        MinMax.run(board.getTurn(), board, Double.POSITIVE_INFINITY);
+    public static SearchStats minMax(Board board) {
+        return play("minMax", new MinMax(), board);
     }
 
     /**
      * Play using the MiniMax algorithm. Include a depth limit.
      * @param board     the Tic Tac Toe board to play on
      * @param ply       the maximum depth
+     * @return          the statistics of the search
+     */
+    public static SearchStats minMax(Board board, int ply) {
+        return play("minMax", new MinMax(ply), board);
+    }
+
+    /**
+     * Play using the MiniMax algorithm. Report the progress to a monitor,
+     * which can also cancel the search. A cancelled search plays no move.
+     * @param board     the Tic Tac Toe board to play on
+     * @param monitor   the monitor to report to
+     * @return          the statistics of the search
      */
-    public static void minMax(Board board, int ply) {
-        MinMax.run(board.getTurn(), board, ply);
+    public static SearchStats minMax(Board board, SearchMonitor monitor) {
+        return play("minMax", new MinMax().withMonitor(monitor), board);
     }
 
     /**
      * Play using the Alpha-Beta Pruning algorithm.
      * @param board     the Tic Tac Toe board to play on
+     * @return          the statistics of the search
      */
-    public static void alphaBetaPruning (Board board) {
-        AlphaBetaPruning.run(board.getTurn(), board, Double.POSITIVE_INFINITY);
+    public static SearchStats alphaBetaPruning (Board board) {
+        return play("alphaBetaPruning", alphaBetaPruning, board, true);
     }
 
     /**
      * Play using the Alpha-Beta Pruning algorithm. Include a depth limit.
      * @param board     the Tic Tac Toe board to play on
      * @param ply       the maximum depth
+     * @return          the statistics of the search
      */
-    public static void alphaBetaPruning (Board board, int ply) {
-        AlphaBetaPruning.run(board.getTurn(), board, ply);
+    public static SearchStats alphaBetaPruning (Board board, int ply) {
+        return play("alphaBetaPruning", alphaBetaPruning.withMaxPly(ply), board);
     }
 
     /**
      * Play using the Alpha-Beta Pruning algorithm. Include depth in the
      * evaluation function.
      * @param board     the Tic Tac Toe board to play on
+     * @return          the statistics of the search
      */
-    public static void alphaBetaAdvanced (Board board) {
-        AlphaBetaAdvanced.run(board.getTurn(), board, Double.POSITIVE_INFINITY);
+    public static SearchStats alphaBetaAdvanced (Board board) {
+        return play("alphaBetaAdvanced", alphaBetaAdvanced, board, true);
     }
 
     /**
@@ -65,8 +197,349 @@ public class Algorithms {
      * evaluation function and a depth limit.
      * @param board     the Tic Tac Toe board to play on
      * @param ply       the maximum depth
+     * @return          the statistics of the search
      */
-    public static void alphaBetaAdvanced (Board board, int ply) {
-        AlphaBetaAdvanced.run(board.getTurn(), board, ply);
+    public static SearchStats alphaBetaAdvanced (Board board, int ply) {
+        return play("alphaBetaAdvanced", alphaBetaAdvanced.withMaxPly(ply), board);
+    }
+
+    /**
+     * Play using the Alpha-Beta Pruning algorithm. Include depth in the
+     * evaluation function and report the progress to a monitor, which can also
+     * cancel the search. A cancelled search plays no move.
+     * @param board     the Tic Tac Toe board to play on
+     * @param monitor   the monitor to report to
+     * @return          the statistics of the search
+     */
+    public static SearchStats alphaBetaAdvanced (Board board, SearchMonitor monitor) {
+        return play("alphaBetaAdvanced", alphaBetaAdvanced.withMonitor(monitor), board, true);
+    }
+
+    /**
+     * Play using Monte Carlo Tree Search: random games are played from the
+     * most promising positions and the move tried most often is played. Runs
+     * MonteCarloTreeSearch.DEFAULT_PLAYOUTS playouts and keeps the tree for
+     * the next move.
+     * @param board     the Tic Tac Toe board to play on
+     * @return          the statistics of the search
+     */
+    public static SearchStats monteCarloTreeSearch (Board board) {
+        return play("monteCarloTreeSearch", MONTE_CARLO, board);
+    }
+
+    /**
+     * Play using Monte Carlo Tree Search. Include a playout budget.
+     * @param board     the Tic Tac Toe board to play on
+     * @param playouts  the number of playouts
+     * @return          the statistics of the search
+     */
+    public static SearchStats monteCarloTreeSearch (Board board, int playouts) {
+        return play("monteCarloTreeSearch", MONTE_CARLO.withBudget(0, playouts), board);
+    }
+
+    /**
+     * Play using Monte Carlo Tree Search with the playouts spread over all
+     * threads of the pool, which grow one tree together.
+     * @param board     the Tic Tac Toe board to play on
+     * @return          the statistics of the search
+     */
+    public static SearchStats monteCarloParallel (Board board) {
+        return play("monteCarloParallel", MONTE_CARLO.withPool(pool), board);
+    }
+
+    /**
+     * Play using the Alpha-Beta Pruning algorithm on all threads of the pool.
+     * Plays the same move as alphaBetaAdvanced().
+     * @param board     the Tic Tac Toe board to play on
+     * @return          the statistics of the search
+     */
+    public static SearchStats alphaBetaParallel (Board board) {
+        return play("alphaBetaParallel", alphaBetaAdvanced.withPool(pool), board, true);
+    }
+
+    /**
+     * Play using the Alpha-Beta Pruning algorithm on all threads of the pool.
+     * Include a depth limit. Plays the same move as alphaBetaAdvanced().
+     * @param board     the Tic Tac Toe board to play on
+     * @param ply       the maximum depth
+     * @return          the statistics of the search
+     */
+    public static SearchStats alphaBetaParallel (Board board, int ply) {
+        return play("alphaBetaParallel", alphaBetaAdvanced.withMaxPly(ply).withPool(pool), board);
+    }
+
+    /**
+     * Play using Principal Variation Search: only the first move gets the full
+     * window, the others are proven worse with an empty one. Searches once,
+     * with an aspiration window around a draw, and again with the window
+     * opened on one side if the score falls outside.
+     * @param board     the Tic Tac Toe board to play on
+     * @return          the statistics of the search
+     */
+    public static SearchStats principalVariationSearch (Board board) {
+        return play("principalVariationSearch", principalVariationSearch, board, true);
+    }
+
+    /**
+     * Play using Principal Variation Search. Include a depth limit.
+     * @param board     the Tic Tac Toe board to play on
+     * @param ply       the maximum depth
+     * @return          the statistics of the search
+     */
+    public static SearchStats principalVariationSearch (Board board, int ply) {
+        return play("principalVariationSearch", principalVariationSearch.withMaxPly(ply), board);
+    }
+
+    /**
+     * Play using MTD(f): empty window searches close in on the score, reading
+     * most of the tree back from the transposition table.
+     * @param board     the Tic Tac Toe board to play on
+     * @return          the statistics of the search
+     */
+    public static SearchStats mtdf (Board board) {
+        return play("mtdf", principalVariationSearch.withMtdf(), board, true);
+    }
+
+    /**
+     * Play using MTD(f). Include a depth limit.
+     * @param board     the Tic Tac Toe board to play on
+     * @param ply       the maximum depth
+     * @return          the statistics of the search
+     */
+    public static SearchStats mtdf (Board board, int ply) {
+        return play("mtdf", principalVariationSearch.withMaxPly(ply).withMtdf(), board);
+    }
+
+    /**
+     * Play using the Alpha-Beta Pruning algorithm with Lazy SMP: every thread
+     * of the pool searches the same position and they share the
+     * transposition table. Plays a move with the same score as
+     * alphaBetaAdvanced().
+     * @param board     the Tic Tac Toe board to play on
+     * @return          the statistics of the search
+     */
+    public static SearchStats lazySmp (Board board) {
+        return play("lazySmp", alphaBetaAdvanced.withLazySmp(pool), board, true);
+    }
+
+    /**
+     * Play using the Alpha-Beta Pruning algorithm with Lazy SMP. Include a
+     * depth limit.
+     * @param board     the Tic Tac Toe board to play on
+     * @param ply       the maximum depth
+     * @return          the statistics of the search
+     */
+    public static SearchStats lazySmp (Board board, int ply) {
+        return play("lazySmp", alphaBetaAdvanced.withMaxPly(ply).withLazySmp(pool), board);
+    }
+
+    /**
+     * Play using the Alpha-Beta Pruning algorithm with iterative deepening:
+     * search deeper and deeper until the time is up, then play the move of the
+     * deepest completed search.
+     * @param board         the Tic Tac Toe board to play on
+     * @param timeMillis    the time budget in milliseconds
+     * @return          the statistics of the search
+     */
+    public static SearchStats iterativeDeepening (Board board, long timeMillis) {
+        return iterativeDeepening(board, timeMillis, Long.MAX_VALUE);
+    }
+
+    /**
+     * Play using the Alpha-Beta Pruning algorithm with iterative deepening.
+     * Stops as soon as either the time or the node budget is used up.
+     * @param board         the Tic Tac Toe board to play on
+     * @param timeMillis    the time budget in milliseconds
+     * @param maxNodes      the node budget
+     * @return          the statistics of the search
+     */
+    public static SearchStats iterativeDeepening (Board board, long timeMillis, long maxNodes) {
+        return play("iterativeDeepening", alphaBetaAdvanced.withBudget(timeMillis, maxNodes), board);
+    }
+
+    /**
+     * Play using the Alpha-Beta Pruning algorithm with iterative deepening and
+     * report the progress to a monitor, which can also stop the search. A
+     * stopped search plays no move.
+     * @param board         the Tic Tac Toe board to play on
+     * @param timeMillis    the time budget in milliseconds
+     * @param monitor       the monitor to report to
+     * @return          the statistics of the search
+     */
+    public static SearchStats iterativeDeepening (Board board, long timeMillis, SearchMonitor monitor) {
+        return play("iterativeDeepening", alphaBetaAdvanced.withBudget(timeMillis, Long.MAX_VALUE)
+                .withMonitor(monitor), board);
+    }
+
+    /**
+     * Play the best move from the precomputed perfect play table. Only works on
+     * a 3x3 board, but costs one table lookup per move left instead of a search.
+     * @param board     the Tic Tac Toe board to play on
+     * @return          the statistics of the search
+     */
+    public static SearchStats perfectPlay (Board board) {
+        return play("perfectPlay", PERFECT_PLAY, board);
+    }
+
+    /**
+     * Look up the best move in the precomputed perfect play table without
+     * playing it. Only works on a 3x3 board.
+     * @param board     the Tic Tac Toe board to look at
+     * @return          the best move (-1 if the game is over)
+     */
+    public static int getPerfectMove (Board board) {
+        return PerfectPlay.getMove(board);
+    }
+
+    /**
+     * Set the opening book the Alpha-Beta Pruning algorithms and Principal
+     * Variation Search look positions up in before they search them. Their
+     * depth limited versions never use it.
+     * @param book      the book (null for none)
+     */
+    public static void setOpeningBook (OpeningBook book) {
+        openingBook = book;
+    }
+
+    /**
+     * Get the opening book, for example to look at its hit rate.
+     * @return          the book (null if there is none)
+     */
+    public static OpeningBook getOpeningBook () {
+        return openingBook;
+    }
+
+    /**
+     * Set the tablebase the Alpha-Beta Pruning algorithms and Principal
+     * Variation Search look a position up in before they search it.
+     * @param tablebase the tablebase (null for none)
+     */
+    public static void setTablebase (Tablebase tablebase) {
+        Algorithms.tablebase = tablebase;
+    }
+
+    /**
+     * Get the tablebase, for example to look at its hit rate.
+     * @return          the tablebase (null if there is none)
+     */
+    public static Tablebase getTablebase () {
+        return tablebase;
+    }
+
+    /**
+     * Replace the transposition table of the Alpha-Beta Pruning algorithms with
+     * an empty one of the given size.
+     * @param size      the number of entries (rounded up to a power of two)
+     */
+    public static synchronized void setTranspositionTableSize (int size) {
+        transpositionTable = new HeapTranspositionTable(size);
+        createEngines();
+    }
+
+    /**
+     * Replace the transposition table of the Alpha-Beta Pruning algorithms,
+     * for example with an OffHeapTranspositionTable.
+     * @param table     the transposition table
+     */
+    public static synchronized void setTranspositionTable (TranspositionTable table) {
+        if (table == null) {
+            throw new IllegalArgumentException("Transposition table must not be null.");
+        }
+
+        transpositionTable = table;
+        createEngines();
+    }
+
+    /**
+     * Create the transposition table the Alpha-Beta Pruning algorithms start
+     * with.
+     * @return          the table named by the tictactoe.table system property, or an empty one on the heap
+     */
+    private static TranspositionTable createTranspositionTable () {
+        TranspositionTable table = OffHeapTranspositionTable.fromProperty();
+        return (table != null) ? table : new HeapTranspositionTable(TranspositionTable.DEFAULT_SIZE);
+    }
+
+    /**
+     * Set the number of threads of the parallel Alpha-Beta Pruning algorithms.
+     * By default they run on the common pool, one thread per core.
+     * @param threads   the number of threads
+     */
+    public static synchronized void setParallelism (int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be greater than 0.");
+        }
+
+        // The old pool is not shut down, searches that already read it may not
+        // have submitted their tasks yet. Its idle threads end on their own.
+        pool = new ForkJoinPool(threads);
+    }
+
+    /**
+     * Turn the move ordering of the Alpha-Beta Pruning algorithms on or off.
+     * Without it only the hash move is tried first, which makes it easy to
+     * see how many nodes the ordering saves.
+     * @param enabled   true to sort the moves
+     */
+    public static synchronized void setMoveOrderingEnabled (boolean enabled) {
+        moveOrderingEnabled = enabled;
+        createEngines();
+    }
+
+    /**
+     * Get the move ordering the Alpha-Beta Pruning algorithms use on the
+     * calling thread, for example to look at its cutoff rate.
+     * @return          the move ordering
+     */
+    public static MoveOrdering getMoveOrdering () {
+        return moveOrderings.get();
+    }
+
+    /**
+     * Get the transposition table of the Alpha-Beta Pruning algorithms, for
+     * example to look at its hit rate.
+     * @return          the transposition table
+     */
+    public static TranspositionTable getTranspositionTable () {
+        return transpositionTable;
+    }
+
+    /**
+     * Get the running statistics of the searches of one engine.
+     * @param name      the name of the method that plays with the engine, like "alphaBetaAdvanced", or the
+     *                  class name of an engine passed to play()
+     * @return          the statistics, empty if the engine has not searched yet
+     */
+    public static EngineStatistics getStatistics (String name) {
+        // Looked up first, computeIfAbsent() can lock even if the key is there.
+        EngineStatistics statistics = STATISTICS.get(name);
+        return (statistics != null) ? statistics : STATISTICS.computeIfAbsent(name, key -> new EngineStatistics());
+    }
+
+    /**
+     * Get the running statistics of every engine that has searched so far.
+     * @return          the statistics by name
+     */
+    public static Map<String, EngineStatistics> getStatistics () {
+        return Collections.unmodifiableMap(STATISTICS);
+    }
+
+    /**
+     * Forget the statistics of all engines.
+     */
+    public static void clearStatistics () {
+        STATISTICS.clear();
+    }
+
+    /**
+     * Build the Alpha-Beta Pruning engines from the current settings.
+     */
+    private static void createEngines () {
+        ThreadLocal<MoveOrdering> orderings = moveOrderingEnabled ? moveOrderings : null;
+
+        alphaBetaPruning = new AlphaBetaPruning(Double.POSITIVE_INFINITY, transpositionTable, orderings);
+        alphaBetaAdvanced = new AlphaBetaAdvanced(Double.POSITIVE_INFINITY, 0, Long.MAX_VALUE, transpositionTable,
+                orderings, null, false, null);
+        principalVariationSearch = new PrincipalVariationSearch(Integer.MAX_VALUE, transpositionTable, orderings, false);
     }
 }
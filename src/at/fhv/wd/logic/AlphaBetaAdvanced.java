@@ -2,123 +2,820 @@ package at.fhv.wd.logic;
 
 import at.fhv.wd.tictactoe.Board;
 
-public class AlphaBetaAdvanced {
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
-    private static double maxPly;
+public class AlphaBetaAdvanced implements SearchEngine {
 
     /**
-     * AlphaBetaAdvanced cannot be instantiated.
+     * Mixed into the hash so the depth dependent scores of this algorithm never
+     * mix with the entries of AlphaBetaPruning in a shared table.
      */
-    private AlphaBetaAdvanced() {}
+    private static final long KEY_SALT = 0x9E3779B97F4A7C15L;
 
     /**
-     * Execute the algorithm.
-     * @param player        the player that the AI will identify as
-     * @param board         the Tic Tac Toe board to play on
-     * @param maxPly        the maximum depth
+     * How many nodes are searched between two looks at the clock.
+     */
+    private static final int CLOCK_INTERVAL = 1024;
+
+    private final double maxPly;
+
+    /**
+     * The budget of iterative deepening. A time budget of 0 searches straight
+     * to the maximum depth instead.
+     */
+    private final long timeMillis;
+    private final long maxNodes;
+
+    private final TranspositionTable table;
+
+    /**
+     * The move ordering of every thread that searches with this engine (null
+     * to only try the hash move first). Killers and history are only ever
+     * touched by one search at a time.
+     */
+    private final ThreadLocal<MoveOrdering> orderings;
+
+    /**
+     * The threads to spread the root moves over (null to search on the
+     * calling thread).
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * True to run helper searches on the pool instead of spreading the root
+     * moves over it.
+     */
+    private final boolean lazySmp;
+
+    /**
+     * Told about the progress of every search, and asked whether to stop
+     * (null if nobody watches).
      */
-    static void run (Board.State player, Board board, double maxPly) {
+    private final SearchMonitor monitor;
 
+    /**
+     * Construct an AlphaBetaAdvanced engine that searches to the end of the
+     * game with its own transposition table and move ordering.
+     */
+    public AlphaBetaAdvanced () {
+        this(new HeapTranspositionTable(TranspositionTable.DEFAULT_SIZE), true);
+    }
+
+    /**
+     * Construct an AlphaBetaAdvanced engine that searches to the end of the
+     * game.
+     * @param table         the transposition table to cache positions in (may be shared)
+     * @param ordered       true to sort the moves, false to only try the hash move first
+     */
+    public AlphaBetaAdvanced (TranspositionTable table, boolean ordered) {
+        this(Double.POSITIVE_INFINITY, 0, Long.MAX_VALUE, table,
+                ordered ? ThreadLocal.withInitial(MoveOrdering::new) : null, null, false, null);
+    }
+
+    /**
+     * Construct an AlphaBetaAdvanced engine.
+     * @param maxPly        the maximum depth
+     * @param timeMillis    the time budget in milliseconds (0 for no iterative deepening)
+     * @param maxNodes      the node budget of iterative deepening
+     * @param table         the transposition table to cache positions in
+     * @param orderings     the move ordering of every thread (null to only try the hash move first)
+     * @param pool          the threads to search on (null for the calling thread)
+     * @param lazySmp       true to run helper searches on the pool, false to spread the root moves over it
+     * @param monitor       the monitor to report to (null for none)
+     */
+    AlphaBetaAdvanced (double maxPly, long timeMillis, long maxNodes, TranspositionTable table,
+                       ThreadLocal<MoveOrdering> orderings, ForkJoinPool pool, boolean lazySmp,
+                       SearchMonitor monitor) {
         if (maxPly < 1) {
             throw new IllegalArgumentException("Maximum depth must be greater than 0.");
         }
 
-        AlphaBetaAdvanced.maxPly = maxPly;
-        alphaBetaPruning(player, board, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, 0);
+        if (timeMillis < 0 || maxNodes < 1) {
+            throw new IllegalArgumentException("Time and node budget must be greater than 0.");
+        }
+
+        if (timeMillis > 0 && pool != null && !lazySmp) {
+            throw new IllegalStateException("Iterative deepening cannot run in parallel.");
+        }
+
+        this.maxPly = maxPly;
+        this.timeMillis = timeMillis;
+        this.maxNodes = maxNodes;
+        this.table = table;
+        this.orderings = orderings;
+        this.pool = pool;
+        this.lazySmp = lazySmp;
+        this.monitor = monitor;
     }
 
     /**
-     * The meat of the algorithm.
-     * @param player        the player that the AI will identify as
-     * @param board         the Tic Tac Toe board to play on
-     * @param alpha         the alpha value
-     * @param beta          the beta value
-     * @param currentPly    the current depth
-     * @return              the score of the board
+     * Get an engine that is the same as this one, but with a depth limit. All
+     * engines made from one another share their transposition table and move
+     * orderings.
+     * @param maxPly        the maximum depth
+     * @return              the new engine
      */
-    private static int alphaBetaPruning (Board.State player, Board board, double alpha, double beta, int currentPly) {
-        if (currentPly++ == maxPly || board.isGameOver()) {
-            return score(player, board, currentPly);
+    public AlphaBetaAdvanced withMaxPly (int maxPly) {
+        return new AlphaBetaAdvanced(maxPly, timeMillis, maxNodes, table, orderings, pool, lazySmp, monitor);
+    }
+
+    /**
+     * Get an engine that is the same as this one, but uses iterative
+     * deepening: it searches 1 ply deep, then 2 plies, and so on until the
+     * time or the node budget is used up, and plays the move of the last
+     * completed iteration.
+     * @param timeMillis    the time budget in milliseconds
+     * @param maxNodes      the node budget
+     * @return              the new engine
+     */
+    public AlphaBetaAdvanced withBudget (long timeMillis, long maxNodes) {
+        if (timeMillis < 1) {
+            throw new IllegalArgumentException("Time and node budget must be greater than 0.");
         }
 
-        if (board.getTurn() == player) {
-            return getMax(player, board, alpha, beta, currentPly);
+        return new AlphaBetaAdvanced(maxPly, timeMillis, maxNodes, table, orderings, pool, lazySmp, monitor);
+    }
+
+    /**
+     * Get an engine that is the same as this one, but spreads the root moves
+     * over the threads of a pool. It plays the same moves as this one.
+     * @param pool          the threads to search on
+     * @return              the new engine
+     */
+    public AlphaBetaAdvanced withPool (ForkJoinPool pool) {
+        return new AlphaBetaAdvanced(maxPly, timeMillis, maxNodes, table, orderings, pool, false, monitor);
+    }
+
+    /**
+     * Get an engine that is the same as this one, but searches with Lazy SMP:
+     * the calling thread searches as usual while every other thread of the
+     * pool runs a helper search of the same position. The helpers only fill
+     * the shared transposition table, which lets the main search cut off
+     * sooner. Half of the helpers search one ply deeper than the others, so
+     * they do not all visit the positions in the same order. The node budget
+     * counts per thread. Unlike withPool(), the move played may differ from
+     * the single threaded search between moves with the same score.
+     * @param pool          the threads to run the helpers on
+     * @return              the new engine
+     */
+    public AlphaBetaAdvanced withLazySmp (ForkJoinPool pool) {
+        return new AlphaBetaAdvanced(maxPly, timeMillis, maxNodes, table, orderings, pool, true, monitor);
+    }
+
+    /**
+     * Get an engine that is the same as this one, but reports its progress to
+     * a monitor and stops without a move once the monitor is cancelled.
+     * @param monitor       the monitor to report to
+     * @return              the new engine
+     */
+    public AlphaBetaAdvanced withMonitor (SearchMonitor monitor) {
+        return new AlphaBetaAdvanced(maxPly, timeMillis, maxNodes, table, orderings, pool, lazySmp, monitor);
+    }
+
+    /**
+     * Get the move ordering the calling thread searches with, for example to
+     * look at its cutoff rate.
+     * @return              the move ordering (null if the moves are not sorted)
+     */
+    public MoveOrdering getMoveOrdering () {
+        return (orderings != null) ? orderings.get() : null;
+    }
+
+    /**
+     * Execute the algorithm.
+     * @param board         the Tic Tac Toe board to play on (not changed)
+     * @return              the best move (-1 if the monitor was cancelled)
+     */
+    @Override
+    public SearchResult search (Board board) {
+        SearchResult result;
+        if (pool != null && lazySmp) {
+            result = searchLazySmp(board);
+        } else if (pool != null) {
+            result = searchParallel(board);
+        } else if (timeMillis > 0) {
+            result = searchIterative(board);
         } else {
-            return getMin(player, board, alpha, beta, currentPly);
+            result = searchSequential(board);
         }
+
+        // A cancelled search can stop anywhere, its move means nothing.
+        if (monitor != null && monitor.isCancelled()) {
+            return new SearchResult(-1, 0, new int[0], result.getStats());
+        }
+        return result;
     }
 
     /**
-     * Play the move with the highest score.
-     * @param player        the player that the AI will identify as
-     * @param board         the Tic Tac Toe board to play on
-     * @param alpha         the alpha value
-     * @param beta          the beta value
-     * @param currentPly    the current depth
-     * @return              the score of the board
+     * Execute the algorithm on the calling thread, straight to the maximum
+     * depth.
+     * @param board         the Tic Tac Toe board to play on (not changed)
+     * @return              the best move
+     */
+    private SearchResult searchSequential (Board board) {
+        long start = System.nanoTime();
+        Board.State player = board.getTurn();
+        Search search = new Search(board.getDeepCopy(), plies(board, maxPly), maxPly, prepare(board, maxPly));
+        int score = search.alphaBetaPruning(player, search.board, Double.NEGATIVE_INFINITY,
+                Double.POSITIVE_INFINITY, 0);
+
+        return new SearchResult(search.bestMoves[1], score, search.pv.toArray(1), search.toStats(start));
+    }
+
+    /**
+     * Execute the algorithm with iterative deepening. Each iteration searches
+     * the principal variation of the one before first. The first iteration
+     * always completes.
+     * @param board         the Tic Tac Toe board to play on (not changed)
+     * @return              the best move of the last completed iteration
+     */
+    private SearchResult searchIterative (Board board) {
+        long start = System.nanoTime();
+        int lastDepth = (int) Math.min(maxPly, board.getCellCount() - board.getMoveCount());
+
+        Search search = new Search(board.getDeepCopy(), plies(board, lastDepth), lastDepth,
+                prepare(board, lastDepth));
+        search.deadline = deadline();
+
+        return search.iterate(board.getTurn(), 1, lastDepth, start);
+    }
+
+    /**
+     * Execute the algorithm with Lazy SMP. The calling thread runs the same
+     * iterative deepening as searchIterative(), without a time budget it
+     * just never stops early. Meanwhile the other threads of the pool run
+     * helper searches that share nothing but the transposition table, and
+     * are stopped as soon as the main search is done.
+     * @param board         the Tic Tac Toe board to play on (not changed)
+     * @return              the best move of the main search
+     */
+    private SearchResult searchLazySmp (Board board) {
+        long start = System.nanoTime();
+        Board.State player = board.getTurn();
+        int lastDepth = (int) Math.min(maxPly, board.getCellCount() - board.getMoveCount());
+        long deadline = deadline();
+        AtomicBoolean stop = new AtomicBoolean();
+
+        List<ForkJoinTask<SearchCounters>> helpers = new ArrayList<>();
+        for (int i = 1; i < pool.getParallelism() && lastDepth > 0; i++) {
+            // Every helper gets its own copy, made here so the board of the
+            // caller is only ever read by one thread.
+            Board copy = board.getDeepCopy();
+            int firstDepth = Math.min(1 + (i & 1), lastDepth);
+
+            helpers.add(pool.submit(() -> {
+                Search helper = new Search(copy, plies(copy, lastDepth), lastDepth, prepare(copy, lastDepth));
+                helper.deadline = deadline;
+                helper.stop = stop;
+                helper.iterate(player, firstDepth, lastDepth, start);
+                return helper;
+            }));
+        }
+
+        Search search = new Search(board.getDeepCopy(), plies(board, lastDepth), lastDepth,
+                prepare(board, lastDepth));
+        search.deadline = deadline;
+
+        SearchResult result;
+        try {
+            result = search.iterate(player, 1, lastDepth, start);
+        } finally {
+            stop.set(true);
+        }
+
+        SearchCounters counters = new SearchCounters();
+        counters.add(search);
+        for (ForkJoinTask<SearchCounters> helper : helpers) {
+            counters.add(helper.join());
+        }
+
+        return new SearchResult(result.getMove(), result.getScore(), result.getPrincipalVariation(),
+                counters.toStats(start));
+    }
+
+    /**
+     * Get the point in time at which iterative deepening has to stop.
+     * @return              the deadline in nanoseconds (Long.MAX_VALUE if there is no time budget)
      */
-    private static int getMax (Board.State player, Board board, double alpha, double beta, int currentPly) {
-        int indexOfBestMove = -1;
+    private long deadline () {
+        if (timeMillis == 0) {
+            return Long.MAX_VALUE;
+        }
+        return System.nanoTime() + Math.min(timeMillis, Long.MAX_VALUE / 2_000_000) * 1_000_000;
+    }
 
-        for (Integer theMove : board.getAvailableMoves()) {
+    /**
+     * Execute the algorithm on several threads. The first root move is
+     * searched alone to get a good bound, then the other root moves are spread
+     * over the pool, each on its own copy of the board. The workers share the
+     * best score found so far as their alpha bound. A move that comes before
+     * the best move so far in the order of the single threaded search is
+     * searched just below that bound, so a tie is found too: the move played
+     * is the first best move in that order, the same move the single threaded
+     * search plays.
+     * @param board         the Tic Tac Toe board to play on (not changed)
+     * @return              the best move
+     */
+    private SearchResult searchParallel (Board board) {
+        long start = System.nanoTime();
+        if (board.isGameOver()) {
+            return new SearchResult(-1, score(board.getTurn(), board, 1), new int[0],
+                    new SearchStats(1, 1, 0, 0, 0, System.nanoTime() - start));
+        }
 
-            Board modifiedBoard = board.getDeepCopy();
-            modifiedBoard.move(theMove);
-            int score = alphaBetaPruning(player, modifiedBoard, alpha, beta, currentPly);
+        MoveOrdering ordering = prepare(board, maxPly);
+        Search search = new Search(board.getDeepCopy(), plies(board, maxPly), maxPly, ordering);
 
-            if (score > alpha) {
-                alpha = score;
-                indexOfBestMove = theMove;
+        int transform = board.getCanonicalTransform();
+        long key = board.getHash(transform) ^ KEY_SALT;
+        long entry = table.probe(key);
+        int hashMove = -1;
+        if (entry != TranspositionTable.MISS) {
+            hashMove = fromCanonical(board, transform, TranspositionTable.bestMove(entry));
+        }
+
+        // Put the root moves in the order the single threaded search uses.
+        int[] available = search.moves[1];
+        int count = search.getMoves(board, available, 1, hashMove);
+        if (ordering != null) {
+            for (int i = 0; i < count; i++) {
+                ordering.next(available, count, 1, i);
             }
+        }
 
-            if (alpha >= beta) {
-                break;
+        AtomicLong best = new AtomicLong(Long.MIN_VALUE);
+        Map<Thread, MoveOrdering> threadOrderings = new ConcurrentHashMap<>();
+        RootMove[] rootMoves = new RootMove[count];
+        for (int i = 0; i < count; i++) {
+            rootMoves[i] = new RootMove(board, available[i], i, ordering, threadOrderings, best);
+        }
+
+        pool.invoke(ForkJoinTask.adapt(() -> {
+            rootMoves[0].invoke();
+            ForkJoinTask.invokeAll(Arrays.copyOfRange(rootMoves, 1, count));
+        }));
+
+        if (ordering != null) {
+            for (MoveOrdering threadOrdering : threadOrderings.values()) {
+                ordering.add(threadOrdering);
             }
         }
 
-        if (indexOfBestMove != -1) {
-            board.move(indexOfBestMove);
+        // The root counts as a node of its own.
+        SearchCounters counters = new SearchCounters();
+        counters.nodes = 1;
+        for (RootMove rootMove : rootMoves) {
+            counters.add(rootMove.counters);
+        }
+
+        // The root moves that were cut short have no score to compare.
+        if (monitor != null && monitor.isCancelled()) {
+            return new SearchResult(-1, 0, new int[0], counters.toStats(start));
         }
-        return (int)alpha;
+
+        int bestIndex = unpackIndex(best.get());
+        int bestMove = available[bestIndex];
+        int score = unpackScore(best.get());
+
+        // Leave the same entry behind as the single threaded search does.
+        int depth = (int) Math.min(maxPly, board.getCellCount() - board.getMoveCount());
+        table.store(key, toTable(score, 1), depth, TranspositionTable.EXACT,
+                toCanonical(board, transform, bestMove));
+
+        int[] principalVariation = new int[rootMoves[bestIndex].principalVariation.length + 1];
+        principalVariation[0] = bestMove;
+        System.arraycopy(rootMoves[bestIndex].principalVariation, 0, principalVariation, 1,
+                principalVariation.length - 1);
+
+        return new SearchResult(bestMove, score, principalVariation, counters.toStats(start));
     }
 
     /**
-     * Play the move with the lowest score.
-     * @param player        the player that the AI will identify as
-     * @param board         the Tic Tac Toe board to play on
-     * @param alpha         the alpha value
-     * @param beta          the beta value
-     * @param currentPly    the current depth
-     * @return              the score of the board
+     * Get the number of plies the buffers of a search need.
+     * @param root          the Tic Tac Toe board at the root of the search
+     * @param maxPly        the maximum depth
+     * @return              the number of plies, counting the root as ply 1
      */
-    private static int getMin (Board.State player, Board board, double alpha, double beta, int currentPly) {
-        int indexOfBestMove = -1;
+    private static int plies (Board root, double maxPly) {
+        return (int) Math.min(maxPly, root.getCellCount() - root.getMoveCount()) + 2;
+    }
 
-        for (Integer theMove : board.getAvailableMoves()) {
+    /**
+     * Get the move ordering of the calling thread ready for a search.
+     * @param root          the Tic Tac Toe board at the root of the search
+     * @param maxPly        the maximum depth
+     * @return              the move ordering (null if the moves are not sorted)
+     */
+    private MoveOrdering prepare (Board root, double maxPly) {
+        MoveOrdering ordering = getMoveOrdering();
+        if (ordering != null) {
+            ordering.prepare(root, plies(root, maxPly));
+        }
+        return ordering;
+    }
 
-            Board modifiedBoard = board.getDeepCopy();
-            modifiedBoard.move(theMove);
+    /**
+     * The state of a single search.
+     */
+    private class Search extends SearchCounters {
+        private final Board board;
+        private final MoveOrdering ordering;
+        private double maxPly;
+
+        /**
+         * One move buffer per ply, so the search does not allocate per node.
+         */
+        private final int[][] moves;
+
+        /**
+         * The best move found at each ply. The entry at ply 1 is the move to play.
+         */
+        private final int[] bestMoves;
+        private final PrincipalVariation pv;
+
+        /**
+         * The principal variation of the last completed iteration, searched
+         * first in the next one.
+         */
+        private int[] previousPv = new int[0];
+        private boolean followPv;
+
+        private long deadline;
+        private boolean abortable;
+        private boolean aborted;
+
+        /**
+         * Set by the main search of Lazy SMP when a helper has to stop (null
+         * if nobody else can stop this search).
+         */
+        private AtomicBoolean stop;
+
+        /**
+         * Construct a Search. The buffers only grow as deep as the search can
+         * go.
+         * @param board         the Tic Tac Toe board to search, owned by the search
+         * @param plies         the number of plies, counting the root as ply 1
+         * @param maxPly        the maximum depth
+         * @param ordering      the prepared move ordering to sort moves with (null to only try the hash move first)
+         */
+        private Search (Board board, int plies, double maxPly, MoveOrdering ordering) {
+            this.board = board;
+            this.maxPly = maxPly;
+            this.ordering = ordering;
+            moves = new int[plies][board.getCellCount()];
+            bestMoves = new int[plies];
+            bestMoves[1] = -1;
+            pv = new PrincipalVariation(plies);
+        }
+
+        /**
+         * Count the node, report to the monitor and check the budget.
+         * @return              true if the search has to stop
+         */
+        private boolean outOfBudget () {
+            nodes++;
+
+            if (monitor != null && nodes % SearchMonitor.REPORT_INTERVAL == 0
+                    && monitor.report(SearchMonitor.REPORT_INTERVAL)) {
+                aborted = true;
+            }
+
+            if (abortable && (nodes > maxNodes || (nodes % CLOCK_INTERVAL == 0
+                    && (System.nanoTime() > deadline || (stop != null && stop.get()))))) {
+                aborted = true;
+            }
+            return aborted;
+        }
+
+        /**
+         * Search deeper and deeper until the last depth is done or the budget
+         * is used up. Each iteration searches the principal variation of the
+         * one before first. The first iteration always completes, unless the
+         * search can be stopped from outside.
+         * @param player        the player that the AI will identify as
+         * @param firstDepth    the depth of the first iteration
+         * @param lastDepth     the depth of the last iteration
+         * @param startNanos    the time the search started at, from System.nanoTime()
+         * @return              the best move of the last completed iteration
+         */
+        private SearchResult iterate (Board.State player, int firstDepth, int lastDepth, long startNanos) {
+            int bestMove = -1;
+            int bestScore = 0;
+
+            for (int depth = firstDepth; depth <= lastDepth; depth++) {
+                maxPly = depth;
+                abortable = depth > firstDepth || stop != null;
+                followPv = previousPv.length > 0;
+                bestMoves[1] = -1;
+
+                int score = alphaBetaPruning(player, board, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, 0);
+
+                if (aborted) {
+                    break;
+                }
+
+                bestMove = bestMoves[1];
+                bestScore = score;
+                previousPv = pv.toArray(1);
+            }
+
+            return new SearchResult(bestMove, bestScore, previousPv, toStats(startNanos));
+        }
+
+        /**
+         * The meat of the algorithm.
+         * @param player        the player that the AI will identify as
+         * @param board         the Tic Tac Toe board to play on
+         * @param alpha         the alpha value
+         * @param beta          the beta value
+         * @param currentPly    the current depth
+         * @return              the score of the board
+         */
+        private int alphaBetaPruning (Board.State player, Board board, double alpha, double beta, int currentPly) {
+            pv.clear(currentPly + 1);
+
+            if (outOfBudget()) {
+                return 0;
+            }
+            reach(currentPly);
+
+            if (currentPly++ == maxPly || board.isGameOver()) {
+                leaves++;
+                return score(player, board, currentPly);
+            }
+
+            // Scores are cached from the point of view of the player to move, so
+            // the entries stay valid no matter which side the AI is playing.
+            int sign = (board.getTurn() == player) ? 1 : -1;
+            int depth = (int) Math.min(maxPly - currentPly + 1, board.getCellCount() - board.getMoveCount());
+            int hashMove = -1;
+
+            // Symmetric positions share one entry, keyed by the canonical form.
+            int transform = board.getCanonicalTransform();
+            long key = board.getHash(transform) ^ KEY_SALT;
+            long entry = table.probe(key);
+            if (entry != TranspositionTable.MISS) {
+                hashMove = fromCanonical(board, transform, TranspositionTable.bestMove(entry));
 
-            int score = alphaBetaPruning(player, modifiedBoard, alpha, beta, currentPly);
+                // The root is never cut off, it has to find the move to play.
+                if (currentPly > 1 && TranspositionTable.depth(entry) >= depth) {
+                    int score = sign * fromTable(TranspositionTable.score(entry), currentPly);
+                    int flag = TranspositionTable.flag(entry);
+                    if (sign == -1) {
+                        flag = TranspositionTable.flip(flag);
+                    }
 
-            if (score < beta) {
-                beta = score;
-                indexOfBestMove = theMove;
+                    if (flag == TranspositionTable.EXACT
+                            || (flag == TranspositionTable.LOWER_BOUND && score >= beta)
+                            || (flag == TranspositionTable.UPPER_BOUND && score <= alpha)) {
+                        return score;
+                    }
+                }
             }
 
-            if (alpha >= beta) {
-                break;
+            int score;
+            if (sign == 1) {
+                score = getMax(player, board, alpha, beta, currentPly, hashMove);
+            } else {
+                score = getMin(player, board, alpha, beta, currentPly, hashMove);
             }
+
+            // An interrupted search proves nothing, do not cache it.
+            if (aborted) {
+                return 0;
+            }
+
+            int flag;
+            if (score <= alpha) {
+                flag = TranspositionTable.UPPER_BOUND;
+            } else if (score >= beta) {
+                flag = TranspositionTable.LOWER_BOUND;
+            } else {
+                flag = TranspositionTable.EXACT;
+            }
+
+            if (sign == -1) {
+                flag = TranspositionTable.flip(flag);
+            }
+
+            table.store(key, sign * toTable(score, currentPly), depth, flag,
+                    toCanonical(board, transform, bestMoves[currentPly]));
+            return score;
+        }
+
+        /**
+         * Generate the moves of a position in the order they are searched: the
+         * move of the previous principal variation first, then the order of the
+         * move ordering. At the root, moves that lead to symmetric positions are
+         * only searched once.
+         * @param board         the Tic Tac Toe board to play on
+         * @param available     the array to fill
+         * @param currentPly    the current depth
+         * @param hashMove      the best move stored in the transposition table (-1 if none)
+         * @return              the number of moves
+         */
+        private int getMoves (Board board, int[] available, int currentPly, int hashMove) {
+            int count;
+            if (currentPly == 1) {
+                count = board.getUniqueMoves(available);
+            } else {
+                count = board.getAvailableMoves(available);
+            }
+
+            int firstMove = hashMove;
+            if (followPv) {
+                if (currentPly <= previousPv.length) {
+                    TranspositionTable.hashMoveFirst(available, count, previousPv[currentPly - 1]);
+                }
+                followPv = count > 0 && currentPly <= previousPv.length && available[0] == previousPv[currentPly - 1];
+                if (followPv) {
+                    firstMove = previousPv[currentPly - 1];
+                }
+            }
+
+            if (ordering != null) {
+                ordering.order(board, available, count, currentPly, firstMove);
+            } else {
+                TranspositionTable.hashMoveFirst(available, count, firstMove);
+            }
+            return count;
+        }
+
+        /**
+         * Remember a new best move and the line that follows it.
+         * @param currentPly    the current depth
+         * @param theMove       the new best move
+         */
+        private void updatePv (int currentPly, int theMove) {
+            bestMoves[currentPly] = theMove;
+            pv.update(currentPly, theMove);
         }
 
-        if (indexOfBestMove != -1) {
-            board.move(indexOfBestMove);
+        /**
+         * Play the move with the highest score.
+         * @param player        the player that the AI will identify as
+         * @param board         the Tic Tac Toe board to play on
+         * @param alpha         the alpha value
+         * @param beta          the beta value
+         * @param currentPly    the current depth
+         * @param hashMove      the best move stored in the transposition table (-1 if none)
+         * @return              the score of the board
+         */
+        private int getMax (Board.State player, Board board, double alpha, double beta, int currentPly, int hashMove) {
+            bestMoves[currentPly] = -1;
+
+            int[] available = moves[currentPly];
+            int count = getMoves(board, available, currentPly, hashMove);
+
+            for (int i = 0; i < count; i++) {
+                int theMove = (ordering != null) ? ordering.next(available, count, currentPly, i) : available[i];
+
+                // Only the first move continues the previous principal variation.
+                if (i > 0) {
+                    followPv = false;
+                }
+
+                board.move(theMove);
+                int score = alphaBetaPruning(player, board, alpha, beta, currentPly);
+                board.undo();
+
+                if (aborted) {
+                    break;
+                }
+
+                if (score > alpha) {
+                    alpha = score;
+                    updatePv(currentPly, theMove);
+                }
+
+                if (alpha >= beta) {
+                    cutoff(i);
+                    if (ordering != null) {
+                        ordering.cutoff(board, theMove, currentPly, i);
+                    }
+                    break;
+                }
+            }
+
+            return (int)alpha;
         }
-        return (int)beta;
+
+        /**
+         * Play the move with the lowest score.
+         * @param player        the player that the AI will identify as
+         * @param board         the Tic Tac Toe board to play on
+         * @param alpha         the alpha value
+         * @param beta          the beta value
+         * @param currentPly    the current depth
+         * @param hashMove      the best move stored in the transposition table (-1 if none)
+         * @return              the score of the board
+         */
+        private int getMin (Board.State player, Board board, double alpha, double beta, int currentPly, int hashMove) {
+            bestMoves[currentPly] = -1;
+
+            int[] available = moves[currentPly];
+            int count = getMoves(board, available, currentPly, hashMove);
+
+            for (int i = 0; i < count; i++) {
+                int theMove = (ordering != null) ? ordering.next(available, count, currentPly, i) : available[i];
+
+                // Only the first move continues the previous principal variation.
+                if (i > 0) {
+                    followPv = false;
+                }
+
+                board.move(theMove);
+                int score = alphaBetaPruning(player, board, alpha, beta, currentPly);
+                board.undo();
+
+                if (aborted) {
+                    break;
+                }
+
+                if (score < beta) {
+                    beta = score;
+                    updatePv(currentPly, theMove);
+                }
+
+                if (alpha >= beta) {
+                    cutoff(i);
+                    if (ordering != null) {
+                        ordering.cutoff(board, theMove, currentPly, i);
+                    }
+                    break;
+                }
+            }
+
+            return (int)beta;
+        }
+    }
+
+    /**
+     * Map a move on the canonical form of the position back onto the board.
+     * @param board         the Tic Tac Toe board to play on
+     * @param transform     the transformation to the canonical form
+     * @param move          the move on the canonical form (-1 if none)
+     * @return              the move (-1 if none)
+     */
+    private static int fromCanonical (Board board, int transform, int move) {
+        return (move == -1) ? -1 : board.getSymmetry().invert(transform, move);
+    }
+
+    /**
+     * Map a move onto the canonical form of the position.
+     * @param board         the Tic Tac Toe board to play on
+     * @param transform     the transformation to the canonical form
+     * @param move          the move (-1 if none)
+     * @return              the move on the canonical form (-1 if none)
+     */
+    private static int toCanonical (Board board, int transform, int move) {
+        return (move == -1) ? -1 : board.getSymmetry().apply(transform, move);
+    }
+
+    /**
+     * Turn the score of a win that counts plies from the root into one that
+     * counts plies from the current position, so it can be reused at any
+     * depth. Evaluations stay as they are.
+     * @param score         the score of the board
+     * @param currentPly    the current depth
+     * @return              the score to store in the transposition table
+     */
+    private static int toTable (int score, int currentPly) {
+        if (score > Board.MAX_EVALUATION) {
+            return score + currentPly - 1;
+        } else if (score < -Board.MAX_EVALUATION) {
+            return score - currentPly + 1;
+        }
+        return score;
     }
 
     /**
-     * Get the score of the board. Takes depth into account.
+     * Undo toTable().
+     * @param score         the score stored in the transposition table
+     * @param currentPly    the current depth
+     * @return              the score that counts plies from the root
+     */
+    private static int fromTable (int score, int currentPly) {
+        if (score > Board.MAX_EVALUATION) {
+            return score - currentPly + 1;
+        } else if (score < -Board.MAX_EVALUATION) {
+            return score + currentPly - 1;
+        }
+        return score;
+    }
+
+    /**
+     * Get the score of the board. Takes depth into account. A game that is not
+     * over yet is scored by the evaluation of the board.
      * @param player        the play that the AI will identify as
      * @param board         the Tic Tac Toe board to play on
      * @param currentPly    the current depth
@@ -132,14 +829,128 @@ public class AlphaBetaAdvanced {
 
         Board.State opponent = (player == Board.State.X) ? Board.State.O : Board.State.X;
 
-        if (board.isGameOver() && board.getWinner() == player) {
-            return 10 - currentPly;
-        } else if (board.isGameOver() && board.getWinner() == opponent) {
-            return -10 + currentPly;
+        // A win on the last cell must still score above every evaluation,
+        // otherwise the cached scores would depend on how far away the root was.
+        int win = Board.MAX_EVALUATION + board.getCellCount() + 2;
+
+        if (!board.isGameOver()) {
+            return board.getEvaluation(player);
+        } else if (board.getWinner() == player) {
+            return win - currentPly;
+        } else if (board.getWinner() == opponent) {
+            return -win + currentPly;
         } else {
             return 0;
         }
     }
 
+    /**
+     * Pack the score and the position of a root move into one number. Packed
+     * moves compare like their scores, and on equal scores the earlier move
+     * is bigger.
+     * @param score         the exact score of the move
+     * @param index         the position of the move in the search order
+     * @return              the packed move
+     */
+    private static long pack (int score, int index) {
+        return (long) score << 32 | (Integer.MAX_VALUE - index);
+    }
+
+    /**
+     * Get the score of a packed root move.
+     * @param packed        the packed move
+     * @return              the score
+     */
+    private static int unpackScore (long packed) {
+        return (int) (packed >> 32);
+    }
+
+    /**
+     * Get the position of a packed root move.
+     * @param packed        the packed move
+     * @return              the position in the search order
+     */
+    private static int unpackIndex (long packed) {
+        return Integer.MAX_VALUE - (int) packed;
+    }
+
+    /**
+     * The search of a single root move by searchParallel().
+     */
+    private class RootMove extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Board board;
+        private final int move;
+        private final int index;
+        private final MoveOrdering ordering;
+
+        /**
+         * The move ordering of every thread. Each one starts out as a copy of
+         * the ordering of the root and keeps learning over the root moves its
+         * thread searches, like the ordering of the single threaded search
+         * does.
+         */
+        private final Map<Thread, MoveOrdering> orderings;
 
+        /**
+         * The best root move so far, packed by pack().
+         */
+        private final AtomicLong best;
+
+        private SearchCounters counters = new SearchCounters();
+        private int[] principalVariation = new int[0];
+
+        /**
+         * Construct a RootMove.
+         * @param board         the Tic Tac Toe board to play on (not changed)
+         * @param move          the root move to search
+         * @param index         the position of the move in the search order
+         * @param ordering      the move ordering of the root (null to only try the hash move first)
+         * @param orderings     the move orderings of the threads, shared by all tasks
+         * @param best          the best root move so far, shared by all tasks
+         */
+        private RootMove (Board board, int move, int index, MoveOrdering ordering,
+                          Map<Thread, MoveOrdering> orderings, AtomicLong best) {
+            this.board = board;
+            this.move = move;
+            this.index = index;
+            this.ordering = ordering;
+            this.orderings = orderings;
+            this.best = best;
+        }
+
+        @Override
+        protected void compute () {
+            Board copy = board.getDeepCopy();
+            copy.move(move);
+
+            // The root ordering is not touched while the tasks run.
+            MoveOrdering threadOrdering = null;
+            if (ordering != null) {
+                threadOrdering = orderings.computeIfAbsent(Thread.currentThread(),
+                        thread -> new MoveOrdering(ordering));
+            }
+
+            // The plies are counted from the root, one move before the copy.
+            Search search = new Search(copy, plies(board, maxPly), maxPly, threadOrdering);
+
+            // Scores are whole numbers, so searching just below the best score
+            // is enough to tell a tie from a worse move. Only a move that comes
+            // first wins a tie, the others only need to beat the best score.
+            long packed = best.get();
+            double alpha = Double.NEGATIVE_INFINITY;
+            if (packed != Long.MIN_VALUE) {
+                alpha = (unpackIndex(packed) < index) ? unpackScore(packed) : unpackScore(packed) - 1;
+            }
+
+            int score = search.alphaBetaPruning(board.getTurn(), copy, alpha, Double.POSITIVE_INFINITY, 1);
+            if (score > alpha && !search.aborted) {
+                best.accumulateAndGet(pack(score, index), Math::max);
+            }
+
+            counters = search;
+            principalVariation = search.pv.toArray(2);
+        }
+    }
 }
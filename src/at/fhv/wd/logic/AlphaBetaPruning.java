@@ -2,123 +2,326 @@ package at.fhv.wd.logic;
 
 import at.fhv.wd.tictactoe.Board;
 
-public class AlphaBetaPruning {
-    private static double maxPly;
+public class AlphaBetaPruning implements SearchEngine {
 
     /**
-     * AlphaBetaPruning cannot be instantiated.
+     * The score of a win, above every evaluation.
      */
-    private AlphaBetaPruning () {}
+    private static final int WIN = Board.MAX_EVALUATION + 1;
+
+    private final double maxPly;
+    private final TranspositionTable table;
 
     /**
-     * Execute the algorithm.
-     * @param player        the player that the AI will identify as
-     * @param board         the Tic Tac Toe board to play on
+     * The move ordering of every thread that searches with this engine (null
+     * to only try the hash move first). Killers and history are only ever
+     * touched by one search at a time.
+     */
+    private final ThreadLocal<MoveOrdering> orderings;
+
+    /**
+     * Construct an AlphaBetaPruning engine that searches to the end of the
+     * game with its own transposition table and move ordering.
+     */
+    public AlphaBetaPruning () {
+        this(new HeapTranspositionTable(TranspositionTable.DEFAULT_SIZE), true);
+    }
+
+    /**
+     * Construct an AlphaBetaPruning engine that searches to the end of the
+     * game.
+     * @param table         the transposition table to cache positions in (may be shared)
+     * @param ordered       true to sort the moves, false to only try the hash move first
+     */
+    public AlphaBetaPruning (TranspositionTable table, boolean ordered) {
+        this(Double.POSITIVE_INFINITY, table, ordered ? ThreadLocal.withInitial(MoveOrdering::new) : null);
+    }
+
+    /**
+     * Construct an AlphaBetaPruning engine.
      * @param maxPly        the maximum depth
+     * @param table         the transposition table to cache positions in
+     * @param orderings     the move ordering of every thread (null to only try the hash move first)
      */
-    static void run (Board.State player, Board board, double maxPly) {
+    AlphaBetaPruning (double maxPly, TranspositionTable table, ThreadLocal<MoveOrdering> orderings) {
         if (maxPly < 1) {
             throw new IllegalArgumentException("Maximum depth must be greater than 0.");
         }
 
-        AlphaBetaPruning.maxPly = maxPly;
-        alphaBetaPruning(player, board, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, 0);
+        this.maxPly = maxPly;
+        this.table = table;
+        this.orderings = orderings;
     }
 
     /**
-     * The meat of the algorithm.
-     * @param player        the player that the AI will identify as
-     * @param board         the Tic Tac Toe board to play on
-     * @param alpha         the alpha value
-     * @param beta          the beta value
-     * @param currentPly    the current depth
-     * @return              the score of the board
+     * Get an engine that is the same as this one, but with a depth limit. The
+     * two share their transposition table and move orderings.
+     * @param maxPly        the maximum depth
+     * @return              the new engine
      */
-    private static int alphaBetaPruning (Board.State player, Board board, double alpha, double beta, int currentPly) {
-        if (currentPly++ == maxPly || board.isGameOver()) {
-            return score(player, board);
-        }
+    public AlphaBetaPruning withMaxPly (int maxPly) {
+        return new AlphaBetaPruning(maxPly, table, orderings);
+    }
 
-        if (board.getTurn() == player) {
-            return getMax(player, board, alpha, beta, currentPly);
-        } else {
-            return getMin(player, board, alpha, beta, currentPly);
-        }
+    /**
+     * Get the move ordering the calling thread searches with, for example to
+     * look at its cutoff rate.
+     * @return              the move ordering (null if the moves are not sorted)
+     */
+    public MoveOrdering getMoveOrdering () {
+        return (orderings != null) ? orderings.get() : null;
     }
 
     /**
-     * Play the move with the highest score.
-     * @param player        the player that the AI will identify as
-     * @param board         the Tic Tac Toe board to play on
-     * @param alpha         the alpha value
-     * @param beta          the beta value
-     * @param currentPly    the current depth
-     * @return              the score of the board
+     * Execute the algorithm.
+     * @param board         the Tic Tac Toe board to play on (not changed)
+     * @return              the best move
      */
-    private static int getMax (Board.State player, Board board, double alpha, double beta, int currentPly) {
-        int indexOfBestMove = -1;
+    @Override
+    public SearchResult search (Board board) {
+        long start = System.nanoTime();
+        Search search = new Search(board);
+        int score = search.alphaBetaPruning(board.getTurn(), search.board, Double.NEGATIVE_INFINITY,
+                Double.POSITIVE_INFINITY, 0);
 
-        for (Integer theMove : board.getAvailableMoves()) {
+        return new SearchResult(search.bestMoves[1], score, search.pv.toArray(1), search.toStats(start));
+    }
+
+    /**
+     * The state of a single search.
+     */
+    private class Search extends SearchCounters {
+        private final Board board;
+        private final MoveOrdering ordering;
 
-            Board modifiedBoard = board.getDeepCopy();
-            modifiedBoard.move(theMove);
-            int score = alphaBetaPruning(player, modifiedBoard, alpha, beta, currentPly);
+        /**
+         * One move buffer per ply, so the search does not allocate per node.
+         */
+        private final int[][] moves;
 
-            if (score > alpha) {
-                alpha = score;
-                indexOfBestMove = theMove;
+        /**
+         * The best move found at each ply. The entry at ply 1 is the move to play.
+         */
+        private final int[] bestMoves;
+        private final PrincipalVariation pv;
+
+        /**
+         * Construct a Search.
+         * @param root          the Tic Tac Toe board to search (copied)
+         */
+        private Search (Board root) {
+            board = root.getDeepCopy();
+            ordering = getMoveOrdering();
+            if (ordering != null) {
+                ordering.prepare(board, board.getCellCount() + 1);
             }
+            moves = new int[board.getCellCount() + 1][board.getCellCount()];
+            bestMoves = new int[board.getCellCount() + 1];
+            bestMoves[1] = -1;
+            pv = new PrincipalVariation(board.getCellCount() + 2);
+        }
 
-            // Pruning.
-            if (alpha >= beta) {
-                break;
+        /**
+         * The meat of the algorithm.
+         * @param player        the player that the AI will identify as
+         * @param board         the Tic Tac Toe board to play on
+         * @param alpha         the alpha value
+         * @param beta          the beta value
+         * @param currentPly    the current depth
+         * @return              the score of the board
+         */
+        private int alphaBetaPruning (Board.State player, Board board, double alpha, double beta, int currentPly) {
+            nodes++;
+            reach(currentPly);
+            pv.clear(currentPly + 1);
+
+            if (currentPly++ == maxPly || board.isGameOver()) {
+                leaves++;
+                return score(player, board);
             }
+
+            // Scores are cached from the point of view of the player to move, so
+            // the entries stay valid no matter which side the AI is playing.
+            int sign = (board.getTurn() == player) ? 1 : -1;
+            int depth = (int) Math.min(maxPly - currentPly + 1, board.getCellCount() - board.getMoveCount());
+            int hashMove = -1;
+
+            // Symmetric positions share one entry, keyed by the canonical form.
+            int transform = board.getCanonicalTransform();
+            long key = board.getHash(transform);
+            long entry = table.probe(key);
+            if (entry != TranspositionTable.MISS) {
+                hashMove = TranspositionTable.bestMove(entry);
+                if (hashMove != -1) {
+                    hashMove = board.getSymmetry().invert(transform, hashMove);
+                }
+
+                // The root is never cut off, it has to find the move to play.
+                if (currentPly > 1 && TranspositionTable.depth(entry) >= depth) {
+                    int score = sign * TranspositionTable.score(entry);
+                    int flag = TranspositionTable.flag(entry);
+                    if (sign == -1) {
+                        flag = TranspositionTable.flip(flag);
+                    }
+
+                    if (flag == TranspositionTable.EXACT
+                            || (flag == TranspositionTable.LOWER_BOUND && score >= beta)
+                            || (flag == TranspositionTable.UPPER_BOUND && score <= alpha)) {
+                        return score;
+                    }
+                }
+            }
+
+            int score;
+            if (sign == 1) {
+                score = getMax(player, board, alpha, beta, currentPly, hashMove);
+            } else {
+                score = getMin(player, board, alpha, beta, currentPly, hashMove);
+            }
+
+            int flag;
+            if (score <= alpha) {
+                flag = TranspositionTable.UPPER_BOUND;
+            } else if (score >= beta) {
+                flag = TranspositionTable.LOWER_BOUND;
+            } else {
+                flag = TranspositionTable.EXACT;
+            }
+
+            if (sign == -1) {
+                flag = TranspositionTable.flip(flag);
+            }
+
+            table.store(key, sign * score, depth, flag, toCanonical(board, transform, bestMoves[currentPly]));
+            return score;
         }
 
-        if (indexOfBestMove != -1) {
-            board.move(indexOfBestMove);
+        /**
+         * Generate the moves of a position in the order they are searched. At the
+         * root, moves that lead to symmetric positions are only searched once.
+         * @param board         the Tic Tac Toe board to play on
+         * @param available     the array to fill
+         * @param currentPly    the current depth
+         * @param hashMove      the best move stored in the transposition table (-1 if none)
+         * @return              the number of moves
+         */
+        private int getMoves (Board board, int[] available, int currentPly, int hashMove) {
+            int count;
+            if (currentPly == 1) {
+                count = board.getUniqueMoves(available);
+            } else {
+                count = board.getAvailableMoves(available);
+            }
+
+            if (ordering != null) {
+                ordering.order(board, available, count, currentPly, hashMove);
+            } else {
+                TranspositionTable.hashMoveFirst(available, count, hashMove);
+            }
+            return count;
         }
-        return (int)alpha;
-    }
 
-    /**
-     * Play the move with the lowest score.
-     * @param player        the player that the AI will identify as
-     * @param board         the Tic Tac Toe board to play on
-     * @param alpha         the alpha value
-     * @param beta          the beta value
-     * @param currentPly    the current depth
-     * @return              the score of the board
-     */
-    private static int getMin (Board.State player, Board board, double alpha, double beta, int currentPly) {
-        int indexOfBestMove = -1;
+        /**
+         * Play the move with the highest score.
+         * @param player        the player that the AI will identify as
+         * @param board         the Tic Tac Toe board to play on
+         * @param alpha         the alpha value
+         * @param beta          the beta value
+         * @param currentPly    the current depth
+         * @param hashMove      the best move stored in the transposition table (-1 if none)
+         * @return              the score of the board
+         */
+        private int getMax (Board.State player, Board board, double alpha, double beta, int currentPly, int hashMove) {
+            int indexOfBestMove = -1;
 
-        for (Integer theMove : board.getAvailableMoves()) {
+            int[] available = moves[currentPly];
+            int count = getMoves(board, available, currentPly, hashMove);
 
-            Board modifiedBoard = board.getDeepCopy();
-            modifiedBoard.move(theMove);
+            for (int i = 0; i < count; i++) {
+                int theMove = (ordering != null) ? ordering.next(available, count, currentPly, i) : available[i];
 
-            int score = alphaBetaPruning(player, modifiedBoard, alpha, beta, currentPly);
+                board.move(theMove);
+                int score = alphaBetaPruning(player, board, alpha, beta, currentPly);
+                board.undo();
 
-            if (score < beta) {
-                beta = score;
-                indexOfBestMove = theMove;
-            }
+                if (score > alpha) {
+                    alpha = score;
+                    indexOfBestMove = theMove;
+                    pv.update(currentPly, theMove);
+                }
 
-            // Pruning.
-            if (alpha >= beta) {
-                break;
+                // Pruning.
+                if (alpha >= beta) {
+                    cutoff(i);
+                    if (ordering != null) {
+                        ordering.cutoff(board, theMove, currentPly, i);
+                    }
+                    break;
+                }
             }
+
+            bestMoves[currentPly] = indexOfBestMove;
+            return (int)alpha;
         }
 
-        if (indexOfBestMove != -1) {
-            board.move(indexOfBestMove);
+        /**
+         * Play the move with the lowest score.
+         * @param player        the player that the AI will identify as
+         * @param board         the Tic Tac Toe board to play on
+         * @param alpha         the alpha value
+         * @param beta          the beta value
+         * @param currentPly    the current depth
+         * @param hashMove      the best move stored in the transposition table (-1 if none)
+         * @return              the score of the board
+         */
+        private int getMin (Board.State player, Board board, double alpha, double beta, int currentPly, int hashMove) {
+            int indexOfBestMove = -1;
+
+            int[] available = moves[currentPly];
+            int count = getMoves(board, available, currentPly, hashMove);
+
+            for (int i = 0; i < count; i++) {
+                int theMove = (ordering != null) ? ordering.next(available, count, currentPly, i) : available[i];
+
+                board.move(theMove);
+                int score = alphaBetaPruning(player, board, alpha, beta, currentPly);
+                board.undo();
+
+                if (score < beta) {
+                    beta = score;
+                    indexOfBestMove = theMove;
+                    pv.update(currentPly, theMove);
+                }
+
+                // Pruning.
+                if (alpha >= beta) {
+                    cutoff(i);
+                    if (ordering != null) {
+                        ordering.cutoff(board, theMove, currentPly, i);
+                    }
+                    break;
+                }
+            }
+
+            bestMoves[currentPly] = indexOfBestMove;
+            return (int)beta;
         }
-        return (int)beta;
     }
 
     /**
-     * Get the score of the board.
+     * Map a move onto the canonical form of the position.
+     * @param board         the Tic Tac Toe board to play on
+     * @param transform     the transformation to the canonical form
+     * @param move          the move (-1 if none)
+     * @return              the move on the canonical form (-1 if none)
+     */
+    private static int toCanonical (Board board, int transform, int move) {
+        return (move == -1) ? -1 : board.getSymmetry().apply(transform, move);
+    }
+
+    /**
+     * Get the score of the board. A game that is not over yet is scored by
+     * the evaluation of the board.
      * @param player        the play that the AI will identify as
      * @param board         the Tic Tac Toe board to play on
      * @return              the score of the board
@@ -130,10 +333,12 @@ public class AlphaBetaPruning {
 
         Board.State opponent = (player == Board.State.X) ? Board.State.O : Board.State.X;
 
-        if (board.isGameOver() && board.getWinner() == player) {
-            return 10;
-        } else if (board.isGameOver() && board.getWinner() == opponent) {
-            return -10;
+        if (!board.isGameOver()) {
+            return board.getEvaluation(player);
+        } else if (board.getWinner() == player) {
+            return WIN;
+        } else if (board.getWinner() == opponent) {
+            return -WIN;
         } else {
             return 0;
         }
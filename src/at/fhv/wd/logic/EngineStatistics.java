@@ -0,0 +1,149 @@
+package at.fhv.wd.logic;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+public class EngineStatistics {
+    private final LongAdder _searches = new LongAdder();
+    private final LongAdder _nodes = new LongAdder();
+    private final LongAdder _leaves = new LongAdder();
+    private final LongAdder _cutoffs = new LongAdder();
+    private final LongAdder _firstMoveCutoffs = new LongAdder();
+    private final LongAdder _elapsedNanos = new LongAdder();
+    private final LongAccumulator _maxDepth = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator _maxElapsedNanos = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Construct an empty EngineStatistics. Searches on any number of threads
+     * can be added at the same time without taking a lock.
+     */
+    public EngineStatistics () {}
+
+    /**
+     * Add the statistics of a search.
+     * @param stats     the statistics of the search
+     */
+    public void add (SearchStats stats) {
+        _searches.increment();
+        _nodes.add(stats.getNodes());
+        _leaves.add(stats.getLeaves());
+        _cutoffs.add(stats.getCutoffs());
+        _firstMoveCutoffs.add(stats.getFirstMoveCutoffs());
+        _elapsedNanos.add(stats.getElapsedNanos());
+        _maxDepth.accumulate(stats.getMaxDepth());
+        _maxElapsedNanos.accumulate(stats.getElapsedNanos());
+    }
+
+    /**
+     * Forget all searches added so far.
+     */
+    public void clear () {
+        _searches.reset();
+        _nodes.reset();
+        _leaves.reset();
+        _cutoffs.reset();
+        _firstMoveCutoffs.reset();
+        _elapsedNanos.reset();
+        _maxDepth.reset();
+        _maxElapsedNanos.reset();
+    }
+
+    /**
+     * Get the number of searches added.
+     * @return          the number of searches
+     */
+    public long getSearches () {
+        return _searches.sum();
+    }
+
+    /**
+     * Get the number of positions all searches looked at.
+     * @return          the number of nodes
+     */
+    public long getNodes () {
+        return _nodes.sum();
+    }
+
+    /**
+     * Get the number of positions all searches scored without searching deeper.
+     * @return          the number of leaves
+     */
+    public long getLeaves () {
+        return _leaves.sum();
+    }
+
+    /**
+     * Get the number of beta cutoffs of all searches.
+     * @return          the number of cutoffs
+     */
+    public long getCutoffs () {
+        return _cutoffs.sum();
+    }
+
+    /**
+     * Get the number of cutoffs caused by the first move searched.
+     * @return          the number of cutoffs on the first move
+     */
+    public long getFirstMoveCutoffs () {
+        return _firstMoveCutoffs.sum();
+    }
+
+    /**
+     * Get the share of the cutoffs that the first move caused.
+     * @return          the share between 0 and 1 (0 if there were no cutoffs)
+     */
+    public double getFirstMoveCutoffRate () {
+        long cutoffs = getCutoffs();
+        return (cutoffs == 0) ? 0 : (double) getFirstMoveCutoffs() / cutoffs;
+    }
+
+    /**
+     * Get the deepest position any search reached.
+     * @return          the depth in plies from the root
+     */
+    public int getMaxDepth () {
+        return (int) _maxDepth.get();
+    }
+
+    /**
+     * Get the time all searches took together.
+     * @return          the time in nanoseconds
+     */
+    public long getElapsedNanos () {
+        return _elapsedNanos.sum();
+    }
+
+    /**
+     * Get the time the slowest search took.
+     * @return          the time in nanoseconds
+     */
+    public long getMaxElapsedNanos () {
+        return _maxElapsedNanos.get();
+    }
+
+    /**
+     * Get the time a search took on average.
+     * @return          the time in nanoseconds (0 if there were no searches)
+     */
+    public double getAverageNanos () {
+        long searches = getSearches();
+        return (searches == 0) ? 0 : (double) getElapsedNanos() / searches;
+    }
+
+    /**
+     * Get the number of positions searched per second over all searches.
+     * @return          the nodes per second (0 if no time was measured)
+     */
+    public double getNodesPerSecond () {
+        long elapsedNanos = getElapsedNanos();
+        return (elapsedNanos == 0) ? 0 : getNodes() * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString () {
+        return String.format("EngineStatistics[searches=%d, nodes=%d, nodesPerSec=%.0f, firstMove=%.1f%%, "
+                        + "maxDepth=%d, avgTime=%.3fms, maxTime=%.3fms]",
+                getSearches(), getNodes(), getNodesPerSecond(), getFirstMoveCutoffRate() * 100, getMaxDepth(),
+                getAverageNanos() / 1e6, getMaxElapsedNanos() / 1e6);
+    }
+}
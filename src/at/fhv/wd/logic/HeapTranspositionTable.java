@@ -0,0 +1,90 @@
+package at.fhv.wd.logic;
+
+import java.util.Arrays;
+
+/**
+ * A TranspositionTable in a long array on the heap, one entry per slot.
+ */
+public class HeapTranspositionTable extends TranspositionTable {
+
+    /**
+     * The most entries, two longs each still fit into one array.
+     */
+    static final int MAX_SIZE = 1 << 29;
+
+    /**
+     * The key and the entry of every slot side by side, so a lookup touches a
+     * single cache line. The key is stored XORed with its entry. A slot that
+     * was half written by another thread then fails the key check instead of
+     * pairing one position with the entry of another, so the table can be
+     * shared between threads without locks.
+     */
+    private final long[] _slots;
+    private final int _mask;
+
+    /**
+     * Construct the HeapTranspositionTable.
+     * @param size      the number of entries (rounded up to a power of two, at most MAX_SIZE)
+     */
+    public HeapTranspositionTable (int size) {
+        if (size < 1 || size > MAX_SIZE) {
+            throw new IllegalArgumentException("Size must be between 1 and 2^29.");
+        }
+
+        int capacity = Integer.highestOneBit(size);
+        if (capacity < size) {
+            capacity <<= 1;
+        }
+
+        _slots = new long[capacity * 2];
+        _mask = capacity - 1;
+    }
+
+    @Override
+    long probe (long key) {
+        probes.increment();
+        int slot = ((int) key & _mask) << 1;
+        long entry = _slots[slot + 1];
+
+        if (entry != MISS && (_slots[slot] ^ entry) == key) {
+            hits.increment();
+            return entry;
+        }
+        return MISS;
+    }
+
+    /**
+     * Store the result of a search. An entry for another position is only
+     * replaced if the new result was searched at least as deep, so the
+     * expensive results near the root survive the flood of shallow ones.
+     * @param key       the hash of the position
+     * @param score     the score of the position
+     * @param depth     the number of plies the position was searched to (at most 255)
+     * @param flag      EXACT, LOWER_BOUND or UPPER_BOUND
+     * @param bestMove  the best move found (-1 if none)
+     */
+    @Override
+    void store (long key, int score, int depth, int flag, int bestMove) {
+        int slot = ((int) key & _mask) << 1;
+        long old = _slots[slot + 1];
+
+        if (old != MISS && (_slots[slot] ^ old) != key && depth(old) > depth) {
+            return;
+        }
+
+        long entry = pack(score, depth, flag, bestMove);
+        _slots[slot] = key ^ entry;
+        _slots[slot + 1] = entry;
+    }
+
+    @Override
+    public void clear () {
+        Arrays.fill(_slots, MISS);
+        super.clear();
+    }
+
+    @Override
+    public int getSize () {
+        return _mask + 1;
+    }
+}
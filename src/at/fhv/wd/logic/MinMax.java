@@ -2,109 +2,232 @@ package at.fhv.wd.logic;
 
 import at.fhv.wd.tictactoe.Board;
 
-public class MinMax {
-    private static double maxPly;
+public class MinMax implements SearchEngine {
 
     /**
-     * MiniMax cannot be instantiated.
+     * The score of a win, above every evaluation.
      */
-    private MinMax() {}
+    private static final int WIN = Board.MAX_EVALUATION + 1;
+
+    private final double maxPly;
 
     /**
-     * Execute the algorithm.
-     * @param player        the player that the AI will identify as
-     * @param board         the Tic Tac Toe board to play on
+     * Told about the progress of every search, and asked whether to stop
+     * (null if nobody watches).
+     */
+    private final SearchMonitor monitor;
+
+    /**
+     * Construct a MinMax engine that searches to the end of the game.
+     */
+    public MinMax () {
+        this(Double.POSITIVE_INFINITY, null);
+    }
+
+    /**
+     * Construct a MinMax engine with a depth limit.
      * @param maxPly        the maximum depth
      */
-    static void run (Board.State player, Board board, double maxPly) {
+    public MinMax (int maxPly) {
+        this(maxPly, null);
+    }
+
+    /**
+     * Construct a MinMax engine.
+     * @param maxPly        the maximum depth
+     * @param monitor       the monitor to report to (null for none)
+     */
+    private MinMax (double maxPly, SearchMonitor monitor) {
         if (maxPly < 1) {
             throw new IllegalArgumentException("Maximum depth must be greater than 0.");
         }
 
-        MinMax.maxPly = maxPly;
-        miniMax(player, board, 0);
+        this.maxPly = maxPly;
+        this.monitor = monitor;
     }
 
     /**
-     * The meat of the algorithm.
-     * @param player        the player that the AI will identify as
-     * @param board         the Tic Tac Toe board to play on
-     * @param currentPly    the current depth
-     * @return              the score of the board
+     * Get an engine that is the same as this one, but reports its progress to
+     * a monitor and stops without a move once the monitor is cancelled.
+     * @param monitor       the monitor to report to
+     * @return              the new engine
      */
-    private static int miniMax (Board.State player, Board board, int currentPly) {
-        if (currentPly++ == maxPly || board.isGameOver()) {
-            return score(player, board);
-        }
+    public MinMax withMonitor (SearchMonitor monitor) {
+        return new MinMax(maxPly, monitor);
+    }
 
-        if (board.getTurn() == player) {
-            return getMax(player, board, currentPly);
-        } else {
-            return getMin(player, board, currentPly);
+    /**
+     * Execute the algorithm.
+     * @param board         the Tic Tac Toe board to play on (not changed)
+     * @return              the best move (-1 if the monitor was cancelled)
+     */
+    @Override
+    public SearchResult search (Board board) {
+        long start = System.nanoTime();
+        Search search = new Search(board);
+        int score = search.miniMax(board.getTurn(), search.board, 0);
+
+        if (search.aborted) {
+            return new SearchResult(-1, 0, new int[0], search.toStats(start));
         }
-
+        return new SearchResult(search.bestMove, score, search.pv.toArray(1), search.toStats(start));
     }
 
     /**
-     * Play the move with the highest score.
-     * @param player        the player that the AI will identify as
-     * @param board         the Tic Tac Toe board to play on
-     * @param currentPly    the current depth
-     * @return              the score of the board
+     * The state of a single search.
      */
-    private static int getMax (Board.State player, Board board, int currentPly) {
-        double bestScore = Double.NEGATIVE_INFINITY;
-        int indexOfBestMove = -1;
+    private class Search extends SearchCounters {
+        private final Board board;
+        private int bestMove = -1;
+        private boolean aborted;
+
+        /**
+         * One move buffer per ply, so the search does not allocate per node.
+         */
+        private final int[][] moves;
+        private final PrincipalVariation pv;
+
+        /**
+         * Construct a Search.
+         * @param root          the Tic Tac Toe board to search (copied)
+         */
+        private Search (Board root) {
+            board = root.getDeepCopy();
+            moves = new int[board.getCellCount() + 1][board.getCellCount()];
+            pv = new PrincipalVariation(board.getCellCount() + 2);
+        }
 
-        for (Integer theMove : board.getAvailableMoves()) {
+        /**
+         * The meat of the algorithm.
+         * @param player        the player that the AI will identify as
+         * @param board         the Tic Tac Toe board to play on
+         * @param currentPly    the current depth
+         * @return              the score of the board
+         */
+        private int miniMax (Board.State player, Board board, int currentPly) {
+            nodes++;
+            reach(currentPly);
+            pv.clear(currentPly + 1);
+
+            if (monitor != null && nodes % SearchMonitor.REPORT_INTERVAL == 0
+                    && monitor.report(SearchMonitor.REPORT_INTERVAL)) {
+                aborted = true;
+            }
 
-            Board modifiedBoard = board.getDeepCopy();
-            modifiedBoard.move(theMove);
+            if (aborted) {
+                return 0;
+            }
 
-            int score = miniMax(player, modifiedBoard, currentPly);
+            if (currentPly++ == maxPly || board.isGameOver()) {
+                leaves++;
+                return score(player, board);
+            }
 
-            if (score >= bestScore) {
-                bestScore = score;
-                indexOfBestMove = theMove;
+            if (board.getTurn() == player) {
+                return getMax(player, board, currentPly);
+            } else {
+                return getMin(player, board, currentPly);
             }
 
         }
 
-        board.move(indexOfBestMove);
-        return (int)bestScore;
-    }
+        /**
+         * Generate the moves of a position. At the root, moves that lead to
+         * symmetric positions are only searched once.
+         * @param board         the Tic Tac Toe board to play on
+         * @param available     the array to fill
+         * @param currentPly    the current depth
+         * @return              the number of moves
+         */
+        private int getMoves (Board board, int[] available, int currentPly) {
+            if (currentPly == 1) {
+                return board.getUniqueMoves(available);
+            }
+            return board.getAvailableMoves(available);
+        }
 
-    /**
-     * Play the move with the lowest score.
-     * @param player        the player that the AI will identify as
-     * @param board         the Tic Tac Toe board to play on
-     * @param currentPly    the current depth
-     * @return              the score of the board
-     */
-    private static int getMin (Board.State player, Board board, int currentPly) {
-        double bestScore = Double.POSITIVE_INFINITY;
-        int indexOfBestMove = -1;
+        /**
+         * Play the move with the highest score.
+         * @param player        the player that the AI will identify as
+         * @param board         the Tic Tac Toe board to play on
+         * @param currentPly    the current depth
+         * @return              the score of the board
+         */
+        private int getMax (Board.State player, Board board, int currentPly) {
+            double bestScore = Double.NEGATIVE_INFINITY;
+            int indexOfBestMove = -1;
+
+            int[] available = moves[currentPly];
+            int count = getMoves(board, available, currentPly);
+
+            for (int i = 0; i < count; i++) {
+                int theMove = available[i];
+
+                board.move(theMove);
+                int score = miniMax(player, board, currentPly);
+                board.undo();
+
+                if (aborted) {
+                    break;
+                }
+
+                if (score >= bestScore) {
+                    bestScore = score;
+                    indexOfBestMove = theMove;
+                    pv.update(currentPly, theMove);
+                }
 
-        for (Integer theMove : board.getAvailableMoves()) {
+            }
 
-            Board modifiedBoard = board.getDeepCopy();
-            modifiedBoard.move(theMove);
+            if (currentPly == 1) {
+                bestMove = indexOfBestMove;
+            }
+            return (int)bestScore;
+        }
 
-            int score = miniMax(player, modifiedBoard, currentPly);
+        /**
+         * Play the move with the lowest score.
+         * @param player        the player that the AI will identify as
+         * @param board         the Tic Tac Toe board to play on
+         * @param currentPly    the current depth
+         * @return              the score of the board
+         */
+        private int getMin (Board.State player, Board board, int currentPly) {
+            double bestScore = Double.POSITIVE_INFINITY;
+            int indexOfBestMove = -1;
+
+            int[] available = moves[currentPly];
+            int count = getMoves(board, available, currentPly);
+
+            for (int i = 0; i < count; i++) {
+                int theMove = available[i];
+
+                board.move(theMove);
+                int score = miniMax(player, board, currentPly);
+                board.undo();
+
+                if (aborted) {
+                    break;
+                }
+
+                if (score <= bestScore) {
+                    bestScore = score;
+                    indexOfBestMove = theMove;
+                    pv.update(currentPly, theMove);
+                }
 
-            if (score <= bestScore) {
-                bestScore = score;
-                indexOfBestMove = theMove;
             }
 
+            if (currentPly == 1) {
+                bestMove = indexOfBestMove;
+            }
+            return (int)bestScore;
         }
-
-        board.move(indexOfBestMove);
-        return (int)bestScore;
     }
 
     /**
-     * Get the score of the board.
+     * Get the score of the board. A game that is not over yet is scored by
+     * the evaluation of the board.
      * @param player        the play that the AI will identify as
      * @param board         the Tic Tac Toe board to play on
      * @return              the score of the board
@@ -116,10 +239,12 @@ public class MinMax {
 
         Board.State opponent = (player == Board.State.X) ? Board.State.O : Board.State.X;
 
-        if (board.isGameOver() && board.getWinner() == player) {
-            return 10;
-        } else if (board.isGameOver() && board.getWinner() == opponent) {
-            return -10;
+        if (!board.isGameOver()) {
+            return board.getEvaluation(player);
+        } else if (board.getWinner() == player) {
+            return WIN;
+        } else if (board.getWinner() == opponent) {
+            return -WIN;
         } else {
             return 0;
         }
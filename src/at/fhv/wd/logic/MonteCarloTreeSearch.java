@@ -0,0 +1,550 @@
+package at.fhv.wd.logic;
+
+import at.fhv.wd.tictactoe.Board;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MonteCarloTreeSearch implements SearchEngine {
+
+    /**
+     * The number of playouts per move if nobody asks for another budget.
+     */
+    public static final int DEFAULT_PLAYOUTS = 10_000;
+
+    /**
+     * The number of tree nodes per thread if nobody asks for another size.
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+
+    /**
+     * The weight of the exploration term of UCB1. The square root of 2 suits
+     * results between 0 and 1.
+     */
+    private static final double EXPLORATION = Math.sqrt(2);
+
+    /**
+     * A leaf is only expanded once it has been visited this often, so one
+     * unlucky playout does not allocate a whole row of children.
+     */
+    private static final int EXPAND_VISITS = 2;
+
+    /**
+     * The first child of a node while one thread allocates its children.
+     */
+    private static final int EXPANDING = -1;
+
+    /**
+     * The budget of a search. A time budget of 0 only counts playouts.
+     */
+    private final long timeMillis;
+    private final long maxPlayouts;
+
+    private final int capacity;
+
+    /**
+     * The tree of every thread that searches with this engine. It is kept
+     * between searches, so the subtree of the moves played since the last
+     * search is not searched again.
+     */
+    private final ThreadLocal<Tree> trees;
+
+    /**
+     * The threads to run the playouts on (null to run them on the calling
+     * thread).
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Construct a MonteCarloTreeSearch engine that runs DEFAULT_PLAYOUTS
+     * playouts per move.
+     */
+    public MonteCarloTreeSearch () {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Construct a MonteCarloTreeSearch engine that runs DEFAULT_PLAYOUTS
+     * playouts per move.
+     * @param capacity      the number of tree nodes per thread, once the tree is full it stops growing
+     */
+    public MonteCarloTreeSearch (int capacity) {
+        this(0, DEFAULT_PLAYOUTS, capacity, ThreadLocal.withInitial(() -> new Tree(capacity)), null);
+    }
+
+    /**
+     * Construct a MonteCarloTreeSearch engine.
+     * @param timeMillis    the time budget in milliseconds (0 for none)
+     * @param maxPlayouts   the playout budget
+     * @param capacity      the number of tree nodes per thread
+     * @param trees         the tree of every thread
+     * @param pool          the threads to run the playouts on (null for the calling thread)
+     */
+    MonteCarloTreeSearch (long timeMillis, long maxPlayouts, int capacity, ThreadLocal<Tree> trees,
+                          ForkJoinPool pool) {
+        if (timeMillis < 0 || maxPlayouts < 1) {
+            throw new IllegalArgumentException("Time and playout budget must be greater than 0.");
+        }
+
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be greater than 0.");
+        }
+
+        this.timeMillis = timeMillis;
+        this.maxPlayouts = maxPlayouts;
+        this.capacity = capacity;
+        this.trees = trees;
+        this.pool = pool;
+    }
+
+    /**
+     * Get an engine that is the same as this one, but with another budget. It
+     * stops as soon as either the time or the playouts are used up. All
+     * engines made from one another share their trees.
+     * @param timeMillis    the time budget in milliseconds (0 to only count playouts)
+     * @param maxPlayouts   the playout budget
+     * @return              the new engine
+     */
+    public MonteCarloTreeSearch withBudget (long timeMillis, long maxPlayouts) {
+        return new MonteCarloTreeSearch(timeMillis, maxPlayouts, capacity, trees, pool);
+    }
+
+    /**
+     * Get an engine that is the same as this one, but runs the playouts on all
+     * threads of a pool. The threads share one tree. A thread on its way down
+     * counts every node it passes as a lost playout until its result is in,
+     * so the others spread out over the tree instead of following it.
+     * @param pool          the threads to run the playouts on
+     * @return              the new engine
+     */
+    public MonteCarloTreeSearch withPool (ForkJoinPool pool) {
+        return new MonteCarloTreeSearch(timeMillis, maxPlayouts, capacity, trees, pool);
+    }
+
+    /**
+     * Execute the algorithm. Plays the move that was tried most often. The
+     * score is the expected result of the move in percent, from -100 for a
+     * sure loss to 100 for a sure win, and the nodes are the playouts.
+     * @param board         the Tic Tac Toe board to play on (not changed)
+     * @return              the best move
+     */
+    @Override
+    public SearchResult search (Board board) {
+        long start = System.nanoTime();
+        if (board.isGameOver()) {
+            return new SearchResult(-1, (board.getWinner() == Board.State.Blank) ? 0 : -100, new int[0],
+                    new SearchCounters().toStats(start));
+        }
+
+        Tree tree = trees.get();
+        tree.setRoot(board);
+
+        long deadline = (timeMillis == 0) ? Long.MAX_VALUE
+                : System.nanoTime() + Math.min(timeMillis, Long.MAX_VALUE / 2_000_000) * 1_000_000;
+        AtomicLong playouts = new AtomicLong();
+
+        Worker[] workers = new Worker[(pool != null) ? pool.getParallelism() : 1];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(tree, board, playouts, deadline);
+        }
+
+        if (pool == null) {
+            workers[0].run();
+        } else {
+            ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[workers.length];
+            for (int i = 0; i < workers.length; i++) {
+                tasks[i] = ForkJoinTask.adapt(workers[i]::run);
+            }
+            pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+        }
+
+        SearchCounters counters = new SearchCounters();
+        for (Worker worker : workers) {
+            counters.add(worker);
+        }
+
+        int[] principalVariation = new int[board.getCellCount() - board.getMoveCount()];
+        int length = 0;
+        for (int node = tree.mostVisited(tree.root); node != -1; node = tree.mostVisited(node)) {
+            principalVariation[length++] = tree.moves[node];
+        }
+
+        // The root is only left unexpanded if the tree has no room at all.
+        if (length == 0) {
+            int move = new Random().search(board).getMove();
+            return new SearchResult(move, 0, new int[] {move}, counters.toStats(start));
+        }
+
+        int best = tree.mostVisited(tree.root);
+        int score = (int) Math.round(100.0 * tree.rewards.get(best) / tree.visits.get(best) - 100);
+        return new SearchResult(principalVariation[0], score, Arrays.copyOf(principalVariation, length),
+                counters.toStats(start));
+    }
+
+    /**
+     * The search tree of one thread. The nodes are kept in arrays instead of
+     * objects: the children of a node are allocated next to each other and
+     * the node only knows the first one and how many there are. Everything a
+     * playout changes is atomic, so several threads can grow one tree.
+     */
+    static class Tree {
+        private final int capacity;
+
+        /**
+         * The move that leads to each node.
+         */
+        private int[] moves;
+        private int[] childCounts;
+
+        /**
+         * The first child of each node, 0 for a leaf and EXPANDING while one
+         * thread allocates the children. Written after the children, so a
+         * thread that sees it also sees them.
+         */
+        private AtomicIntegerArray firstChildren;
+
+        /**
+         * How often each node was visited and the results of those visits in
+         * half points (a win counts 2 and a draw 1), seen from the player who
+         * made the move that leads to the node.
+         */
+        private AtomicIntegerArray visits;
+        private AtomicIntegerArray rewards;
+
+        private final AtomicInteger size = new AtomicInteger();
+        private int root;
+
+        /**
+         * The position at the root, to find the new root in the next search.
+         */
+        private Board rootBoard;
+
+        /**
+         * Construct an empty Tree.
+         * @param capacity      the number of nodes
+         */
+        Tree (int capacity) {
+            this.capacity = capacity;
+            moves = new int[capacity];
+            childCounts = new int[capacity];
+            firstChildren = new AtomicIntegerArray(capacity);
+            visits = new AtomicIntegerArray(capacity);
+            rewards = new AtomicIntegerArray(capacity);
+        }
+
+        /**
+         * Move the root to a position. If the position follows from the old
+         * root by moves that are in the tree, the subtree is kept and the rest
+         * thrown away, otherwise the search starts over. A tree that is more
+         * than half full is compacted, so the new search has room to grow.
+         * @param board         the Tic Tac Toe board to search
+         */
+        void setRoot (Board board) {
+            int node = find(board);
+
+            if (node == -1) {
+                size.set(1);
+                root = 0;
+                moves[0] = -1;
+                clear(0);
+            } else if (size.get() > capacity / 2) {
+                compact(node);
+            } else {
+                root = node;
+            }
+
+            rootBoard = board.getDeepCopy();
+        }
+
+        /**
+         * Follow the moves played since the last search down the tree.
+         * @param board         the Tic Tac Toe board to search
+         * @return              the node of the position (-1 if it is not in the tree)
+         */
+        private int find (Board board) {
+            if (rootBoard == null || rootBoard.getWidth() != board.getWidth()
+                    || rootBoard.getHeight() != board.getHeight() || rootBoard.getK() != board.getK()) {
+                return -1;
+            }
+
+            Board line = rootBoard.getDeepCopy();
+            int node = root;
+
+            while (line.getMoveCount() < board.getMoveCount() && !line.isGameOver()) {
+                int first = firstChildren.get(node);
+                int next = -1;
+
+                for (int child = first; first > 0 && child < first + childCounts[node]; child++) {
+                    if (board.getState(moves[child]) == line.getTurn()) {
+                        next = child;
+                        break;
+                    }
+                }
+
+                if (next == -1) {
+                    return -1;
+                }
+                line.move(moves[next]);
+                node = next;
+            }
+
+            boolean same = line.getMoveCount() == board.getMoveCount() && line.getHash() == board.getHash();
+            return same ? node : -1;
+        }
+
+        /**
+         * Copy the subtree of a node to the front of new arrays, breadth first
+         * so the children of every node stay next to each other.
+         * @param node          the node that becomes the root
+         */
+        private void compact (int node) {
+            int[] from = new int[size.get()];
+            int[] newMoves = new int[capacity];
+            int[] newChildCounts = new int[capacity];
+            int[] newFirstChildren = new int[capacity];
+            int[] newVisits = new int[capacity];
+            int[] newRewards = new int[capacity];
+
+            from[0] = node;
+            int next = 1;
+            for (int i = 0; i < next; i++) {
+                int old = from[i];
+                newMoves[i] = moves[old];
+                newVisits[i] = visits.get(old);
+                newRewards[i] = rewards.get(old);
+
+                int first = firstChildren.get(old);
+                if (first > 0) {
+                    newFirstChildren[i] = next;
+                    newChildCounts[i] = childCounts[old];
+                    for (int child = 0; child < childCounts[old]; child++) {
+                        from[next++] = first + child;
+                    }
+                }
+            }
+
+            moves = newMoves;
+            childCounts = newChildCounts;
+            firstChildren = new AtomicIntegerArray(newFirstChildren);
+            visits = new AtomicIntegerArray(newVisits);
+            rewards = new AtomicIntegerArray(newRewards);
+            size.set(next);
+            root = 0;
+        }
+
+        /**
+         * Make a node a fresh leaf.
+         * @param node          the node
+         */
+        private void clear (int node) {
+            childCounts[node] = 0;
+            firstChildren.set(node, 0);
+            visits.set(node, 0);
+            rewards.set(node, 0);
+        }
+
+        /**
+         * Give a leaf one child per available move. Only one thread expands a
+         * node, the others carry on with a playout from the leaf.
+         * @param node          the leaf
+         * @param board         the Tic Tac Toe board at the leaf
+         * @param available     a buffer for the moves
+         * @return              the first child (0 if the node was not expanded)
+         */
+        int expand (int node, Board board, int[] available) {
+            if (!firstChildren.compareAndSet(node, 0, EXPANDING)) {
+                return 0;
+            }
+
+            int count = board.getAvailableMoves(available);
+            int first;
+            do {
+                first = size.get();
+                if (first + count > capacity) {
+                    firstChildren.set(node, 0);
+                    return 0;
+                }
+            } while (!size.compareAndSet(first, first + count));
+
+            for (int i = 0; i < count; i++) {
+                moves[first + i] = available[i];
+                clear(first + i);
+            }
+            childCounts[node] = count;
+            firstChildren.set(node, first);
+            return first;
+        }
+
+        /**
+         * Pick the child with the best UCB1 value: the average result plus a
+         * bonus for children that were rarely tried. Children that were never
+         * tried come first.
+         * @param node          the node
+         * @param first         the first child of the node
+         * @return              the child to visit
+         */
+        int select (int node, int first) {
+            double logVisits = Math.log(visits.get(node));
+            int best = first;
+            double bestValue = Double.NEGATIVE_INFINITY;
+
+            for (int child = first; child < first + childCounts[node]; child++) {
+                int childVisits = visits.get(child);
+                if (childVisits == 0) {
+                    return child;
+                }
+
+                double value = rewards.get(child) / (2.0 * childVisits)
+                        + EXPLORATION * Math.sqrt(logVisits / childVisits);
+                if (value > bestValue) {
+                    bestValue = value;
+                    best = child;
+                }
+            }
+
+            return best;
+        }
+
+        /**
+         * Get the child that was visited most often.
+         * @param node          the node
+         * @return              the child (-1 if the node has no visited children)
+         */
+        int mostVisited (int node) {
+            int first = firstChildren.get(node);
+            int best = -1;
+
+            for (int child = first; first > 0 && child < first + childCounts[node]; child++) {
+                if (visits.get(child) > 0 && (best == -1 || visits.get(child) > visits.get(best))) {
+                    best = child;
+                }
+            }
+
+            return best;
+        }
+    }
+
+    /**
+     * Runs playouts on one thread until the budget is used up.
+     */
+    private class Worker extends SearchCounters {
+        private final Tree tree;
+        private final Board board;
+        private final AtomicLong budget;
+        private final long deadline;
+
+        /**
+         * The nodes of the current playout, root first.
+         */
+        private final int[] path;
+        private final int[] available;
+
+        /**
+         * Construct a Worker.
+         * @param tree          the tree to grow
+         * @param root          the Tic Tac Toe board at the root (copied)
+         * @param budget        the number of playouts started by all workers
+         * @param deadline      the time to stop at in nanoseconds
+         */
+        private Worker (Tree tree, Board root, AtomicLong budget, long deadline) {
+            this.tree = tree;
+            this.board = root.getDeepCopy();
+            this.budget = budget;
+            this.deadline = deadline;
+            path = new int[board.getCellCount() + 1];
+            available = new int[board.getCellCount()];
+        }
+
+        /**
+         * Run playouts until the budget is used up.
+         */
+        private void run () {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+
+            while (budget.getAndIncrement() < maxPlayouts && System.nanoTime() < deadline) {
+                playout(random);
+                nodes++;
+            }
+        }
+
+        /**
+         * Walk down the tree by UCB1, expand the leaf, play random moves to the
+         * end of the game and count the result for every node on the way.
+         * @param random        the random numbers of the thread
+         */
+        private void playout (ThreadLocalRandom random) {
+            Board.State player = board.getTurn();
+            int node = tree.root;
+            int depth = 0;
+
+            // Every visit counts as a loss until the result is added.
+            path[depth++] = node;
+            tree.visits.incrementAndGet(node);
+
+            while (!board.isGameOver()) {
+                int first = tree.firstChildren.get(node);
+                if (first <= 0) {
+                    boolean ready = node == tree.root || tree.visits.get(node) >= EXPAND_VISITS;
+                    if (first == EXPANDING || !ready || (first = tree.expand(node, board, available)) == 0) {
+                        break;
+                    }
+                }
+
+                node = tree.select(node, first);
+                board.move(tree.moves[node]);
+                path[depth++] = node;
+                tree.visits.incrementAndGet(node);
+            }
+
+            // Every playout scores one finished game, the depth is how far
+            // down the tree it went.
+            leaves++;
+            reach(depth - 1);
+            Board.State winner = board.isGameOver() ? board.getWinner() : rollout(random);
+
+            // The node at an odd depth was reached by a move of the player at the root.
+            for (int i = 0; i < depth; i++) {
+                if (winner == Board.State.Blank) {
+                    tree.rewards.addAndGet(path[i], 1);
+                } else if ((winner == player) == (i % 2 == 1)) {
+                    tree.rewards.addAndGet(path[i], 2);
+                }
+            }
+
+            for (int i = 1; i < depth; i++) {
+                board.undo();
+            }
+        }
+
+        /**
+         * Play random moves to the end of the game and take them back. Picks
+         * from a buffer of the empty cells and removes the picked one, so the
+         * empty cells are only collected once.
+         * @param random        the random numbers of the thread
+         * @return              the winner (Blank for a draw)
+         */
+        private Board.State rollout (ThreadLocalRandom random) {
+            int count = board.getAvailableMoves(available);
+            int played = 0;
+
+            while (!board.isGameOver()) {
+                int i = random.nextInt(count);
+                int move = available[i];
+                available[i] = available[--count];
+                board.move(move);
+                played++;
+            }
+
+            Board.State winner = board.getWinner();
+            for (; played > 0; played--) {
+                board.undo();
+            }
+            return winner;
+        }
+    }
+}
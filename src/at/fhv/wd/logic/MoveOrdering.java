@@ -0,0 +1,257 @@
+package at.fhv.wd.logic;
+
+import at.fhv.wd.tictactoe.Board;
+
+import java.util.Arrays;
+
+public class MoveOrdering {
+
+    /**
+     * The priorities of the move classes. Every class outranks everything in
+     * the classes below it, the rest is sorted by history and by the prior.
+     */
+    private static final int HASH_MOVE = 1 << 30;
+    private static final int WIN = 1 << 29;
+    private static final int BLOCK = 1 << 28;
+    private static final int KILLER = 1 << 26;
+
+    /**
+     * History scores are halved when one of them reaches this, so they stay
+     * below the killers.
+     */
+    private static final int HISTORY_LIMIT = 1 << 24;
+
+    private static final int KILLERS_PER_PLY = 2;
+
+    /**
+     * How many K cell windows go through each cell. Favours the center and
+     * the corners over the edges.
+     */
+    private int[] _priors = new int[0];
+
+    /**
+     * The moves that caused the latest cutoffs at each ply.
+     */
+    private int[][] _killers = new int[0][];
+
+    /**
+     * How much each cell has caused cutoffs, weighted by the depth left.
+     */
+    private int[] _history = new int[0];
+
+    /**
+     * The score of every move in the move buffer of each ply.
+     */
+    private int[][] _scores = new int[0][];
+
+    private long nodes;
+    private long cutoffs;
+    private long firstMoveCutoffs;
+
+    /**
+     * Construct an empty MoveOrdering.
+     */
+    public MoveOrdering () {}
+
+    /**
+     * Construct a MoveOrdering that starts out with the history of another
+     * prepared one, for a search on another thread. The killers start out
+     * empty.
+     * @param other     the move ordering to copy
+     */
+    MoveOrdering (MoveOrdering other) {
+        _priors = other._priors;
+        _history = other._history.clone();
+        _killers = new int[other._killers.length][KILLERS_PER_PLY];
+        _scores = new int[other._scores.length][_history.length];
+
+        for (int[] killers : _killers) {
+            Arrays.fill(killers, -1);
+        }
+    }
+
+    /**
+     * Get ready for a search on the given board. Killers are forgotten, the
+     * history is kept at half weight as long as the board has the same size.
+     * @param board     the Tic Tac Toe board to search
+     * @param plies     the number of plies the move buffers of the search have
+     */
+    void prepare (Board board, int plies) {
+        int cells = board.getCellCount();
+
+        if (_history.length != cells) {
+            _priors = new int[cells];
+            _history = new int[cells];
+            for (int i = 0; i < cells; i++) {
+                _priors[i] = board.getWindowCount(i);
+            }
+        } else {
+            age();
+        }
+
+        if (_killers.length < plies || _scores[0].length != cells) {
+            _killers = new int[plies][KILLERS_PER_PLY];
+            _scores = new int[plies][cells];
+        }
+
+        for (int[] killers : _killers) {
+            Arrays.fill(killers, -1);
+        }
+    }
+
+    /**
+     * Score the moves of a position: the hash move first, then moves that win
+     * on the spot, moves that stop the opponent from winning on the spot, the
+     * killers of this ply and then the rest by history and prior. The moves
+     * are not sorted yet, next() picks them one at a time, so a cutoff on an
+     * early move does not pay for sorting the rest.
+     * @param board         the Tic Tac Toe board to play on
+     * @param available     the moves
+     * @param count         the number of moves
+     * @param ply           the current depth
+     * @param hashMove      the best move stored in the transposition table (-1 if none)
+     */
+    void order (Board board, int[] available, int count, int ply, int hashMove) {
+        nodes++;
+
+        Board.State player = board.getTurn();
+        Board.State opponent = (player == Board.State.X) ? Board.State.O : Board.State.X;
+        int[] killers = _killers[ply];
+        int[] scores = _scores[ply];
+
+        // Nobody can complete K in a row with fewer than K - 1 marks. X moves
+        // first, so the player to move has placed half of the marks.
+        int needed = board.getK() - 1;
+        boolean wins = board.getMoveCount() / 2 >= needed;
+        boolean blocks = (board.getMoveCount() + 1) / 2 >= needed;
+
+        for (int i = 0; i < count; i++) {
+            int move = available[i];
+
+            if (move == hashMove) {
+                scores[i] = HASH_MOVE;
+            } else if (wins && board.wouldWin(move, player)) {
+                scores[i] = WIN;
+            } else if (blocks && board.wouldWin(move, opponent)) {
+                scores[i] = BLOCK;
+            } else if (move == killers[0]) {
+                scores[i] = KILLER * 2;
+            } else if (move == killers[1]) {
+                scores[i] = KILLER;
+            } else {
+                scores[i] = _history[move] + _priors[move];
+            }
+        }
+    }
+
+    /**
+     * Move the best of the moves that have not been searched yet to the given
+     * position. Of equal moves the first one is picked.
+     * @param available     the moves, scored by order()
+     * @param count         the number of moves
+     * @param ply           the current depth
+     * @param index         the number of moves searched so far
+     * @return              the next move to search
+     */
+    int next (int[] available, int count, int ply, int index) {
+        int[] scores = _scores[ply];
+        int best = index;
+
+        for (int i = index + 1; i < count; i++) {
+            if (scores[i] > scores[best]) {
+                best = i;
+            }
+        }
+
+        int move = available[best];
+        int score = scores[best];
+        available[best] = available[index];
+        scores[best] = scores[index];
+        available[index] = move;
+        scores[index] = score;
+        return move;
+    }
+
+    /**
+     * Learn from a cutoff: the move becomes the first killer of the ply and
+     * its history grows with the square of the depth left.
+     * @param board         the Tic Tac Toe board the cutoff happened on
+     * @param move          the move that caused the cutoff
+     * @param ply           the current depth
+     * @param index         the position of the move in the sorted list
+     */
+    void cutoff (Board board, int move, int ply, int index) {
+        cutoffs++;
+        if (index == 0) {
+            firstMoveCutoffs++;
+        }
+
+        int[] killers = _killers[ply];
+        if (killers[0] != move) {
+            killers[1] = killers[0];
+            killers[0] = move;
+        }
+
+        int depth = board.getCellCount() - board.getMoveCount();
+        _history[move] += depth * depth;
+        if (_history[move] >= HISTORY_LIMIT) {
+            age();
+        }
+    }
+
+    /**
+     * Halve all history scores, so recent cutoffs count more than old ones.
+     */
+    private void age () {
+        for (int i = 0; i < _history.length; i++) {
+            _history[i] >>= 1;
+        }
+    }
+
+    /**
+     * Add the statistics of another move ordering to this one.
+     * @param other     the move ordering of a finished search on another thread
+     */
+    void add (MoveOrdering other) {
+        nodes += other.nodes;
+        cutoffs += other.cutoffs;
+        firstMoveCutoffs += other.firstMoveCutoffs;
+    }
+
+    /**
+     * Forget the killers and the history and reset the statistics.
+     */
+    public void clear () {
+        Arrays.fill(_history, 0);
+        for (int[] killers : _killers) {
+            Arrays.fill(killers, -1);
+        }
+        nodes = 0;
+        cutoffs = 0;
+        firstMoveCutoffs = 0;
+    }
+
+    /**
+     * Get the share of searched positions that were cut off before all of
+     * their moves were tried.
+     * @return          the cutoff rate between 0 and 1
+     */
+    public double getCutoffRate () {
+        return nodes == 0 ? 0 : (double) cutoffs / nodes;
+    }
+
+    /**
+     * Get the share of cutoffs that came from the first move. The closer this
+     * is to 1, the better the ordering.
+     * @return          the first move cutoff rate between 0 and 1
+     */
+    public double getFirstMoveCutoffRate () {
+        return cutoffs == 0 ? 0 : (double) firstMoveCutoffs / cutoffs;
+    }
+
+    @Override
+    public String toString () {
+        return String.format("MoveOrdering[nodes=%d, cutoffs=%d, cutoffRate=%.1f%%, firstMove=%.1f%%]",
+                nodes, cutoffs, getCutoffRate() * 100, getFirstMoveCutoffRate() * 100);
+    }
+}
@@ -0,0 +1,254 @@
+package at.fhv.wd.logic;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A TranspositionTable outside the heap, so a table of gigabytes costs the
+ * garbage collector nothing. The entries lie in direct buffers, or in a
+ * memory mapped file that keeps them when the program ends, so the next run
+ * starts with every position searched before.
+ *
+ * An entry takes 16 bytes, the key XORed with the entry and the entry packed
+ * like the ones of HeapTranspositionTable. Four entries form a bucket of one
+ * cache line. A position may be stored in any entry of its bucket, and a new
+ * position replaces the shallowest entry of the bucket, so deep results are
+ * only lost to deeper ones or to three others of the same bucket.
+ *
+ * A mapped file starts with a 64 byte header: MAGIC, VERSION and the number
+ * of entries. Direct buffers count against -XX:MaxDirectMemorySize, which is
+ * the size of the heap unless it is set.
+ */
+public class OffHeapTranspositionTable extends TranspositionTable {
+
+    static final int MAGIC = 0x54545454;      // "TTTT"
+    static final int VERSION = 2;
+    static final int HEADER = 64;
+
+    private static final int ENTRY = 16;
+    private static final int BUCKET = 4;
+    private static final int BUCKET_BYTES = BUCKET * ENTRY;
+
+    /**
+     * The bytes of a buffer, as many as a buffer can hold rounded down to a
+     * power of two.
+     */
+    private static final int SEGMENT = 1 << 30;
+    private static final int SEGMENT_BUCKETS = SEGMENT / BUCKET_BYTES;
+    private static final int SEGMENT_SHIFT = Integer.numberOfTrailingZeros(SEGMENT_BUCKETS);
+
+    /**
+     * The system property that names the file Algorithms maps its table to,
+     * like -Dtictactoe.table=table.bin.
+     */
+    public static final String PROPERTY = "tictactoe.table";
+
+    /**
+     * The system property with the number of entries of a new file, 2^24
+     * (256 MB) if it is not set.
+     */
+    public static final String SIZE_PROPERTY = "tictactoe.tableSize";
+
+    /**
+     * The buffers, read and written only at absolute positions so the
+     * threads that share the table do not disturb each other.
+     */
+    private final ByteBuffer[] _segments;
+    private final long _bucketMask;
+    private final int _size;
+
+    /**
+     * The file the table is mapped to (null for direct buffers).
+     */
+    private final File _file;
+
+    /**
+     * Construct an OffHeapTranspositionTable in direct buffers.
+     * @param size      the number of entries (rounded up to a power of two, at least 4)
+     */
+    public OffHeapTranspositionTable (int size) {
+        _size = getCapacity(size);
+        _file = null;
+
+        _segments = new ByteBuffer[(int) ((_size * (long) ENTRY + SEGMENT - 1) / SEGMENT)];
+        for (int i = 0; i < _segments.length; i++) {
+            int length = (int) Math.min(SEGMENT, _size * (long) ENTRY - (long) i * SEGMENT);
+            _segments[i] = ByteBuffer.allocateDirect(length).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        _bucketMask = _size / BUCKET - 1;
+    }
+
+    /**
+     * Construct an OffHeapTranspositionTable mapped to a file. A file that
+     * exists keeps its entries and its size.
+     * @param size      the number of entries of a new file (rounded up to a power of two, at least 4)
+     * @param file      the file
+     * @throws IOException  if the file cannot be created or mapped or is not a transposition table
+     */
+    public OffHeapTranspositionTable (int size, File file) throws IOException {
+        _file = file;
+
+        try (RandomAccessFile data = new RandomAccessFile(file, "rw")) {
+            if (data.length() == 0) {
+                _size = getCapacity(size);
+                data.writeInt(MAGIC);
+                data.writeInt(VERSION);
+                data.writeLong(_size);
+                data.setLength(HEADER + _size * (long) ENTRY);
+            } else {
+                if (data.length() < HEADER || data.readInt() != MAGIC) {
+                    throw new IOException("Not a transposition table: " + file);
+                }
+                int version = data.readInt();
+                if (version != VERSION) {
+                    throw new IOException("Transposition table version " + version + " is not supported.");
+                }
+                long entries = data.readLong();
+                if (entries < BUCKET || entries > 1 << 30 || Long.bitCount(entries) != 1
+                        || data.length() != HEADER + entries * ENTRY) {
+                    throw new IOException("Transposition table is damaged: " + file);
+                }
+                _size = (int) entries;
+            }
+
+            // The mappings stay valid after the file is closed.
+            FileChannel channel = data.getChannel();
+            _segments = new ByteBuffer[(int) ((_size * (long) ENTRY + SEGMENT - 1) / SEGMENT)];
+            for (int i = 0; i < _segments.length; i++) {
+                long position = HEADER + (long) i * SEGMENT;
+                long length = Math.min(SEGMENT, _size * (long) ENTRY - (long) i * SEGMENT);
+                _segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, position, length)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+        _bucketMask = _size / BUCKET - 1;
+    }
+
+    /**
+     * Get the table named by the PROPERTY system property.
+     * @return          the table (null if the property is not set)
+     */
+    public static OffHeapTranspositionTable fromProperty () {
+        String path = System.getProperty(PROPERTY);
+        if (path == null) {
+            return null;
+        }
+
+        try {
+            return new OffHeapTranspositionTable(Integer.getInteger(SIZE_PROPERTY, 1 << 24), new File(path));
+        } catch (IOException ex) {
+            throw new RuntimeException("Transposition table could not be mapped.", ex);
+        }
+    }
+
+    /**
+     * Round a number of entries up to a power of two that fills whole buckets.
+     * @param size      the number of entries
+     * @return          the capacity
+     */
+    private static int getCapacity (int size) {
+        if (size < 1 || size > 1 << 30) {
+            throw new IllegalArgumentException("Size must be between 1 and 2^30.");
+        }
+
+        int capacity = Integer.highestOneBit(size);
+        if (capacity < size) {
+            capacity <<= 1;
+        }
+        return Math.max(capacity, BUCKET);
+    }
+
+    @Override
+    long probe (long key) {
+        probes.increment();
+        long bucket = key & _bucketMask;
+        ByteBuffer segment = _segments[(int) (bucket >>> SEGMENT_SHIFT)];
+        int offset = (int) (bucket & (SEGMENT_BUCKETS - 1)) * BUCKET_BYTES;
+
+        for (int i = 0; i < BUCKET; i++, offset += ENTRY) {
+            long entry = segment.getLong(offset + 8);
+            if (entry != MISS && (segment.getLong(offset) ^ entry) == key) {
+                hits.increment();
+                return entry;
+            }
+        }
+        return MISS;
+    }
+
+    /**
+     * Store the result of a search. The entry of the same position is
+     * replaced, else an empty one, else the shallowest one of the bucket.
+     * @param key       the hash of the position
+     * @param score     the score of the position
+     * @param depth     the number of plies the position was searched to (at most 255)
+     * @param flag      EXACT, LOWER_BOUND or UPPER_BOUND
+     * @param bestMove  the best move found (-1 if none)
+     */
+    @Override
+    void store (long key, int score, int depth, int flag, int bestMove) {
+        long bucket = key & _bucketMask;
+        ByteBuffer segment = _segments[(int) (bucket >>> SEGMENT_SHIFT)];
+        int first = (int) (bucket & (SEGMENT_BUCKETS - 1)) * BUCKET_BYTES;
+
+        int target = first;
+        int targetDepth = Integer.MAX_VALUE;
+        for (int offset = first; offset < first + BUCKET_BYTES; offset += ENTRY) {
+            long old = segment.getLong(offset + 8);
+            if (old == MISS || (segment.getLong(offset) ^ old) == key) {
+                target = offset;
+                break;
+            }
+            if (depth(old) < targetDepth) {
+                target = offset;
+                targetDepth = depth(old);
+            }
+        }
+
+        long entry = pack(score, depth, flag, bestMove);
+        segment.putLong(target, key ^ entry);
+        segment.putLong(target + 8, entry);
+    }
+
+    /**
+     * Write the entries of a mapped table to its file. The operating system
+     * does it on its own sooner or later, this makes sure they survive a crash.
+     */
+    public void flush () {
+        for (ByteBuffer segment : _segments) {
+            if (segment instanceof MappedByteBuffer) {
+                ((MappedByteBuffer) segment).force();
+            }
+        }
+    }
+
+    /**
+     * Get the file the table is mapped to.
+     * @return          the file (null if the table is not mapped)
+     */
+    public File getFile () {
+        return _file;
+    }
+
+    @Override
+    public void clear () {
+        byte[] zeros = new byte[1 << 16];
+        for (ByteBuffer segment : _segments) {
+            ByteBuffer view = segment.duplicate();
+            view.clear();
+            while (view.hasRemaining()) {
+                view.put(zeros, 0, Math.min(zeros.length, view.remaining()));
+            }
+        }
+        super.clear();
+    }
+
+    @Override
+    public int getSize () {
+        return _size;
+    }
+}
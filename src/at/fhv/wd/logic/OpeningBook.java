@@ -0,0 +1,277 @@
+package at.fhv.wd.logic;
+
+import at.fhv.wd.tictactoe.Board;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The best moves of positions searched ahead of time, kept in a file. The
+ * file holds a 16 byte header (MAGIC, VERSION and the number of entries)
+ * followed by 16 byte entries sorted by key:
+ * <pre>
+ * long    the hash of the canonical form of the position
+ * int     the score, like the ones of AlphaBetaAdvanced
+ * short   the best move on the canonical form
+ * short   the depth of the search (0 for a search to the end of the game)
+ * </pre>
+ * Symmetric positions share an entry, and the hashes are seeded per board
+ * size, so one book can hold several sizes. The file is memory mapped the
+ * first time a position is looked up and searched with a binary search, so
+ * a book costs no heap and only the pages that are looked at are read.
+ * Books are written by OpeningBookBuilder.
+ */
+public class OpeningBook {
+
+    static final int MAGIC = 0x54545442;      // "TTTB"
+    static final int VERSION = 2;
+    static final int HEADER = 16;
+    static final int ENTRY = 16;
+
+    /**
+     * The system property that names the book Algorithms uses, like
+     * -Dtictactoe.book=opening-book.bin.
+     */
+    public static final String PROPERTY = "tictactoe.book";
+
+    private final File _file;
+
+    /**
+     * The mapped file (null until the first lookup).
+     */
+    private volatile MappedByteBuffer _buffer;
+    private long _size;
+
+    private final LongAdder _probes = new LongAdder();
+    private final LongAdder _hits = new LongAdder();
+
+    /**
+     * Construct an OpeningBook. The file is not read until the first lookup.
+     * @param file      the book
+     */
+    public OpeningBook (File file) {
+        _file = file;
+    }
+
+    /**
+     * Get the book named by the PROPERTY system property.
+     * @return          the book (null if the property is not set)
+     */
+    public static OpeningBook fromProperty () {
+        String path = System.getProperty(PROPERTY);
+        return (path != null) ? new OpeningBook(new File(path)) : null;
+    }
+
+    /**
+     * Look up the best move of a position, as found by a search to the end
+     * of the game. Entries of depth limited searches are skipped.
+     * @param board     the Tic Tac Toe board to look at (not changed)
+     * @return          the best move and its score (null if the position is not in the book)
+     */
+    public SearchResult probe (Board board) {
+        return probe(board, 0);
+    }
+
+    /**
+     * Look up the best move of a position, as found by a search at least as
+     * deep as the one that asks.
+     * @param board     the Tic Tac Toe board to look at (not changed)
+     * @param depth     the depth of the search that asks (0 for a search to the end of the game)
+     * @return          the best move and its score (null if the position is not in the book or
+     *                  was searched less deep)
+     */
+    public SearchResult probe (Board board, int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("Depth must not be negative.");
+        }
+        if (board.isGameOver()) {
+            return null;
+        }
+
+        long start = System.nanoTime();
+        MappedByteBuffer buffer = getBuffer();
+        _probes.increment();
+
+        int transform = board.getCanonicalTransform();
+        long index = find(buffer, board.getHash(transform));
+        if (index < 0) {
+            return null;
+        }
+
+        int offset = (int) (HEADER + index * ENTRY);
+        int move = buffer.getShort(offset + 12) & 0xFFFF;
+
+        // 0 stands for the end of the game, deeper than any limit.
+        int searched = buffer.getShort(offset + 14) & 0xFFFF;
+        if (searched != 0 && (depth == 0 || searched < depth)) {
+            return null;
+        }
+
+        // A hash collision with a position of another board size.
+        if (move >= board.getCellCount()) {
+            return null;
+        }
+        move = board.getSymmetry().invert(transform, move);
+        if (board.getState(move) != Board.State.Blank) {
+            return null;
+        }
+
+        _hits.increment();
+        return new SearchResult(move, buffer.getInt(offset + 8), new int[] {move},
+                new SearchStats(1, 1, 0, 0, 0, System.nanoTime() - start));
+    }
+
+    /**
+     * Find the entry of a key with a binary search.
+     * @param buffer    the mapped file
+     * @param key       the key
+     * @return          the index of the entry (-1 if there is none)
+     */
+    private long find (MappedByteBuffer buffer, long key) {
+        long low = 0, high = _size - 1;
+
+        while (low <= high) {
+            long middle = (low + high) >>> 1;
+            long middleKey = buffer.getLong((int) (HEADER + middle * ENTRY));
+
+            if (middleKey < key) {
+                low = middle + 1;
+            } else if (middleKey > key) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the mapped file, mapping it the first time it is needed.
+     * @return          the mapped file
+     */
+    private MappedByteBuffer getBuffer () {
+        MappedByteBuffer buffer = _buffer;
+        if (buffer != null) {
+            return buffer;
+        }
+
+        // Only the first lookup takes the lock.
+        synchronized (this) {
+            if (_buffer == null) {
+                try {
+                    _buffer = map();
+                } catch (IOException ex) {
+                    throw new RuntimeException("Opening book could not be loaded.", ex);
+                }
+            }
+            return _buffer;
+        }
+    }
+
+    /**
+     * Map the file and check its header.
+     * @return          the mapped file
+     * @throws IOException  if the file cannot be read or is not an opening book
+     */
+    private MappedByteBuffer map () throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(_file, "r")) {
+            long length = file.length();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Opening book must be smaller than 2 GB.");
+            }
+
+            // The mapping stays valid after the file is closed.
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (length < HEADER || buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not an opening book: " + _file);
+            }
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException("Opening book version " + buffer.getInt(4) + " is not supported.");
+            }
+
+            long size = buffer.getLong(8);
+            if (HEADER + size * ENTRY != length) {
+                throw new IOException("Opening book is damaged: " + _file);
+            }
+            _size = size;
+            return buffer;
+        }
+    }
+
+    /**
+     * Get the number of positions in the book.
+     * @return          the number of entries
+     */
+    public long size () {
+        getBuffer();
+        return _size;
+    }
+
+    /**
+     * Get the part of the lookups that found a move.
+     * @return          the hit rate between 0 and 1
+     */
+    public double getHitRate () {
+        long probes = _probes.sum();
+        return (probes == 0) ? 0 : (double) _hits.sum() / probes;
+    }
+
+    /**
+     * Read all entries of the book, for example to add more to them.
+     * @param keys      the array to write the keys to (must hold size() entries)
+     * @param values    the array to write the score, move and depth of every entry to, packed as by pack()
+     */
+    void readAll (long[] keys, long[] values) {
+        MappedByteBuffer buffer = getBuffer();
+        for (int i = 0; i < _size; i++) {
+            int offset = HEADER + i * ENTRY;
+            keys[i] = buffer.getLong(offset);
+            values[i] = pack(buffer.getInt(offset + 8), buffer.getShort(offset + 12) & 0xFFFF,
+                    buffer.getShort(offset + 14) & 0xFFFF);
+        }
+    }
+
+    /**
+     * Pack the score, move and depth of an entry into one number.
+     * @param score     the score
+     * @param move      the best move on the canonical form
+     * @param depth     the depth of the search
+     * @return          the packed entry
+     */
+    static long pack (int score, int move, int depth) {
+        return ((long) score << 32) | ((move & 0xFFFFL) << 16) | (depth & 0xFFFFL);
+    }
+
+    /**
+     * Write a book.
+     * @param file      the file to write
+     * @param keys      the keys, sorted
+     * @param values    the score, move and depth of every key, packed as by pack()
+     * @param size      the number of entries
+     * @throws IOException  if the file cannot be written
+     */
+    static void write (File file, long[] keys, long[] values, int size) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(size);
+
+            for (int i = 0; i < size; i++) {
+                if (i > 0 && keys[i] <= keys[i - 1]) {
+                    throw new IllegalArgumentException("Keys must be sorted and unique.");
+                }
+                out.writeLong(keys[i]);
+                out.writeInt((int) (values[i] >> 32));
+                out.writeShort((int) (values[i] >>> 16));
+                out.writeShort((int) values[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package at.fhv.wd.logic;
+
+import at.fhv.wd.tictactoe.Board;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Builds an opening book offline: every position within the first few
+ * plies is searched with AlphaBetaAdvanced and its best move written to the
+ * book. Symmetric positions are searched once.
+ */
+public class OpeningBookBuilder {
+
+    /**
+     * OpeningBookBuilder cannot be instantiated.
+     */
+    private OpeningBookBuilder() {}
+
+    /**
+     * Collect the positions that can come up within the first plies of a
+     * game and are not over yet, one per group of symmetric positions.
+     * @param width     the width of the board
+     * @param height    the height of the board
+     * @param k         the number of marks in a row that wins
+     * @param plies     the number of moves played at most
+     * @return          the positions
+     */
+    static List<Board> getPositions (int width, int height, int k, int plies) {
+        List<Board> positions = new ArrayList<>();
+        List<Board> level = new ArrayList<>();
+        Set<Long> seen = new HashSet<>();
+        level.add(new Board(width, height, k));
+
+        for (int ply = 0; ply <= plies && !level.isEmpty(); ply++) {
+            positions.addAll(level);
+            if (ply == plies) {
+                break;
+            }
+
+            List<Board> next = new ArrayList<>();
+            int[] moves = new int[width * height];
+            for (Board board : level) {
+                int count = board.getUniqueMoves(moves);
+                for (int i = 0; i < count; i++) {
+                    board.move(moves[i]);
+                    if (!board.isGameOver() && seen.add(board.getHash(board.getCanonicalTransform()))) {
+                        next.add(board.getDeepCopy());
+                    }
+                    board.undo();
+                }
+            }
+            level = next;
+        }
+
+        return positions;
+    }
+
+    /**
+     * Search the positions and add them to a book. Entries already in the
+     * book are kept unless a position is searched again.
+     * @param file      the book to write (added to if it exists)
+     * @param positions the positions to search
+     * @param maxPly    the depth of the searches (0 to search to the end of the game)
+     * @param threads   the number of positions searched at the same time
+     * @return          the number of entries of the book
+     * @throws IOException          if the book cannot be read or written
+     * @throws InterruptedException if the thread is interrupted while waiting for the searches
+     */
+    static int build (File file, List<Board> positions, int maxPly, int threads)
+            throws IOException, InterruptedException {
+        if (maxPly < 0 || maxPly > 0xFFFF || threads < 1) {
+            throw new IllegalArgumentException("Depth must be between 0 and 65535, threads greater than 0.");
+        }
+
+        Map<Long, Long> entries = new HashMap<>();
+        if (file.exists()) {
+            OpeningBook book = new OpeningBook(file);
+            long[] keys = new long[(int) book.size()];
+            long[] values = new long[keys.length];
+            book.readAll(keys, values);
+            for (int i = 0; i < keys.length; i++) {
+                entries.put(keys[i], values[i]);
+            }
+        }
+
+        // One table for all searches, positions share most of their subtrees.
+        AlphaBetaAdvanced engine = new AlphaBetaAdvanced(new HeapTranspositionTable(1 << 22), true);
+        SearchEngine search = (maxPly > 0) ? engine.withMaxPly(maxPly) : engine;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<long[]>> results = new ArrayList<>();
+            for (Board position : positions) {
+                results.add(executor.submit(() -> {
+                    SearchResult result = search.search(position);
+                    int transform = position.getCanonicalTransform();
+                    int move = position.getSymmetry().apply(transform, result.getMove());
+                    return new long[] {position.getHash(transform),
+                            OpeningBook.pack(result.getScore(), move, maxPly)};
+                }));
+            }
+
+            for (Future<long[]> result : results) {
+                long[] entry = result.get();
+                entries.put(entry[0], entry[1]);
+            }
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("A position could not be searched.", ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        long[] keys = new long[entries.size()];
+        int size = 0;
+        for (long key : entries.keySet()) {
+            keys[size++] = key;
+        }
+        Arrays.sort(keys);
+
+        long[] values = new long[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = entries.get(keys[i]);
+        }
+
+        // The old book may still be mapped, so the new one is written next to it.
+        File temporary = new File(file.getPath() + ".tmp");
+        OpeningBook.write(temporary, keys, values, size);
+        if ((file.exists() && !file.delete()) || !temporary.renameTo(file)) {
+            throw new IOException("Opening book could not be replaced: " + file);
+        }
+        return size;
+    }
+
+    /**
+     * Build a book from the command line.
+     * Usage: OpeningBookBuilder FILE [--board WxHxK] [--plies N] [--depth D] [--threads T]
+     * @param args      the arguments
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.out.println("Usage: OpeningBookBuilder FILE [--board WxHxK] [--plies N] [--depth D] [--threads T]");
+            System.out.println("Searches every position of the first N plies (default 4) to depth D (default 0, "
+                    + "the end of the game) and adds them to the book.");
+            return;
+        }
+
+        int width = 3, height = 3, k = 3;
+        int plies = 4;
+        int depth = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--board") && i + 1 < args.length) {
+                String[] layout = args[++i].split("x");
+                if (layout.length != 3) {
+                    throw new IllegalArgumentException("Board must be given as WIDTHxHEIGHTxK.");
+                }
+                width = Integer.parseInt(layout[0]);
+                height = Integer.parseInt(layout[1]);
+                k = Integer.parseInt(layout[2]);
+            } else if (args[i].equals("--plies") && i + 1 < args.length) {
+                plies = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--depth") && i + 1 < args.length) {
+                depth = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else {
+                throw new IllegalArgumentException("Unknown argument: " + args[i]);
+            }
+        }
+
+        long start = System.nanoTime();
+        List<Board> positions = getPositions(width, height, k, plies);
+        int size = build(new File(args[0]), positions, depth, threads);
+
+        System.out.printf("Searched %,d positions of %dx%d k%d in %.1f s, the book has %,d entries%n",
+                positions.size(), width, height, k, (System.nanoTime() - start) / 1e9, size);
+    }
+}
@@ -0,0 +1,264 @@
+package at.fhv.wd.logic;
+
+import at.fhv.wd.tictactoe.Board;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+public class PerfectPlay implements SearchEngine {
+
+    private static final int CELLS = 9;
+    private static final int POSITIONS = 19683;     // 3^9
+    private static final int NO_MOVE = 0xF;
+    private static final int MAGIC = 0x54545450;    // "TTTP"
+
+    static final String RESOURCE = "/at/fhv/wd/assets/perfect-play.bin";
+
+    private static final int[][] LINES = {
+            {0, 1, 2}, {3, 4, 5}, {6, 7, 8},
+            {0, 3, 6}, {1, 4, 7}, {2, 5, 8},
+            {0, 4, 8}, {2, 4, 6}
+    };
+
+    private static final int[] POWERS = {1, 3, 9, 27, 81, 243, 729, 2187, 6561};
+
+    /**
+     * The best move of every position, indexed by the base 3 rank of the
+     * position. Two moves are packed into every byte, 4 bits each.
+     */
+    private static volatile byte[] table;
+
+    /**
+     * Construct a PerfectPlay engine. All engines share one table.
+     */
+    public PerfectPlay () {}
+
+    /**
+     * Look up the best move and follow the table to the end of the game for
+     * the principal variation. Scores count like the ones of
+     * AlphaBetaAdvanced: the sooner the win, the higher the score.
+     * @param board     the Tic Tac Toe board to look at (not changed)
+     * @return          the best move
+     */
+    @Override
+    public SearchResult search (Board board) {
+        long start = System.nanoTime();
+        Board.State player = board.getTurn();
+        Board line = board.getDeepCopy();
+        int[] principalVariation = new int[CELLS];
+        int length = 0;
+
+        for (int move = getMove(line); move != -1; move = getMove(line)) {
+            principalVariation[length++] = move;
+            line.move(move);
+        }
+
+        int score = 0;
+        if (line.getWinner() != Board.State.Blank) {
+            int win = Board.MAX_EVALUATION + CELLS + 2 - (length + 1);
+            score = (line.getWinner() == player) ? win : -win;
+        }
+
+        // Every move of the line is one table lookup.
+        return new SearchResult(length > 0 ? principalVariation[0] : -1, score,
+                Arrays.copyOf(principalVariation, length),
+                new SearchStats(length, 0, 0, 0, length, System.nanoTime() - start));
+    }
+
+    /**
+     * Look up the best move. Positions are ranked in base 3, one digit per
+     * cell (Blank = 0, X = 1, O = 2), the first cell being the lowest digit.
+     * Wins are taken as early and losses put off as long as possible.
+     * @param board     the Tic Tac Toe board to look at
+     * @return          the best move (-1 if the game is over)
+     */
+    static int getMove (Board board) {
+        if (board.getWidth() != 3 || board.getHeight() != 3 || board.getK() != 3) {
+            throw new IllegalArgumentException("The perfect play table only covers 3x3 boards.");
+        }
+
+        int rank = 0;
+        for (int i = 0; i < CELLS; i++) {
+            rank += board.getState(i).ordinal() * POWERS[i];
+        }
+
+        int move = (getTable()[rank >> 1] >> ((rank & 1) << 2)) & 0xF;
+        return (move == NO_MOVE) ? -1 : move;
+    }
+
+    /**
+     * Get the table, loading it the first time it is needed. Falls back to
+     * solving the game if the resource is missing.
+     * @return          the packed table
+     */
+    private static byte[] getTable () {
+        byte[] loaded = table;
+        if (loaded != null) {
+            return loaded;
+        }
+
+        // Only the first lookup takes the lock.
+        synchronized (PerfectPlay.class) {
+            if (table == null) {
+                try (InputStream in = PerfectPlay.class.getResourceAsStream(RESOURCE)) {
+                    table = (in != null) ? read(in) : solve();
+                } catch (IOException ex) {
+                    throw new RuntimeException("Perfect play table could not be loaded.", ex);
+                }
+            }
+            return table;
+        }
+    }
+
+    /**
+     * Read a table that was written by main().
+     * @param in        the stream to read from
+     * @return          the packed table
+     * @throws IOException  if the stream is not a perfect play table
+     */
+    private static byte[] read (InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+
+        if (data.readInt() != MAGIC || data.readInt() != POSITIONS) {
+            throw new IOException("Not a perfect play table.");
+        }
+
+        byte[] packed = new byte[(POSITIONS + 1) / 2];
+        data.readFully(packed);
+        return packed;
+    }
+
+    /**
+     * Solve every position of the game.
+     * @return          the packed table
+     */
+    private static byte[] solve () {
+        byte[] packed = new byte[(POSITIONS + 1) / 2];
+        int[] scores = new int[POSITIONS];
+        boolean[] solved = new boolean[POSITIONS];
+
+        for (int rank = 0; rank < POSITIONS; rank++) {
+            int[] cells = new int[CELLS];
+            int x = 0, o = 0;
+
+            for (int i = 0, r = rank; i < CELLS; i++, r /= 3) {
+                cells[i] = r % 3;
+                x += (cells[i] == 1) ? 1 : 0;
+                o += (cells[i] == 2) ? 1 : 0;
+            }
+
+            int move = NO_MOVE;
+            if ((x == o || x == o + 1) && !isWon(cells)) {
+                solve(cells, rank, (x == o) ? 1 : 2, scores, solved);
+                move = bestMove(cells, rank, (x == o) ? 1 : 2, scores, solved);
+            }
+
+            packed[rank >> 1] |= (byte) ((move == -1 ? NO_MOVE : move) << ((rank & 1) << 2));
+        }
+
+        return packed;
+    }
+
+    /**
+     * Compute the score of a position for the player to move with negamax.
+     * @param cells     the cells of the position
+     * @param rank      the rank of the position
+     * @param player    the player to move (1 = X, 2 = O)
+     * @param scores    the scores solved so far
+     * @param solved    which scores are solved
+     * @return          the score (positive if the player to move wins)
+     */
+    private static int solve (int[] cells, int rank, int player, int[] scores, boolean[] solved) {
+        if (solved[rank]) {
+            return scores[rank];
+        }
+
+        int score;
+        if (isWon(cells)) {
+            score = -CELLS - 1;
+        } else {
+            int move = bestMove(cells, rank, player, scores, solved);
+            if (move == -1) {
+                score = 0;
+            } else {
+                cells[move] = player;
+                score = -solve(cells, rank + player * POWERS[move], 3 - player, scores, solved);
+                cells[move] = 0;
+                // Prefer quick wins and slow losses.
+                score -= Integer.signum(score);
+            }
+        }
+
+        solved[rank] = true;
+        scores[rank] = score;
+        return score;
+    }
+
+    /**
+     * Find the move with the best score. The lowest index wins a tie.
+     * @param cells     the cells of the position
+     * @param rank      the rank of the position
+     * @param player    the player to move (1 = X, 2 = O)
+     * @param scores    the scores solved so far
+     * @param solved    which scores are solved
+     * @return          the best move (-1 if the board is full)
+     */
+    private static int bestMove (int[] cells, int rank, int player, int[] scores, boolean[] solved) {
+        int bestMove = -1;
+        int bestScore = Integer.MIN_VALUE;
+
+        for (int i = 0; i < CELLS; i++) {
+            if (cells[i] != 0) {
+                continue;
+            }
+
+            cells[i] = player;
+            int score = -solve(cells, rank + player * POWERS[i], 3 - player, scores, solved);
+            cells[i] = 0;
+
+            if (score > bestScore) {
+                bestScore = score;
+                bestMove = i;
+            }
+        }
+
+        return bestMove;
+    }
+
+    /**
+     * Check to see if any line is filled by one player.
+     * @param cells     the cells of the position
+     * @return          true if a player has won
+     */
+    private static boolean isWon (int[] cells) {
+        for (int[] line : LINES) {
+            if (cells[line[0]] != 0 && cells[line[0]] == cells[line[1]] && cells[line[1]] == cells[line[2]]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Solve the game and write the table to a file, which is then shipped as
+     * the perfect-play.bin resource.
+     * @param args      the path of the file to write
+     */
+    public static void main(String[] args) throws IOException {
+        String path = (args.length > 0) ? args[0] : "src" + RESOURCE;
+        byte[] packed = solve();
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(POSITIONS);
+            out.write(packed);
+        }
+
+        System.out.println("Wrote " + packed.length + " bytes to " + path);
+    }
+}
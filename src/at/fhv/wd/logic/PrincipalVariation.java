@@ -0,0 +1,51 @@
+package at.fhv.wd.logic;
+
+import java.util.Arrays;
+
+class PrincipalVariation {
+
+    /**
+     * The best line from every ply on: _lines[ply] holds it in
+     * _lines[ply][ply] up to _lines[ply][_lengths[ply] - 1].
+     */
+    private final int[][] _lines;
+    private final int[] _lengths;
+
+    /**
+     * Construct a PrincipalVariation.
+     * @param plies     the number of plies, counting the root as ply 1
+     */
+    PrincipalVariation (int plies) {
+        _lines = new int[plies][plies];
+        _lengths = new int[plies];
+    }
+
+    /**
+     * Forget the line of a ply. Called when a node is entered.
+     * @param ply       the ply of the node
+     */
+    void clear (int ply) {
+        _lengths[ply] = ply;
+    }
+
+    /**
+     * Make a move the best move of its ply, followed by the line of the
+     * next ply.
+     * @param ply       the ply of the move
+     * @param move      the new best move
+     */
+    void update (int ply, int move) {
+        _lines[ply][ply] = move;
+        System.arraycopy(_lines[ply + 1], ply + 1, _lines[ply], ply + 1, _lengths[ply + 1] - ply - 1);
+        _lengths[ply] = _lengths[ply + 1];
+    }
+
+    /**
+     * Get the line from a ply on.
+     * @param ply       the first ply of the line (1 for the root)
+     * @return          the moves, best move first
+     */
+    int[] toArray (int ply) {
+        return Arrays.copyOfRange(_lines[ply], ply, _lengths[ply]);
+    }
+}
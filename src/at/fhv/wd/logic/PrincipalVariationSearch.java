@@ -0,0 +1,444 @@
+package at.fhv.wd.logic;
+
+import at.fhv.wd.tictactoe.Board;
+
+import java.util.Arrays;
+
+public class PrincipalVariationSearch implements SearchEngine {
+
+    /**
+     * Mixed into the hash so the entries of this algorithm never mix with the
+     * ones of the other algorithms in a shared table.
+     */
+    private static final long KEY_SALT = 0xC2B2AE3D27D4EB4FL;
+
+    /**
+     * Bigger than any score. Not Integer.MIN_VALUE, it has to survive being
+     * negated.
+     */
+    private static final int INFINITY = Integer.MAX_VALUE;
+
+    /**
+     * How far the aspiration window reaches to either side of a draw in a
+     * search to the end of the game. Its scores jump straight from a draw to
+     * a win, so the narrowest window is also the best one.
+     */
+    private static final int ASPIRATION_WINDOW = 1;
+
+    /**
+     * How far the aspiration window reaches to either side of the evaluation
+     * of the root in a depth limited search, whose scores are evaluations of
+     * the horizon: the weight of a window with three marks.
+     */
+    private static final int HORIZON_WINDOW = 64;
+
+    private final int maxPly;
+    private final TranspositionTable table;
+
+    /**
+     * The move ordering of every thread that searches with this engine (null
+     * to only try the hash move first). Killers and history are only ever
+     * touched by one search at a time.
+     */
+    private final ThreadLocal<MoveOrdering> orderings;
+
+    /**
+     * True to find the score with MTD(f) instead of aspiration windows.
+     */
+    private final boolean mtdf;
+
+    /**
+     * Construct a PrincipalVariationSearch engine that searches to the end of
+     * the game with its own transposition table and move ordering.
+     */
+    public PrincipalVariationSearch () {
+        this(new HeapTranspositionTable(TranspositionTable.DEFAULT_SIZE), true);
+    }
+
+    /**
+     * Construct a PrincipalVariationSearch engine that searches to the end of
+     * the game.
+     * @param table         the transposition table to cache positions in (may be shared)
+     * @param ordered       true to sort the moves, false to only try the hash move first
+     */
+    public PrincipalVariationSearch (TranspositionTable table, boolean ordered) {
+        this(Integer.MAX_VALUE, table, ordered ? ThreadLocal.withInitial(MoveOrdering::new) : null, false);
+    }
+
+    /**
+     * Construct a PrincipalVariationSearch engine.
+     * @param maxPly        the maximum depth
+     * @param table         the transposition table to cache positions in
+     * @param orderings     the move ordering of every thread (null to only try the hash move first)
+     * @param mtdf          true to use MTD(f), false to use aspiration windows
+     */
+    PrincipalVariationSearch (int maxPly, TranspositionTable table, ThreadLocal<MoveOrdering> orderings,
+                              boolean mtdf) {
+        if (maxPly < 1) {
+            throw new IllegalArgumentException("Maximum depth must be greater than 0.");
+        }
+
+        this.maxPly = maxPly;
+        this.table = table;
+        this.orderings = orderings;
+        this.mtdf = mtdf;
+    }
+
+    /**
+     * Get an engine that is the same as this one, but with a depth limit. The
+     * two share their transposition table and move orderings.
+     * @param maxPly        the maximum depth
+     * @return              the new engine
+     */
+    public PrincipalVariationSearch withMaxPly (int maxPly) {
+        return new PrincipalVariationSearch(maxPly, table, orderings, mtdf);
+    }
+
+    /**
+     * Get an engine that is the same as this one, but finds the score with
+     * MTD(f): a series of searches with an empty window, each one telling
+     * whether the score lies above or below a guess, until the bounds meet.
+     * Every search reads back most of the tree from the transposition table,
+     * so it only pays off with a table that is big enough.
+     * @return              the new engine
+     */
+    public PrincipalVariationSearch withMtdf () {
+        return new PrincipalVariationSearch(maxPly, table, orderings, true);
+    }
+
+    /**
+     * Get the move ordering the calling thread searches with, for example to
+     * look at its cutoff rate.
+     * @return              the move ordering (null if the moves are not sorted)
+     */
+    public MoveOrdering getMoveOrdering () {
+        return (orderings != null) ? orderings.get() : null;
+    }
+
+    /**
+     * Execute the algorithm. A search to the end of the game starts both
+     * window strategies from a draw, the most common score, a depth limited
+     * one from the evaluation of the root. There is no iterative deepening,
+     * AlphaBetaAdvanced.withBudget() is the engine that deepens step by step.
+     * @param board         the Tic Tac Toe board to play on (not changed)
+     * @return              the best move
+     */
+    @Override
+    public SearchResult search (Board board) {
+        long start = System.nanoTime();
+        int depth = Math.min(maxPly, board.getCellCount() - board.getMoveCount());
+        Search search = new Search(board, depth);
+
+        boolean limited = depth < board.getCellCount() - board.getMoveCount();
+        int guess = limited ? board.getEvaluation(board.getTurn()) : 0;
+        int window = limited ? HORIZON_WINDOW : ASPIRATION_WINDOW;
+        int score = mtdf ? search.mtdf(guess) : search.aspiration(guess, window);
+
+        int[] principalVariation = mtdf ? search.principalVariation() : search.pv.toArray(1);
+        return new SearchResult(search.rootMove, score, principalVariation, search.toStats(start));
+    }
+
+    /**
+     * The state of a single search.
+     */
+    private class Search extends SearchCounters {
+        private final Board board;
+        private final MoveOrdering ordering;
+        private final int maxPly;
+
+        /**
+         * One move buffer per ply, so the search does not allocate per node.
+         */
+        private final int[][] moves;
+        private final PrincipalVariation pv;
+
+        /**
+         * The move to play. Set whenever the root searches a move above alpha.
+         */
+        private int rootMove = -1;
+
+        /**
+         * Construct a Search. The buffers only grow as deep as the search can
+         * go.
+         * @param root          the Tic Tac Toe board to search (copied)
+         * @param maxPly        the depth of the search
+         */
+        private Search (Board root, int maxPly) {
+            this.board = root.getDeepCopy();
+            this.maxPly = maxPly;
+            ordering = getMoveOrdering();
+            if (ordering != null) {
+                ordering.prepare(board, maxPly + 2);
+            }
+            moves = new int[maxPly + 2][board.getCellCount()];
+            pv = new PrincipalVariation(maxPly + 2);
+        }
+
+        /**
+         * Search the root with a narrow window around a guess. If the score
+         * falls outside, the window is opened on that side and the root
+         * searched again.
+         * @param guess         the expected score
+         * @param window        how far the window reaches to either side of the guess
+         * @return              the score of the board
+         */
+        private int aspiration (int guess, int window) {
+            int alpha = guess - window;
+            int beta = guess + window;
+
+            while (true) {
+                int score = negamax(alpha, beta, 1);
+
+                if (score <= alpha) {
+                    alpha = -INFINITY;
+                } else if (score >= beta) {
+                    beta = INFINITY;
+                } else {
+                    return score;
+                }
+            }
+        }
+
+        /**
+         * Find the score of the root with MTD(f). Every search has an empty
+         * window and moves one of the bounds, the move to play is the one of
+         * the last search that failed high.
+         * @param guess         the expected score
+         * @return              the score of the board
+         */
+        private int mtdf (int guess) {
+            int score = guess;
+            int lower = -INFINITY;
+            int upper = INFINITY;
+
+            while (lower < upper) {
+                int beta = (score == lower) ? score + 1 : score;
+                score = negamax(beta - 1, beta, 1);
+
+                if (score < beta) {
+                    upper = score;
+                } else {
+                    lower = score;
+                }
+            }
+
+            return score;
+        }
+
+        /**
+         * The meat of the algorithm. Scores are seen from the player to move and
+         * the search fails soft: a score outside the window is still a bound
+         * on the real score, which is what MTD(f) moves its bounds by. Only the
+         * first move gets the full window, the others are searched with an
+         * empty window that just proves them worse, and searched again if
+         * they are not.
+         * @param alpha         the alpha value
+         * @param beta          the beta value
+         * @param ply           the current depth, counting the root as ply 1
+         * @return              the score of the board
+         */
+        private int negamax (int alpha, int beta, int ply) {
+            pv.clear(ply);
+            nodes++;
+            reach(ply - 1);
+
+            if (board.isGameOver() || ply > maxPly) {
+                leaves++;
+                return score(board, ply);
+            }
+
+            int depth = Math.min(maxPly - ply + 1, board.getCellCount() - board.getMoveCount());
+            int hashMove = -1;
+
+            // Symmetric positions share one entry, keyed by the canonical form.
+            int transform = board.getCanonicalTransform();
+            long key = board.getHash(transform) ^ KEY_SALT;
+            long entry = table.probe(key);
+            if (entry != TranspositionTable.MISS) {
+                hashMove = fromCanonical(board, transform, TranspositionTable.bestMove(entry));
+
+                // The root is never cut off, it has to find the move to play.
+                if (ply > 1 && TranspositionTable.depth(entry) >= depth) {
+                    int score = fromTable(TranspositionTable.score(entry), ply);
+                    int flag = TranspositionTable.flag(entry);
+
+                    if (flag == TranspositionTable.EXACT
+                            || (flag == TranspositionTable.LOWER_BOUND && score >= beta)
+                            || (flag == TranspositionTable.UPPER_BOUND && score <= alpha)) {
+                        return score;
+                    }
+                }
+            }
+
+            int[] available = moves[ply];
+            int count;
+            if (ply == 1) {
+                count = board.getUniqueMoves(available);
+            } else {
+                count = board.getAvailableMoves(available);
+            }
+
+            if (ordering != null) {
+                ordering.order(board, available, count, ply, hashMove);
+            } else {
+                TranspositionTable.hashMoveFirst(available, count, hashMove);
+            }
+
+            int originalAlpha = alpha;
+            int bestScore = -INFINITY;
+            int bestMove = -1;
+
+            for (int i = 0; i < count; i++) {
+                int theMove = (ordering != null) ? ordering.next(available, count, ply, i) : available[i];
+
+                board.move(theMove);
+                int score;
+                if (i == 0) {
+                    score = -negamax(-beta, -alpha, ply + 1);
+                } else {
+                    score = -negamax(-alpha - 1, -alpha, ply + 1);
+                    if (score > alpha && score < beta) {
+                        score = -negamax(-beta, -alpha, ply + 1);
+                    }
+                }
+                board.undo();
+
+                if (score > bestScore) {
+                    bestScore = score;
+                    bestMove = theMove;
+                }
+
+                if (score > alpha) {
+                    alpha = score;
+                    pv.update(ply, theMove);
+                    if (ply == 1) {
+                        rootMove = theMove;
+                    }
+                }
+
+                if (alpha >= beta) {
+                    cutoff(i);
+                    if (ordering != null) {
+                        ordering.cutoff(board, theMove, ply, i);
+                    }
+                    break;
+                }
+            }
+
+            int flag;
+            if (bestScore <= originalAlpha) {
+                // No move was proven best, keep the one to search first.
+                flag = TranspositionTable.UPPER_BOUND;
+                bestMove = hashMove;
+            } else if (bestScore >= beta) {
+                flag = TranspositionTable.LOWER_BOUND;
+            } else {
+                flag = TranspositionTable.EXACT;
+            }
+
+            table.store(key, toTable(bestScore, ply), depth, flag, toCanonical(board, transform, bestMove));
+            return bestScore;
+        }
+
+        /**
+         * Follow the best moves of the transposition table from the root. The
+         * empty window searches of MTD(f) never see the whole principal
+         * variation at once, but together they leave it behind in the table.
+         * @return              the moves, best move first
+         */
+        private int[] principalVariation () {
+            int[] line = new int[maxPly];
+            int length = 0;
+            int move = rootMove;
+
+            while (move != -1 && length < maxPly && board.getState(move) == Board.State.Blank
+                    && !board.isGameOver()) {
+                line[length++] = move;
+                board.move(move);
+
+                int transform = board.getCanonicalTransform();
+                long entry = table.probe(board.getHash(transform) ^ KEY_SALT);
+                move = (entry == TranspositionTable.MISS) ? -1
+                        : fromCanonical(board, transform, TranspositionTable.bestMove(entry));
+            }
+
+            for (int i = 0; i < length; i++) {
+                board.undo();
+            }
+            return Arrays.copyOf(line, length);
+        }
+    }
+
+    /**
+     * Map a move on the canonical form of the position back onto the board.
+     * @param board         the Tic Tac Toe board to play on
+     * @param transform     the transformation to the canonical form
+     * @param move          the move on the canonical form (-1 if none)
+     * @return              the move (-1 if none)
+     */
+    private static int fromCanonical (Board board, int transform, int move) {
+        return (move == -1) ? -1 : board.getSymmetry().invert(transform, move);
+    }
+
+    /**
+     * Map a move onto the canonical form of the position.
+     * @param board         the Tic Tac Toe board to play on
+     * @param transform     the transformation to the canonical form
+     * @param move          the move (-1 if none)
+     * @return              the move on the canonical form (-1 if none)
+     */
+    private static int toCanonical (Board board, int transform, int move) {
+        return (move == -1) ? -1 : board.getSymmetry().apply(transform, move);
+    }
+
+    /**
+     * Turn the score of a win that counts plies from the root into one that
+     * counts plies from the current position, so it can be reused at any
+     * depth. Evaluations stay as they are.
+     * @param score         the score of the board
+     * @param ply           the current depth
+     * @return              the score to store in the transposition table
+     */
+    private static int toTable (int score, int ply) {
+        if (score > Board.MAX_EVALUATION) {
+            return score + ply - 1;
+        } else if (score < -Board.MAX_EVALUATION) {
+            return score - ply + 1;
+        }
+        return score;
+    }
+
+    /**
+     * Undo toTable().
+     * @param score         the score stored in the transposition table
+     * @param ply           the current depth
+     * @return              the score that counts plies from the root
+     */
+    private static int fromTable (int score, int ply) {
+        if (score > Board.MAX_EVALUATION) {
+            return score - ply + 1;
+        } else if (score < -Board.MAX_EVALUATION) {
+            return score + ply - 1;
+        }
+        return score;
+    }
+
+    /**
+     * Get the score of the board for the player to move. The sooner the win,
+     * the higher the score, like the scores of AlphaBetaAdvanced. A game that
+     * is not over yet is scored by the evaluation of the board.
+     * @param board         the Tic Tac Toe board to play on
+     * @param ply           the current depth
+     * @return              the score of the board
+     */
+    private static int score (Board board, int ply) {
+        if (!board.isGameOver()) {
+            return board.getEvaluation(board.getTurn());
+        } else if (board.getWinner() == Board.State.Blank) {
+            return 0;
+        }
+
+        // The player who just moved has won.
+        return -(Board.MAX_EVALUATION + board.getCellCount() + 2 - ply);
+    }
+}
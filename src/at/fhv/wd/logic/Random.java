@@ -2,27 +2,34 @@ package at.fhv.wd.logic;
 
 import at.fhv.wd.tictactoe.Board;
 
-public class Random {
+import java.util.concurrent.ThreadLocalRandom;
+
+public class Random implements SearchEngine {
 
     /**
-     * Random cannot be instantiated.
+     * Construct a Random engine.
      */
-    private Random () {}
+    public Random () {}
 
     /**
      * Execute the algorithm.
-     * @param board     the Tic Tac Toe board to play on
+     * @param board     the Tic Tac Toe board to play on (not changed)
+     * @return          a random move
      */
-    static void run (Board board) {
-        int[] moves = new int[board.getAvailableMoves().size()];
-        int index = 0;
-
-        for (Integer item : board.getAvailableMoves()) {
-            moves[index++] = item;
+    @Override
+    public SearchResult search (Board board) {
+        long start = System.nanoTime();
+        if (board.isGameOver()) {
+            return new SearchResult(-1, 0, new int[0], new SearchStats(0, 0, 0, 0, 0, System.nanoTime() - start));
         }
 
-        int randomMove = moves[new java.util.Random().nextInt(moves.length)];
-        board.move(randomMove);
+        int[] moves = new int[board.getCellCount()];
+        int count = board.getAvailableMoves(moves);
+
+        // Every thread draws from its own generator.
+        int randomMove = moves[ThreadLocalRandom.current().nextInt(count)];
+        return new SearchResult(randomMove, 0, new int[] {randomMove},
+                new SearchStats(1, 0, 0, 0, 0, System.nanoTime() - start));
     }
 
 }
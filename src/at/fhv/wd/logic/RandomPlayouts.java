@@ -0,0 +1,422 @@
+package at.fhv.wd.logic;
+
+import at.fhv.wd.tictactoe.Board;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Plays random games from a position to the end and counts who wins. Every
+ * thread plays on its own scratch board and picks its moves from a buffer of
+ * the empty cells, removing the picked one, so a playout allocates nothing.
+ *
+ * Boards of up to 64 cells are played on two bitboards with a precomputed
+ * mask of every winning line, which skips the hashes and the evaluation
+ * Board keeps up to date. Larger boards are played on a copy of the Board
+ * and taken back move by move.
+ *
+ * The games are played in chunks, each with its own SplittableRandom seeded
+ * from the seed and the number of the chunk, scrambled so the chunks do
+ * not share numbers. A seed gives the same results on any number of
+ * threads.
+ */
+public class RandomPlayouts {
+
+    /**
+     * The games per chunk.
+     */
+    private static final int CHUNK = 1 << 14;
+
+    private final Board start;
+
+    /**
+     * The empty cells of the start position (none if the game is over).
+     */
+    private final int[] empty;
+    private final int emptyCount;
+
+    /**
+     * The winning lines through every cell as bit masks, the lines of cell c
+     * being the ones from lineStarts[c] to lineStarts[c + 1]. Null for boards
+     * of more than 64 cells.
+     */
+    private final long[] lines;
+    private final int[] lineStarts;
+    private final long startX, startO;
+
+    /**
+     * Construct a RandomPlayouts engine.
+     * @param board     the position to play from (copied)
+     */
+    public RandomPlayouts (Board board) {
+        start = board.getDeepCopy();
+        empty = new int[board.getCellCount()];
+        emptyCount = board.isGameOver() ? 0 : board.getAvailableMoves(empty);
+
+        if (board.getCellCount() > 64) {
+            lines = null;
+            lineStarts = null;
+            startX = startO = 0;
+            return;
+        }
+
+        long x = 0, o = 0;
+        for (int i = 0; i < board.getCellCount(); i++) {
+            x |= (board.getState(i) == Board.State.X) ? 1L << i : 0;
+            o |= (board.getState(i) == Board.State.O) ? 1L << i : 0;
+        }
+        startX = x;
+        startO = o;
+
+        List<Long> all = createLines(board.getWidth(), board.getHeight(), board.getK());
+        List<Long> through = new ArrayList<>();
+        lineStarts = new int[board.getCellCount() + 1];
+        for (int cell = 0; cell < board.getCellCount(); cell++) {
+            lineStarts[cell] = through.size();
+            for (long line : all) {
+                if ((line & (1L << cell)) != 0) {
+                    through.add(line);
+                }
+            }
+        }
+        lineStarts[board.getCellCount()] = through.size();
+
+        lines = new long[through.size()];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = through.get(i);
+        }
+    }
+
+    /**
+     * Get the masks of all windows of K cells in a row, column or diagonal.
+     * @param width     the width of the board
+     * @param height    the height of the board
+     * @param k         the number of marks in a row that wins
+     * @return          the masks
+     */
+    static List<Long> createLines (int width, int height, int k) {
+        int[][] directions = {{1, 0}, {0, 1}, {1, 1}, {1, -1}};
+        List<Long> lines = new ArrayList<>();
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                for (int[] direction : directions) {
+                    int endX = x + direction[0] * (k - 1), endY = y + direction[1] * (k - 1);
+                    if (endX < 0 || endX >= width || endY < 0 || endY >= height) {
+                        continue;
+                    }
+
+                    long line = 0;
+                    for (int i = 0; i < k; i++) {
+                        line |= 1L << ((y + direction[1] * i) * width + x + direction[0] * i);
+                    }
+                    lines.add(line);
+                }
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Scramble a number (the finalizer of SplitMix64). The seed of a chunk
+     * cannot simply step by the golden ratio, SplittableRandom steps its
+     * own seed by the same amount, so chunk n would play the numbers of
+     * chunk 0 shifted by n.
+     * @param z         the number
+     * @return          the scrambled number
+     */
+    private static long mix (long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Play random games on the calling thread.
+     * @param games     the number of games
+     * @param seed      the seed of the moves
+     * @return          the results
+     */
+    public Result run (long games, long seed) {
+        if (games < 1) {
+            throw new IllegalArgumentException("Number of games must be greater than 0.");
+        }
+
+        long startNanos = System.nanoTime();
+        Worker worker = new Worker();
+        for (long chunk = 0; chunk * CHUNK < games; chunk++) {
+            worker.play(chunk, seed, Math.min(CHUNK, games - chunk * CHUNK));
+        }
+        worker.result.elapsedNanos = System.nanoTime() - startNanos;
+        return worker.result;
+    }
+
+    /**
+     * Play random games on several threads. Gives the same results as
+     * run(games, seed).
+     * @param games     the number of games
+     * @param seed      the seed of the moves
+     * @param threads   the number of threads
+     * @return          the results
+     * @throws InterruptedException if the thread is interrupted while waiting for the games
+     */
+    public Result run (long games, long seed, int threads) throws InterruptedException {
+        if (games < 1 || threads < 1) {
+            throw new IllegalArgumentException("Number of games and threads must be greater than 0.");
+        }
+
+        long startNanos = System.nanoTime();
+        long chunks = (games + CHUNK - 1) / CHUNK;
+        AtomicLong next = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Result>> workers = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < threads; i++) {
+                workers.add(executor.submit(() -> {
+                    Worker worker = new Worker();
+                    for (long chunk = next.getAndIncrement(); chunk < chunks; chunk = next.getAndIncrement()) {
+                        worker.play(chunk, seed, Math.min(CHUNK, games - chunk * CHUNK));
+                    }
+                    return worker.result;
+                }));
+            }
+
+            Result total = new Result();
+            for (Future<Result> worker : workers) {
+                total.add(worker.get());
+            }
+            total.elapsedNanos = System.nanoTime() - startNanos;
+            return total;
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("A playout failed.", ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Plays the games of one thread. Owns the scratch board and the move
+     * buffer.
+     */
+    private class Worker {
+        private final int[] moves = new int[empty.length];
+        private final Board board;
+        private final Result result = new Result();
+
+        /**
+         * Construct a Worker.
+         */
+        private Worker () {
+            board = (lines == null) ? start.getDeepCopy() : null;
+        }
+
+        /**
+         * Play the games of a chunk.
+         * @param chunk     the number of the chunk
+         * @param seed      the seed of all chunks
+         * @param games     the number of games of the chunk
+         */
+        private void play (long chunk, long seed, long games) {
+            SplittableRandom random = new SplittableRandom(mix(seed + (chunk + 1) * 0x9E3779B97F4A7C15L));
+
+            // The moves are swapped rather than removed, so the buffer still
+            // holds all empty cells after a game. It is only reset per chunk,
+            // so a chunk plays the same games on every thread.
+            System.arraycopy(empty, 0, moves, 0, emptyCount);
+
+            for (long i = 0; i < games; i++) {
+                Board.State winner = (lines != null) ? playBits(random) : playBoard(random);
+                if (winner == Board.State.X) {
+                    result.xWins++;
+                } else if (winner == Board.State.O) {
+                    result.oWins++;
+                } else {
+                    result.draws++;
+                }
+            }
+        }
+
+        /**
+         * Play a game on the bitboards.
+         * @param random    the random numbers of the chunk
+         * @return          the winner (Blank for a draw)
+         */
+        private Board.State playBits (SplittableRandom random) {
+            if (emptyCount == 0) {
+                return start.getWinner();
+            }
+
+            long x = startX, o = startO;
+            boolean xToMove = start.getTurn() == Board.State.X;
+            int left = emptyCount;
+
+            while (left > 0) {
+                int i = random.nextInt(left);
+                int cell = moves[i];
+                moves[i] = moves[--left];
+                moves[left] = cell;
+
+                long player;
+                if (xToMove) {
+                    player = x |= 1L << cell;
+                } else {
+                    player = o |= 1L << cell;
+                }
+
+                for (int line = lineStarts[cell], end = lineStarts[cell + 1]; line < end; line++) {
+                    if ((player & lines[line]) == lines[line]) {
+                        result.plies += emptyCount - left;
+                        return xToMove ? Board.State.X : Board.State.O;
+                    }
+                }
+                xToMove = !xToMove;
+            }
+
+            result.plies += emptyCount;
+            return Board.State.Blank;
+        }
+
+        /**
+         * Play a game on the scratch board and take it back.
+         * @param random    the random numbers of the chunk
+         * @return          the winner (Blank for a draw)
+         */
+        private Board.State playBoard (SplittableRandom random) {
+            int left = emptyCount, played = 0;
+
+            while (!board.isGameOver()) {
+                int i = random.nextInt(left);
+                int move = moves[i];
+                moves[i] = moves[--left];
+                moves[left] = move;
+                board.move(move);
+                played++;
+            }
+
+            Board.State winner = board.getWinner();
+            for (result.plies += played; played > 0; played--) {
+                board.undo();
+            }
+            return winner;
+        }
+    }
+
+    /**
+     * The results of the playouts.
+     */
+    public static class Result {
+        private long xWins, oWins, draws;
+        private long plies;
+        private long elapsedNanos;
+
+        /**
+         * Add the results of another thread.
+         * @param other     the results to add
+         */
+        private void add (Result other) {
+            xWins += other.xWins;
+            oWins += other.oWins;
+            draws += other.draws;
+            plies += other.plies;
+        }
+
+        /**
+         * Get the number of games X won.
+         * @return          the number of wins of X
+         */
+        public long getXWins () {
+            return xWins;
+        }
+
+        /**
+         * Get the number of games O won.
+         * @return          the number of wins of O
+         */
+        public long getOWins () {
+            return oWins;
+        }
+
+        /**
+         * Get the number of games that ended in a draw.
+         * @return          the number of draws
+         */
+        public long getDraws () {
+            return draws;
+        }
+
+        /**
+         * Get the number of games played.
+         * @return          the number of games
+         */
+        public long getGames () {
+            return xWins + oWins + draws;
+        }
+
+        /**
+         * Get the number of moves played in all games.
+         * @return          the number of moves
+         */
+        public long getPlies () {
+            return plies;
+        }
+
+        /**
+         * Get the number of games played per second.
+         * @return          the games per second
+         */
+        public double getPlayoutsPerSecond () {
+            return getGames() * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString () {
+            long games = getGames();
+            return String.format("%,d playouts: X %.2f%%, O %.2f%%, draw %.2f%%, %.2f moves per game",
+                    games, 100.0 * xWins / games, 100.0 * oWins / games, 100.0 * draws / games,
+                    (double) plies / games);
+        }
+    }
+
+    /**
+     * Play random games from the empty board from the command line.
+     * Usage: RandomPlayouts [GAMES] [THREADS] [--board WxHxK] [--seed S]
+     * @param args      the arguments
+     */
+    public static void main(String[] args) throws InterruptedException {
+        List<String> positional = new ArrayList<>();
+        int width = 3, height = 3, k = 3;
+        long seed = 0;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--board") && i + 1 < args.length) {
+                String[] layout = args[++i].split("x");
+                if (layout.length != 3) {
+                    throw new IllegalArgumentException("Board must be given as WIDTHxHEIGHTxK.");
+                }
+                width = Integer.parseInt(layout[0]);
+                height = Integer.parseInt(layout[1]);
+                k = Integer.parseInt(layout[2]);
+            } else if (args[i].equals("--seed") && i + 1 < args.length) {
+                seed = Long.parseLong(args[++i]);
+            } else {
+                positional.add(args[i]);
+            }
+        }
+
+        long games = (positional.size() > 0) ? Long.parseLong(positional.get(0)) : 100_000_000;
+        int threads = (positional.size() > 1) ? Integer.parseInt(positional.get(1))
+                : Runtime.getRuntime().availableProcessors();
+
+        RandomPlayouts playouts = new RandomPlayouts(new Board(width, height, k));
+        Result result = playouts.run(games, seed, threads);
+        System.out.printf("%dx%d k%d on %d threads: %s, %,.0f playouts/sec%n", width, height, k, threads, result,
+                result.getPlayoutsPerSecond());
+    }
+}
@@ -0,0 +1,56 @@
+package at.fhv.wd.logic;
+
+/**
+ * The counters of a search while it runs. Every search counts on its own
+ * thread into its own counters, so they are plain fields. Searches on
+ * several threads add theirs up once they are done.
+ */
+class SearchCounters {
+    long nodes;
+    long leaves;
+    long cutoffs;
+    long firstMoveCutoffs;
+    int maxDepth;
+
+    /**
+     * Count a position at the given depth.
+     * @param depth         the depth in plies from the root
+     */
+    void reach (int depth) {
+        if (depth > maxDepth) {
+            maxDepth = depth;
+        }
+    }
+
+    /**
+     * Count a beta cutoff.
+     * @param index         the position of the move that caused it in the search order
+     */
+    void cutoff (int index) {
+        cutoffs++;
+        if (index == 0) {
+            firstMoveCutoffs++;
+        }
+    }
+
+    /**
+     * Add the counters of another search.
+     * @param other         the counters to add
+     */
+    void add (SearchCounters other) {
+        nodes += other.nodes;
+        leaves += other.leaves;
+        cutoffs += other.cutoffs;
+        firstMoveCutoffs += other.firstMoveCutoffs;
+        reach(other.maxDepth);
+    }
+
+    /**
+     * Take a snapshot of the counters.
+     * @param startNanos    the time the search started at, from System.nanoTime()
+     * @return              the statistics of the search
+     */
+    SearchStats toStats (long startNanos) {
+        return new SearchStats(nodes, leaves, cutoffs, firstMoveCutoffs, maxDepth, System.nanoTime() - startNanos);
+    }
+}
@@ -0,0 +1,15 @@
+package at.fhv.wd.logic;
+
+import at.fhv.wd.tictactoe.Board;
+
+public interface SearchEngine {
+
+    /**
+     * Search for the best move of the player whose turn it is. The board is
+     * not changed, so one engine can search any number of boards, also at
+     * the same time on different threads.
+     * @param board     the Tic Tac Toe board to search
+     * @return          the best move, its score, the principal variation and the number of nodes
+     */
+    SearchResult search (Board board);
+}
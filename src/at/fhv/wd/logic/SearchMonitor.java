@@ -0,0 +1,57 @@
+package at.fhv.wd.logic;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class SearchMonitor {
+
+    /**
+     * How many nodes a search counts between two reports, and so between two
+     * looks at whether it was cancelled.
+     */
+    static final int REPORT_INTERVAL = 1024;
+
+    private final LongAdder _nodes = new LongAdder();
+    private volatile boolean _cancelled;
+
+    /**
+     * Construct a SearchMonitor. It can watch one search or several at the
+     * same time, also searches on several threads.
+     */
+    public SearchMonitor () {}
+
+    /**
+     * Ask the searches to stop. They notice within REPORT_INTERVAL nodes and
+     * return no move (-1). Can be called from any thread.
+     */
+    public void cancel () {
+        _cancelled = true;
+    }
+
+    /**
+     * Check to see if the searches were asked to stop.
+     * @return          true if cancel() was called
+     */
+    public boolean isCancelled () {
+        return _cancelled;
+    }
+
+    /**
+     * Get the number of nodes the searches have reported so far. Every search
+     * only reports in steps of REPORT_INTERVAL, so the count lags a little
+     * behind.
+     * @return          the number of nodes
+     */
+    public long getNodes () {
+        return _nodes.sum();
+    }
+
+    /**
+     * Add the nodes a search has counted since its last report.
+     * @param nodes     the number of nodes
+     * @return          true if the search has to stop
+     */
+    boolean report (long nodes) {
+        _nodes.add(nodes);
+        return _cancelled;
+    }
+}
@@ -0,0 +1,72 @@
+package at.fhv.wd.logic;
+
+import java.util.Arrays;
+
+public class SearchResult {
+    private final int _move;
+    private final int _score;
+    private final int[] _principalVariation;
+    private final SearchStats _stats;
+
+    /**
+     * Construct a SearchResult.
+     * @param move                  the best move (-1 if the game is over)
+     * @param score                 the score of the move, seen from the player to move
+     * @param principalVariation    the line the search expects, starting with the move
+     * @param stats                 the counters of the search
+     */
+    public SearchResult (int move, int score, int[] principalVariation, SearchStats stats) {
+        _move = move;
+        _score = score;
+        _principalVariation = principalVariation.clone();
+        _stats = stats;
+    }
+
+    /**
+     * Get the best move.
+     * @return          the position on the board (-1 if the game is over)
+     */
+    public int getMove () {
+        return _move;
+    }
+
+    /**
+     * Get the score of the best move. Positive scores are good for the player
+     * to move, 0 is a draw. How big a win is depends on the engine.
+     * @return          the score
+     */
+    public int getScore () {
+        return _score;
+    }
+
+    /**
+     * Get the principal variation: the best move and the moves both players
+     * are expected to answer with.
+     * @return          the moves, best move first
+     */
+    public int[] getPrincipalVariation () {
+        return _principalVariation.clone();
+    }
+
+    /**
+     * Get the number of positions the search looked at.
+     * @return          the number of nodes
+     */
+    public long getNodes () {
+        return _stats.getNodes();
+    }
+
+    /**
+     * Get the counters of the search: nodes, leaves, cutoffs, depth and time.
+     * @return          the statistics of the search
+     */
+    public SearchStats getStats () {
+        return _stats;
+    }
+
+    @Override
+    public String toString () {
+        return String.format("SearchResult[move=%d, score=%d, pv=%s, stats=%s]",
+                _move, _score, Arrays.toString(_principalVariation), _stats);
+    }
+}
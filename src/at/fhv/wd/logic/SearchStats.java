@@ -0,0 +1,103 @@
+package at.fhv.wd.logic;
+
+public class SearchStats {
+    private final long _nodes;
+    private final long _leaves;
+    private final long _cutoffs;
+    private final long _firstMoveCutoffs;
+    private final int _maxDepth;
+    private final long _elapsedNanos;
+
+    /**
+     * Construct a SearchStats.
+     * @param nodes             the number of positions searched
+     * @param leaves            the number of positions scored without searching deeper
+     * @param cutoffs           the number of positions left early because a move was good enough
+     * @param firstMoveCutoffs  the number of cutoffs caused by the first move searched
+     * @param maxDepth          the deepest position reached, in plies from the root
+     * @param elapsedNanos      the time the search took in nanoseconds
+     */
+    public SearchStats (long nodes, long leaves, long cutoffs, long firstMoveCutoffs, int maxDepth,
+                        long elapsedNanos) {
+        _nodes = nodes;
+        _leaves = leaves;
+        _cutoffs = cutoffs;
+        _firstMoveCutoffs = firstMoveCutoffs;
+        _maxDepth = maxDepth;
+        _elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Get the number of positions the search looked at.
+     * @return          the number of nodes
+     */
+    public long getNodes () {
+        return _nodes;
+    }
+
+    /**
+     * Get the number of positions that were scored instead of searched
+     * deeper, because the game was over or the depth limit was reached. Monte
+     * Carlo Tree Search scores one position per playout.
+     * @return          the number of leaves
+     */
+    public long getLeaves () {
+        return _leaves;
+    }
+
+    /**
+     * Get the number of positions the search left before trying every move,
+     * because one move was already good enough.
+     * @return          the number of beta cutoffs
+     */
+    public long getCutoffs () {
+        return _cutoffs;
+    }
+
+    /**
+     * Get the number of cutoffs caused by the first move searched. The
+     * closer to getCutoffs(), the better the move ordering.
+     * @return          the number of cutoffs on the first move
+     */
+    public long getFirstMoveCutoffs () {
+        return _firstMoveCutoffs;
+    }
+
+    /**
+     * Get the share of the cutoffs that the first move caused.
+     * @return          the share between 0 and 1 (0 if there were no cutoffs)
+     */
+    public double getFirstMoveCutoffRate () {
+        return (_cutoffs == 0) ? 0 : (double) _firstMoveCutoffs / _cutoffs;
+    }
+
+    /**
+     * Get the deepest position the search reached.
+     * @return          the depth in plies from the root
+     */
+    public int getMaxDepth () {
+        return _maxDepth;
+    }
+
+    /**
+     * Get the time the search took.
+     * @return          the time in nanoseconds
+     */
+    public long getElapsedNanos () {
+        return _elapsedNanos;
+    }
+
+    /**
+     * Get the number of positions searched per second.
+     * @return          the nodes per second (0 if no time was measured)
+     */
+    public double getNodesPerSecond () {
+        return (_elapsedNanos == 0) ? 0 : _nodes * 1e9 / _elapsedNanos;
+    }
+
+    @Override
+    public String toString () {
+        return String.format("SearchStats[nodes=%d, leaves=%d, cutoffs=%d, firstMove=%.1f%%, maxDepth=%d, time=%.3fms]",
+                _nodes, _leaves, _cutoffs, getFirstMoveCutoffRate() * 100, _maxDepth, _elapsedNanos / 1e6);
+    }
+}
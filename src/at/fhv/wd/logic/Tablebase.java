@@ -0,0 +1,455 @@
+package at.fhv.wd.logic;
+
+import at.fhv.wd.tictactoe.Board;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The solved results of every position of a board with at least a given
+ * number of marks, kept in a file. The file holds a 16 byte header (MAGIC,
+ * VERSION, width, height, K, the fewest marks and the number of positions)
+ * followed by one byte per position:
+ * <pre>
+ * bits 0-1    ILLEGAL, WIN, DRAW or LOSS for the player to move
+ * bits 2-7    the number of moves to the end of the game with perfect play
+ * </pre>
+ * The positions are grouped by the number of marks, and within a group
+ * ranked by the cells that are taken and which of them are X, both in the
+ * combinatorial number system. The rank is perfect: every arrangement of
+ * the marks has a byte and no two share one, so a lookup is one read.
+ *
+ * The file is memory mapped the first time a position is looked up.
+ * Tablebases are written by TablebaseGenerator.
+ */
+public class Tablebase {
+
+    static final int MAGIC = 0x54545445;      // "TTTE"
+    static final int VERSION = 1;
+    static final int HEADER = 16;
+
+    /**
+     * The most cells a board may have, so the file fits into one mapping.
+     */
+    static final int MAX_CELLS = 20;
+
+    static final int ILLEGAL = 0;
+    static final int WIN = 1;
+    static final int DRAW = 2;
+    static final int LOSS = 3;
+
+    /**
+     * The system property that names the tablebase Algorithms uses, like
+     * -Dtictactoe.tablebase=4x4.tb.
+     */
+    public static final String PROPERTY = "tictactoe.tablebase";
+
+    /**
+     * The binomial coefficients up to MAX_CELLS.
+     */
+    private static final int[][] BINOMIAL = new int[MAX_CELLS + 1][MAX_CELLS + 1];
+
+    static {
+        for (int n = 0; n <= MAX_CELLS; n++) {
+            BINOMIAL[n][0] = 1;
+            for (int k = 1; k <= n; k++) {
+                BINOMIAL[n][k] = BINOMIAL[n - 1][k - 1] + BINOMIAL[n - 1][k];
+            }
+        }
+    }
+
+    private final File _file;
+
+    /**
+     * The mapped file (null until the first lookup). The fields below are
+     * set before it.
+     */
+    private volatile MappedByteBuffer _buffer;
+    private int _width, _height, _k;
+    private int _minPieces;
+    private int[] _levels;
+
+    private final LongAdder _probes = new LongAdder();
+    private final LongAdder _hits = new LongAdder();
+
+    /**
+     * Construct a Tablebase. The file is not read until the first lookup.
+     * @param file      the tablebase
+     */
+    public Tablebase (File file) {
+        _file = file;
+    }
+
+    /**
+     * Get the tablebase named by the PROPERTY system property.
+     * @return          the tablebase (null if the property is not set)
+     */
+    public static Tablebase fromProperty () {
+        String path = System.getProperty(PROPERTY);
+        return (path != null) ? new Tablebase(new File(path)) : null;
+    }
+
+    /**
+     * Look up the best move of a position and follow the table to the end
+     * of the game for the principal variation. Scores count like the ones of
+     * AlphaBetaAdvanced: the sooner the win, the higher the score.
+     * @param board     the Tic Tac Toe board to look at (not changed)
+     * @return          the best move and its score (null if the position is not in the tablebase)
+     */
+    public SearchResult probe (Board board) {
+        if (board.isGameOver()) {
+            return null;
+        }
+
+        long start = System.nanoTime();
+        MappedByteBuffer buffer = getBuffer();
+        if (board.getWidth() != _width || board.getHeight() != _height || board.getK() != _k
+                || board.getMoveCount() < _minPieces) {
+            return null;
+        }
+        _probes.increment();
+
+        int x = 0, o = 0;
+        for (int i = 0; i < board.getCellCount(); i++) {
+            x |= (board.getState(i) == Board.State.X) ? 1 << i : 0;
+            o |= (board.getState(i) == Board.State.O) ? 1 << i : 0;
+        }
+
+        int cells = board.getCellCount();
+        int entry = get(buffer, x, o);
+        if (getResult(entry) == ILLEGAL) {
+            return null;
+        }
+        int score = toScore(entry, cells);
+
+        int[] principalVariation = new int[getDistance(entry)];
+        for (int i = 0; i < principalVariation.length; i++) {
+            int move = getBestMove(buffer, x, o, cells);
+            principalVariation[i] = move;
+            if ((Integer.bitCount(x | o) & 1) == 0) {
+                x |= 1 << move;
+            } else {
+                o |= 1 << move;
+            }
+        }
+
+        _hits.increment();
+        int length = principalVariation.length;
+        return new SearchResult(principalVariation[0],
+                (score == 0) ? 0 : Integer.signum(score) * (Board.MAX_EVALUATION + Math.abs(score)),
+                principalVariation, new SearchStats(length, 0, 0, 0, length, System.nanoTime() - start));
+    }
+
+    /**
+     * Find the best move of a position that is not over: the quickest win,
+     * else a draw, else the slowest loss. On equal scores the first cell wins.
+     * @param buffer    the mapped file
+     * @param x         the cells of X
+     * @param o         the cells of O
+     * @param cells     the number of cells
+     * @return          the best move
+     */
+    private int getBestMove (MappedByteBuffer buffer, int x, int o, int cells) {
+        boolean xToMove = (Integer.bitCount(x | o) & 1) == 0;
+        int empty = ~(x | o) & ((1 << cells) - 1);
+        int best = -1, bestScore = Integer.MIN_VALUE;
+
+        for (int bits = empty; bits != 0; bits &= bits - 1) {
+            int move = Integer.numberOfTrailingZeros(bits);
+            int child = xToMove ? get(buffer, x | 1 << move, o) : get(buffer, x, o | 1 << move);
+            int score = -toScore(child, cells);
+            if (score > bestScore) {
+                best = move;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Read the entry of a position.
+     * @param buffer    the mapped file
+     * @param x         the cells of X
+     * @param o         the cells of O
+     * @return          the entry
+     */
+    private int get (MappedByteBuffer buffer, int x, int o) {
+        return buffer.get(HEADER + _levels[Integer.bitCount(x | o)] + rank(x | o, x)) & 0xFF;
+    }
+
+    /**
+     * Get the mapped file, mapping it the first time it is needed.
+     * @return          the mapped file
+     */
+    private MappedByteBuffer getBuffer () {
+        MappedByteBuffer buffer = _buffer;
+        if (buffer != null) {
+            return buffer;
+        }
+
+        // Only the first lookup takes the lock.
+        synchronized (this) {
+            if (_buffer == null) {
+                try {
+                    _buffer = map();
+                } catch (IOException ex) {
+                    throw new RuntimeException("Tablebase could not be loaded.", ex);
+                }
+            }
+            return _buffer;
+        }
+    }
+
+    /**
+     * Map the file and check its header.
+     * @return          the mapped file
+     * @throws IOException  if the file cannot be read or is not a tablebase
+     */
+    private MappedByteBuffer map () throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(_file, "r")) {
+            long length = file.length();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Tablebase must be smaller than 2 GB.");
+            }
+
+            // The mapping stays valid after the file is closed.
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (length < HEADER || buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a tablebase: " + _file);
+            }
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException("Tablebase version " + buffer.getInt(4) + " is not supported.");
+            }
+
+            int width = buffer.get(8) & 0xFF, height = buffer.get(9) & 0xFF, k = buffer.get(10) & 0xFF;
+            int minPieces = buffer.get(11) & 0xFF;
+            if (width * height > MAX_CELLS || minPieces > width * height
+                    || HEADER + (long) getSize(width * height, minPieces) != length
+                    || buffer.getInt(12) != getSize(width * height, minPieces)) {
+                throw new IOException("Tablebase is damaged: " + _file);
+            }
+
+            _width = width;
+            _height = height;
+            _k = k;
+            _minPieces = minPieces;
+            _levels = getLevels(width * height, minPieces);
+            return buffer;
+        }
+    }
+
+    /**
+     * Get the board the tablebase covers.
+     * @return          the width, height and K of the board
+     */
+    public int[] getLayout () {
+        getBuffer();
+        return new int[] {_width, _height, _k};
+    }
+
+    /**
+     * Get the fewest marks a position must have to be in the tablebase.
+     * @return          the number of marks
+     */
+    public int getMinPieces () {
+        getBuffer();
+        return _minPieces;
+    }
+
+    /**
+     * Get the part of the lookups that found a move.
+     * @return          the hit rate between 0 and 1
+     */
+    public double getHitRate () {
+        long probes = _probes.sum();
+        return (probes == 0) ? 0 : (double) _hits.sum() / probes;
+    }
+
+    /**
+     * Rank a position among the positions with as many marks. The cells
+     * that are taken are ranked among all sets of as many cells, the cells
+     * of X among the taken cells, both in colexicographic order, which is
+     * the order of the masks as numbers.
+     * @param taken     the cells that are taken
+     * @param x         the cells of X
+     * @return          the rank
+     */
+    static int rank (int taken, int x) {
+        int takenRank = 0, xRank = 0;
+        int i = 0, j = 0;
+
+        for (int bits = taken; bits != 0; bits &= bits - 1, i++) {
+            int cell = Integer.numberOfTrailingZeros(bits);
+            takenRank += BINOMIAL[cell][i + 1];
+            if ((x & (1 << cell)) != 0) {
+                xRank += BINOMIAL[i][++j];
+            }
+        }
+        return takenRank * BINOMIAL[i][(i + 1) / 2] + xRank;
+    }
+
+    /**
+     * Get the set of cells of a rank, the inverse of the first half of rank().
+     * @param rank      the rank among all sets of as many cells
+     * @param count     the number of cells in the set
+     * @return          the cells
+     */
+    static int unrank (int rank, int count) {
+        int set = 0;
+        for (int j = count, cell = MAX_CELLS; j > 0; j--) {
+            while (BINOMIAL[cell][j] > rank) {
+                cell--;
+            }
+            set |= 1 << cell;
+            rank -= BINOMIAL[cell][j];
+        }
+        return set;
+    }
+
+    /**
+     * Get the binomial coefficient.
+     * @param n         the number of elements
+     * @param k         the number of elements chosen
+     * @return          n choose k
+     */
+    static int binomial (int n, int k) {
+        return BINOMIAL[n][k];
+    }
+
+    /**
+     * Get the number of positions with a number of marks, X having made the
+     * first move.
+     * @param cells     the number of cells
+     * @param pieces    the number of marks
+     * @return          the number of positions
+     */
+    static int getLevelSize (int cells, int pieces) {
+        return BINOMIAL[cells][pieces] * BINOMIAL[pieces][(pieces + 1) / 2];
+    }
+
+    /**
+     * Get the number of positions of a tablebase.
+     * @param cells     the number of cells
+     * @param minPieces the fewest marks
+     * @return          the number of positions
+     */
+    static int getSize (int cells, int minPieces) {
+        int[] levels = getLevels(cells, minPieces);
+        return levels[cells] + getLevelSize(cells, cells);
+    }
+
+    /**
+     * Get where the positions with every number of marks start.
+     * @param cells     the number of cells
+     * @param minPieces the fewest marks
+     * @return          the offsets by the number of marks (unused below minPieces)
+     */
+    static int[] getLevels (int cells, int minPieces) {
+        int[] levels = new int[cells + 1];
+        for (int pieces = minPieces + 1; pieces <= cells; pieces++) {
+            levels[pieces] = levels[pieces - 1] + getLevelSize(cells, pieces - 1);
+        }
+        return levels;
+    }
+
+    /**
+     * Get the masks of all windows of K cells in a row, column or diagonal.
+     * @param width     the width of the board
+     * @param height    the height of the board
+     * @param k         the number of marks in a row that wins
+     * @return          the masks
+     */
+    static int[] getLines (int width, int height, int k) {
+        List<Long> lines = RandomPlayouts.createLines(width, height, k);
+        int[] masks = new int[lines.size()];
+        for (int i = 0; i < masks.length; i++) {
+            masks[i] = (int) (long) lines.get(i);
+        }
+        return masks;
+    }
+
+    /**
+     * Check to see if the marks of a player fill a line.
+     * @param marks     the cells of the player
+     * @param lines     the masks of the lines
+     * @return          true if the player has won
+     */
+    static boolean isWon (int marks, int[] lines) {
+        for (int line : lines) {
+            if ((marks & line) == line) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Pack a result and a distance into an entry.
+     * @param result    WIN, DRAW or LOSS
+     * @param distance  the number of moves to the end of the game
+     * @return          the entry
+     */
+    static int pack (int result, int distance) {
+        return distance << 2 | result;
+    }
+
+    /**
+     * Get the result of an entry.
+     * @param entry     the entry
+     * @return          ILLEGAL, WIN, DRAW or LOSS
+     */
+    static int getResult (int entry) {
+        return entry & 3;
+    }
+
+    /**
+     * Get the distance of an entry.
+     * @param entry     the entry
+     * @return          the number of moves to the end of the game
+     */
+    static int getDistance (int entry) {
+        return entry >>> 2;
+    }
+
+    /**
+     * Turn an entry into a score that orders the results: wins are positive
+     * and higher the sooner they come, losses negative and higher the later
+     * they come, draws 0.
+     * @param entry     the entry
+     * @param cells     the number of cells
+     * @return          the score
+     */
+    static int toScore (int entry, int cells) {
+        int result = getResult(entry);
+        int score = cells + 1 - getDistance(entry);
+        return (result == WIN) ? score : (result == LOSS) ? -score : 0;
+    }
+
+    /**
+     * Undo toScore().
+     * @param score     the score
+     * @param cells     the number of cells
+     * @param pieces    the number of marks of the position
+     * @return          the entry
+     */
+    static int fromScore (int score, int cells, int pieces) {
+        if (score > 0) {
+            return pack(WIN, cells + 1 - score);
+        } else if (score < 0) {
+            return pack(LOSS, cells + 1 + score);
+        }
+        return pack(DRAW, cells - pieces);
+    }
+
+    @Override
+    public String toString () {
+        getBuffer();
+        return String.format("Tablebase[%dx%d k%d, %d+ marks, hitRate=%.1f%%]", _width, _height, _k,
+                _minPieces, getHitRate() * 100);
+    }
+}
@@ -0,0 +1,242 @@
+package at.fhv.wd.logic;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates a Tablebase with retrograde analysis. Marks are never taken off
+ * the board, so every move leads from the positions with n marks to the ones
+ * with n + 1. The full boards are solved first, then every number of marks
+ * down to the fewest, each position from the entries of its successors one
+ * level up. Only the level being solved and the one above it are kept in
+ * memory, every finished level is written to its place in the file.
+ */
+public class TablebaseGenerator {
+
+    /**
+     * The sets of taken cells a thread solves at a time.
+     */
+    private static final int CHUNK = 64;
+
+    /**
+     * TablebaseGenerator cannot be instantiated.
+     */
+    private TablebaseGenerator() {}
+
+    /**
+     * Solve every position with at least a number of marks and write the
+     * tablebase.
+     * @param file      the file to write
+     * @param width     the width of the board
+     * @param height    the height of the board
+     * @param k         the number of marks in a row that wins
+     * @param minPieces the fewest marks a position in the tablebase has
+     * @param threads   the number of threads
+     * @return          the number of positions
+     * @throws IOException          if the file cannot be written
+     * @throws InterruptedException if the thread is interrupted while waiting for the threads
+     */
+    static int generate (File file, int width, int height, int k, int minPieces, int threads)
+            throws IOException, InterruptedException {
+        int cells = width * height;
+        if (width < 1 || height < 1 || cells > Tablebase.MAX_CELLS || k < 1 || k > 255) {
+            throw new IllegalArgumentException("Board must have between 1 and " + Tablebase.MAX_CELLS
+                    + " cells, K between 1 and 255.");
+        }
+        if (minPieces < 0 || minPieces > cells || threads < 1) {
+            throw new IllegalArgumentException("Marks must be between 0 and " + cells
+                    + ", threads greater than 0.");
+        }
+
+        int[] lines = Tablebase.getLines(width, height, k);
+        int[] levels = Tablebase.getLevels(cells, minPieces);
+        int size = Tablebase.getSize(cells, minPieces);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(0);
+            ByteBuffer header = ByteBuffer.allocate(Tablebase.HEADER);
+            header.putInt(Tablebase.MAGIC).putInt(Tablebase.VERSION)
+                    .put((byte) width).put((byte) height).put((byte) k).put((byte) minPieces)
+                    .putInt(size).flip();
+            FileChannel channel = out.getChannel();
+            channel.write(header, 0);
+
+            byte[] above = null;
+            for (int pieces = cells; pieces >= minPieces; pieces--) {
+                byte[] level = solve(cells, pieces, above, lines, executor, threads);
+                channel.write(ByteBuffer.wrap(level), Tablebase.HEADER + levels[pieces]);
+                above = level;
+            }
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("A level could not be solved.", ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return size;
+    }
+
+    /**
+     * Solve the positions with a number of marks.
+     * @param cells     the number of cells
+     * @param pieces    the number of marks
+     * @param above     the entries of the positions with one mark more (null for full boards)
+     * @param lines     the masks of the lines
+     * @param executor  the threads
+     * @param threads   the number of threads
+     * @return          the entries of the positions
+     * @throws ExecutionException   if a thread failed
+     * @throws InterruptedException if the thread is interrupted while waiting for the threads
+     */
+    private static byte[] solve (int cells, int pieces, byte[] above, int[] lines, ExecutorService executor,
+            int threads) throws ExecutionException, InterruptedException {
+        byte[] level = new byte[Tablebase.getLevelSize(cells, pieces)];
+        int sets = Tablebase.binomial(cells, pieces);
+        AtomicInteger next = new AtomicInteger();
+
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            workers.add(executor.submit(() -> {
+                for (int first = next.getAndAdd(CHUNK); first < sets; first = next.getAndAdd(CHUNK)) {
+                    solve(cells, pieces, first, Math.min(first + CHUNK, sets), level, above, lines);
+                }
+            }));
+        }
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        return level;
+    }
+
+    /**
+     * Solve the positions of a range of sets of taken cells.
+     * @param cells     the number of cells
+     * @param pieces    the number of marks
+     * @param first     the rank of the first set of taken cells
+     * @param end       the rank after the last set of taken cells
+     * @param level     the entries of the positions with this number of marks
+     * @param above     the entries of the positions with one mark more (null for full boards)
+     * @param lines     the masks of the lines
+     */
+    private static void solve (int cells, int pieces, int first, int end, byte[] level, byte[] above,
+            int[] lines) {
+        int xCount = (pieces + 1) / 2;
+        int arrangements = Tablebase.binomial(pieces, xCount);
+        boolean xToMove = (pieces & 1) == 0;
+        int all = (1 << cells) - 1;
+
+        int taken = Tablebase.unrank(first, pieces);
+        for (int rank = first; rank < end; rank++, taken = nextSet(taken)) {
+            int index = rank * arrangements;
+
+            // The cells of X among the taken cells, in the order of their rank.
+            for (int chosen = (1 << xCount) - 1; index < (rank + 1) * arrangements; chosen = nextSet(chosen)) {
+                int x = deposit(chosen, taken), o = taken & ~x;
+                int mover = xToMove ? x : o, waiting = xToMove ? o : x;
+                int entry;
+
+                if (Tablebase.isWon(mover, lines)) {
+                    // The game ended before the last move.
+                    entry = Tablebase.pack(Tablebase.ILLEGAL, 0);
+                } else if (Tablebase.isWon(waiting, lines)) {
+                    entry = Tablebase.pack(Tablebase.LOSS, 0);
+                } else if (pieces == cells) {
+                    entry = Tablebase.pack(Tablebase.DRAW, 0);
+                } else {
+                    int best = Integer.MIN_VALUE;
+                    for (int bits = ~taken & all; bits != 0; bits &= bits - 1) {
+                        int move = bits & -bits;
+                        int child = above[Tablebase.rank(taken | move, xToMove ? x | move : x)] & 0xFF;
+                        best = Math.max(best, -Tablebase.toScore(child, cells));
+                    }
+                    // One move further from the end.
+                    entry = Tablebase.fromScore(best - Integer.signum(best), cells, pieces);
+                }
+                level[index++] = (byte) entry;
+            }
+        }
+    }
+
+    /**
+     * Get the next set with as many elements, in the order of their rank
+     * (Gosper's hack).
+     * @param set       the set
+     * @return          the next set
+     */
+    private static int nextSet (int set) {
+        if (set == 0) {
+            return 0;
+        }
+        int lowest = set & -set;
+        int ripple = set + lowest;
+        return (((ripple ^ set) >>> 2) / lowest) | ripple;
+    }
+
+    /**
+     * Spread the bits of a mask over the set bits of another, the first bit
+     * of the mask going to the first set bit.
+     * @param bits      the bits to spread
+     * @param mask      where to put them
+     * @return          the spread bits
+     */
+    private static int deposit (int bits, int mask) {
+        int result = 0;
+        for (int i = 0; mask != 0; mask &= mask - 1, i++) {
+            if ((bits & (1 << i)) != 0) {
+                result |= mask & -mask;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Generate a tablebase from the command line.
+     * Usage: TablebaseGenerator FILE [--board WxHxK] [--pieces N] [--threads T]
+     * @param args      the arguments
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.out.println("Usage: TablebaseGenerator FILE [--board WxHxK] [--pieces N] [--threads T]");
+            System.out.println("Solves every position of the board (default 4x4x4) with at least N marks "
+                    + "(default 0) and writes the tablebase.");
+            return;
+        }
+
+        int width = 4, height = 4, k = 4;
+        int pieces = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--board") && i + 1 < args.length) {
+                String[] layout = args[++i].split("x");
+                if (layout.length != 3) {
+                    throw new IllegalArgumentException("Board must be given as WIDTHxHEIGHTxK.");
+                }
+                width = Integer.parseInt(layout[0]);
+                height = Integer.parseInt(layout[1]);
+                k = Integer.parseInt(layout[2]);
+            } else if (args[i].equals("--pieces") && i + 1 < args.length) {
+                pieces = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else {
+                throw new IllegalArgumentException("Unknown argument: " + args[i]);
+            }
+        }
+
+        long start = System.nanoTime();
+        int size = generate(new File(args[0]), width, height, k, pieces, threads);
+        System.out.printf("Solved %,d positions of %dx%d k%d with %d or more marks in %.1f s%n",
+                size, width, height, k, pieces, (System.nanoTime() - start) / 1e9);
+    }
+}
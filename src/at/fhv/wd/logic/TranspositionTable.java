@@ -0,0 +1,174 @@
+package at.fhv.wd.logic;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the results of searched positions by their hash. The entries are
+ * packed into one long, score in the upper half, then best move, depth and
+ * flag, and read with score(), bestMove(), depth() and flag().
+ * HeapTranspositionTable keeps them in a long array, OffHeapTranspositionTable
+ * outside the heap, optionally in a memory mapped file.
+ */
+public abstract class TranspositionTable {
+
+    /**
+     * The stored score is the exact score of the position.
+     */
+    static final int EXACT = 1;
+
+    /**
+     * The search failed high, the real score is at least the stored score.
+     */
+    static final int LOWER_BOUND = 2;
+
+    /**
+     * The search failed low, the real score is at most the stored score.
+     */
+    static final int UPPER_BOUND = 3;
+
+    /**
+     * Returned by probe() when the position is not in the table.
+     */
+    static final long MISS = 0;
+
+    /**
+     * The number of entries of a table if nobody asks for another size.
+     */
+    public static final int DEFAULT_SIZE = 1 << 16;
+
+    /**
+     * Statistics only. Striped, so the threads of a parallel search that
+     * share the table do not all write to one cache line on every probe.
+     */
+    final LongAdder probes = new LongAdder();
+    final LongAdder hits = new LongAdder();
+
+    /**
+     * Look up a position.
+     * @param key       the hash of the position
+     * @return          the packed entry, or MISS if the position is not stored
+     */
+    abstract long probe (long key);
+
+    /**
+     * Store the result of a search.
+     * @param key       the hash of the position
+     * @param score     the score of the position
+     * @param depth     the number of plies the position was searched to (at most 255)
+     * @param flag      EXACT, LOWER_BOUND or UPPER_BOUND
+     * @param bestMove  the best move found (-1 if none)
+     */
+    abstract void store (long key, int score, int depth, int flag, int bestMove);
+
+    /**
+     * Pack the result of a search into an entry.
+     * @param score     the score of the position
+     * @param depth     the number of plies the position was searched to (at most 255)
+     * @param flag      EXACT, LOWER_BOUND or UPPER_BOUND
+     * @param bestMove  the best move found (-1 if none)
+     * @return          the packed entry
+     */
+    static long pack (int score, int depth, int flag, int bestMove) {
+        return ((long) score << 32)
+                | ((long) (bestMove + 1) & 0xFFFF) << 16
+                | Math.min(depth, 0xFF) << 8
+                | flag;
+    }
+
+    /**
+     * Get the score of an entry.
+     * @param entry     the packed entry
+     * @return          the score
+     */
+    static int score (long entry) {
+        return (int) (entry >> 32);
+    }
+
+    /**
+     * Get the best move of an entry.
+     * @param entry     the packed entry
+     * @return          the best move (-1 if none)
+     */
+    static int bestMove (long entry) {
+        return (int) (entry >>> 16 & 0xFFFF) - 1;
+    }
+
+    /**
+     * Get the depth of an entry.
+     * @param entry     the packed entry
+     * @return          the number of plies the position was searched to
+     */
+    static int depth (long entry) {
+        return (int) (entry >>> 8 & 0xFF);
+    }
+
+    /**
+     * Get the flag of an entry.
+     * @param entry     the packed entry
+     * @return          EXACT, LOWER_BOUND or UPPER_BOUND
+     */
+    static int flag (long entry) {
+        return (int) (entry & 0xFF);
+    }
+
+    /**
+     * Move the best move from an earlier search to the front, it is the most
+     * likely to cause a cutoff.
+     * @param available     the moves
+     * @param count         the number of moves
+     * @param hashMove      the move to search first (-1 if none)
+     */
+    static void hashMoveFirst (int[] available, int count, int hashMove) {
+        for (int i = 1; i < count; i++) {
+            if (available[i] == hashMove) {
+                available[i] = available[0];
+                available[0] = hashMove;
+                break;
+            }
+        }
+    }
+
+    /**
+     * Swap a lower bound for an upper bound and the other way around. Needed
+     * when the score is negated for the other player.
+     * @param flag          the flag of a transposition table entry
+     * @return              the flag seen from the other player
+     */
+    static int flip (int flag) {
+        if (flag == TranspositionTable.LOWER_BOUND) {
+            return TranspositionTable.UPPER_BOUND;
+        } else if (flag == TranspositionTable.UPPER_BOUND) {
+            return TranspositionTable.LOWER_BOUND;
+        }
+        return flag;
+    }
+
+    /**
+     * Remove all entries and reset the statistics.
+     */
+    public void clear () {
+        probes.reset();
+        hits.reset();
+    }
+
+    /**
+     * Get the number of entries the table can hold.
+     * @return          the capacity
+     */
+    public abstract int getSize ();
+
+    /**
+     * Get the share of lookups that found their position.
+     * @return          the hit rate between 0 and 1
+     */
+    public double getHitRate () {
+        long probes = this.probes.sum();
+        return probes == 0 ? 0 : (double) hits.sum() / probes;
+    }
+
+    @Override
+    public String toString () {
+        return String.format("%s[size=%d, probes=%d, hits=%d, hitRate=%.1f%%]",
+                getClass().getSimpleName(), getSize(), probes.sum(), hits.sum(), getHitRate() * 100);
+    }
+}
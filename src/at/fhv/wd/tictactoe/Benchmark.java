@@ -0,0 +1,251 @@
+package at.fhv.wd.tictactoe;
+
+import at.fhv.wd.logic.Algorithms;
+import at.fhv.wd.logic.AlphaBetaAdvanced;
+import at.fhv.wd.logic.HeapTranspositionTable;
+import at.fhv.wd.logic.PrincipalVariationSearch;
+import at.fhv.wd.logic.SearchEngine;
+import at.fhv.wd.logic.TranspositionTable;
+
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+public class Benchmark {
+
+    private static final long WARMUP_NANOS = 2_000_000_000L;
+    private static final int ROUNDS = 50;
+
+    /**
+     * Benchmark cannot be instantiated.
+     */
+    private Benchmark() {}
+
+    /**
+     * Walk the complete game tree below the board.
+     * @param board     the Tic Tac Toe board to start from
+     * @return          the number of nodes visited
+     */
+    private static long perft (Board board) {
+        long nodes = 1;
+
+        if (board.isGameOver()) {
+            return nodes;
+        }
+
+        for (Integer theMove : board.getAvailableMoves()) {
+            Board modifiedBoard = board.getDeepCopy();
+            modifiedBoard.move(theMove);
+            nodes += perft(modifiedBoard);
+        }
+
+        return nodes;
+    }
+
+    /**
+     * Walk the complete game tree below the board, playing and taking back
+     * moves on the one board instead of copying it.
+     * @param board     the Tic Tac Toe board to start from
+     * @param moves     one move buffer per ply
+     * @return          the number of nodes visited
+     */
+    private static long perftUndo (Board board, int[][] moves) {
+        long nodes = 1;
+
+        if (board.isGameOver()) {
+            return nodes;
+        }
+
+        int[] available = moves[board.getMoveCount()];
+        int count = board.getAvailableMoves(available);
+
+        for (int i = 0; i < count; i++) {
+            board.move(available[i]);
+            nodes += perftUndo(board, moves);
+            board.undo();
+        }
+
+        return nodes;
+    }
+
+    /**
+     * Measure how many game tree nodes per second the board can generate.
+     * @param name      the name that is printed
+     * @param perft     the tree walk to run
+     */
+    private static void benchmarkPerft (String name, ToLongFunction<Board> perft) {
+        long nodes = 0;
+
+        long warmupEnd = System.nanoTime() + WARMUP_NANOS;
+        while (System.nanoTime() < warmupEnd) {
+            perft.applyAsLong(new Board());
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            nodes += perft.applyAsLong(new Board());
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("%-13s %,12d nodes  %,14.0f nodes/sec%n",
+                name, nodes / ROUNDS, nodes / (elapsed / 1e9));
+    }
+
+    /**
+     * Measure how long an algorithm needs to pick the first move on an empty board.
+     * @param name      the name that is printed
+     * @param algorithm the algorithm to run
+     */
+    private static void benchmarkAlgorithm (String name, Consumer<Board> algorithm) {
+        benchmarkAlgorithm(name, Board::new, algorithm);
+    }
+
+    /**
+     * Measure how long an algorithm needs to pick the first move on an empty board.
+     * @param name      the name that is printed
+     * @param boards    creates the empty board
+     * @param algorithm the algorithm to run
+     */
+    private static void benchmarkAlgorithm (String name, Supplier<Board> boards, Consumer<Board> algorithm) {
+        long warmupEnd = System.nanoTime() + WARMUP_NANOS;
+        while (System.nanoTime() < warmupEnd) {
+            algorithm.accept(boards.get());
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            algorithm.accept(boards.get());
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("%-13s %,12.4f ms/move%n", name, elapsed / 1e6 / ROUNDS);
+    }
+
+    /**
+     * Measure how many positions an engine searches to pick the first move on
+     * an empty board, and how long it takes.
+     * @param name      the name that is printed
+     * @param boards    creates the empty board
+     * @param table     the transposition table of the engine, cleared before every search
+     * @param engine    the engine to run
+     */
+    private static void benchmarkNodes (String name, Supplier<Board> boards, TranspositionTable table,
+                                        SearchEngine engine) {
+        long warmupEnd = System.nanoTime() + WARMUP_NANOS;
+        while (System.nanoTime() < warmupEnd) {
+            table.clear();
+            engine.search(boards.get());
+        }
+
+        long nodes = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            table.clear();
+            nodes += engine.search(boards.get()).getNodes();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("%-13s %,12d nodes/move %,12.4f ms/move%n", name, nodes / ROUNDS, elapsed / 1e6 / ROUNDS);
+    }
+
+    public static void main(String[] args) {
+        benchmarkPerft("perft", Benchmark::perft);
+        benchmarkPerft("perftUndo", board ->
+                perftUndo(board, new int[board.getCellCount() + 1][board.getCellCount()]));
+        benchmarkAlgorithm("random", Algorithms::random);
+        benchmarkAlgorithm("minMax", Algorithms::minMax);
+
+        // Start every search with an empty table, otherwise all rounds after
+        // the first one would just read the answer back.
+        benchmarkAlgorithm("alphaBeta", board -> {
+            Algorithms.getTranspositionTable().clear();
+            Algorithms.alphaBetaPruning(board);
+        });
+        System.out.println(Algorithms.getTranspositionTable());
+        benchmarkAlgorithm("alphaBetaAdv", board -> {
+            Algorithms.getTranspositionTable().clear();
+            Algorithms.alphaBetaAdvanced(board);
+        });
+        System.out.println(Algorithms.getTranspositionTable());
+        benchmarkAlgorithm("perfectPlay", Algorithms::perfectPlay);
+
+        // Larger boards, depth limited.
+        benchmarkAlgorithm("4x4 k4 d6", () -> new Board(4, 4, 4), board -> {
+            Algorithms.getTranspositionTable().clear();
+            Algorithms.alphaBetaAdvanced(board, 6);
+        });
+        benchmarkAlgorithm("7x6 k4 d5", () -> new Board(7, 6, 4), board -> {
+            Algorithms.getTranspositionTable().clear();
+            Algorithms.alphaBetaAdvanced(board, 5);
+        });
+        benchmarkAlgorithm("15x15 k5 d3", () -> new Board(15, 15, 5), board -> {
+            Algorithms.getTranspositionTable().clear();
+            Algorithms.alphaBetaAdvanced(board, 3);
+        });
+
+        // The same searches without move ordering, the table probes show how
+        // many more positions have to be visited.
+        for (boolean ordered : new boolean[] {true, false}) {
+            Algorithms.setMoveOrderingEnabled(ordered);
+            Algorithms.getMoveOrdering().clear();
+            benchmarkAlgorithm(ordered ? "7x6 ordered" : "7x6 unordered", () -> new Board(7, 6, 4), board -> {
+                Algorithms.getTranspositionTable().clear();
+                Algorithms.alphaBetaAdvanced(board, 5);
+            });
+            System.out.println(Algorithms.getTranspositionTable());
+            if (ordered) {
+                System.out.println(Algorithms.getMoveOrdering());
+            }
+        }
+        Algorithms.setMoveOrderingEnabled(true);
+
+        // The parallel search plays the same moves, only the time per move
+        // should drop with the number of cores.
+        benchmarkAlgorithm("7x6 parallel", () -> new Board(7, 6, 4), board -> {
+            Algorithms.getTranspositionTable().clear();
+            Algorithms.alphaBetaParallel(board, 5);
+        });
+        benchmarkAlgorithm("15x15 parallel", () -> new Board(15, 15, 5), board -> {
+            Algorithms.getTranspositionTable().clear();
+            Algorithms.alphaBetaParallel(board, 3);
+        });
+
+        // The engines agree on the score, the nodes show which window
+        // strategy gets there with the least work.
+        TranspositionTable table = new HeapTranspositionTable(TranspositionTable.DEFAULT_SIZE);
+        AlphaBetaAdvanced alphaBeta = new AlphaBetaAdvanced(table, true);
+        PrincipalVariationSearch pvs = new PrincipalVariationSearch(table, true);
+        benchmarkNodes("3x3 alphaBeta", Board::new, table, alphaBeta);
+        benchmarkNodes("3x3 pvs", Board::new, table, pvs);
+        benchmarkNodes("3x3 mtdf", Board::new, table, pvs.withMtdf());
+        benchmarkNodes("4x4 alphaBeta", () -> new Board(4, 4, 4), table, alphaBeta.withMaxPly(6));
+        benchmarkNodes("4x4 pvs", () -> new Board(4, 4, 4), table, pvs.withMaxPly(6));
+        benchmarkNodes("4x4 mtdf", () -> new Board(4, 4, 4), table, pvs.withMaxPly(6).withMtdf());
+        benchmarkNodes("7x6 alphaBeta", () -> new Board(7, 6, 4), table, alphaBeta.withMaxPly(5));
+        benchmarkNodes("7x6 pvs", () -> new Board(7, 6, 4), table, pvs.withMaxPly(5));
+        benchmarkNodes("7x6 mtdf", () -> new Board(7, 6, 4), table, pvs.withMaxPly(5).withMtdf());
+
+        // Monte Carlo Tree Search runs a fixed number of playouts, the time per
+        // move grows with the length of the games it plays out.
+        benchmarkAlgorithm("mcts", Algorithms::monteCarloTreeSearch);
+        benchmarkAlgorithm("15x15 mcts", () -> new Board(15, 15, 5), Algorithms::monteCarloTreeSearch);
+        benchmarkAlgorithm("15x15 mcts par", () -> new Board(15, 15, 5), Algorithms::monteCarloParallel);
+
+        // Lazy SMP needs more cores than threads to speed up, on fewer cores
+        // the helpers only take time away from the main search.
+        for (int threads : new int[] {1, 2, 4, 8, 16}) {
+            Algorithms.setParallelism(threads);
+            benchmarkAlgorithm("lazySmp " + threads, () -> new Board(7, 6, 4), board -> {
+                Algorithms.getTranspositionTable().clear();
+                Algorithms.lazySmp(board, 6);
+            });
+        }
+
+        // Iterative deepening stops on its budget, so this mostly shows how
+        // closely the budget is kept.
+        benchmarkAlgorithm("15x15 k5 50ms", () -> new Board(15, 15, 5), board -> {
+            Algorithms.getTranspositionTable().clear();
+            Algorithms.iterativeDeepening(board, 50);
+        });
+    }
+}
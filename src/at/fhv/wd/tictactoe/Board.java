@@ -1,47 +1,137 @@
 package at.fhv.wd.tictactoe;
 
-import java.util.HashSet;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Board {
 
     static final int BOARD_WIDTH = 3;
     static final int BOARD_HIGHT = 3;
+    static final int BOARD_K = 3;
 
+    /**
+     * The limit of getEvaluation(). Won positions can be scored above it, so
+     * no evaluation ever outranks a win.
+     */
+    public static final int MAX_EVALUATION = 1 << 20;
+
+    /**
+     * The most columns or rows of a _board, so width, height and K each fit
+     * into 21 bits of the key of a layout.
+     */
+    public static final int MAX_SIDE = (1 << 21) - 1;
+
+    /**
+     * The most cells of a _board. A layout keeps several arrays of one entry
+     * per cell, eight Zobrist keys per cell and player among them.
+     */
+    public static final int MAX_CELLS = 1 << 20;
+
+    /**
+     * The layouts that have been used so far, keyed by width, height and K.
+     */
+    private static final Map<Long, Layout> LAYOUTS = new ConcurrentHashMap<>();
 
     public enum State {Blank, X, O}
-    private State[][] _board;
+
+    private final Layout _layout;
+
+    /**
+     * One bit per cell for each player, 64 cells to a word.
+     */
+    private long[] _xBits;
+    private long[] _oBits;
+
+    /**
+     * The Zobrist hash of every symmetric copy of the position, indexed by
+     * transformation. Entry 0 is the hash of the position itself.
+     */
+    private long[] _hashes;
+
+    /**
+     * The marks in every K cell window, counted as x + o * (K + 1), and the
+     * evaluation they add up to, seen from X.
+     */
+    private int[] _windowMarks;
+    private int _evaluation;
+
     private State _playersTurn;
     private State _winner;
-    private HashSet<Integer> _movesAvailable;
+    private Set<Integer> _movesAvailable;
+
+    /**
+     * The indexes of the moves played so far, in order. Used by undo().
+     */
+    private int[] _moveStack;
 
     private int moveCount;
     private boolean gameOver;
 
     /**
-     * Construct the Tic Tac Toe _board.
+     * Construct the classic 3x3 Tic Tac Toe _board.
      */
-    Board() {
-        _board = new State[BOARD_WIDTH][BOARD_HIGHT];
-        _movesAvailable = new HashSet<>();
-        reset();
+    public Board() {
+        this(BOARD_WIDTH, BOARD_HIGHT, BOARD_K);
     }
 
     /**
-     * Set the cells to be blank and load the available moves (all the moves are
-     * available at the start of the game).
+     * Construct a _board of any size.
+     * @param width     the number of columns
+     * @param height    the number of rows
+     * @param k         the number of marks in a row needed to win
      */
-    private void initialize () {
-        for (int row = 0; row < BOARD_HIGHT; row++) {
-            for (int col = 0; col < BOARD_WIDTH; col++) {
-                _board[row][col] = State.Blank;
-            }
+    public Board(int width, int height, int k) {
+        if (width < 1 || height < 1 || width > MAX_SIDE || height > MAX_SIDE
+                || (long) width * height > MAX_CELLS) {
+            throw new IllegalArgumentException("Width and height must be between 1 and " + MAX_SIDE
+                    + ", the board must have at most " + MAX_CELLS + " cells.");
         }
+        if (k < 1 || k > Math.max(width, height)) {
+            throw new IllegalArgumentException("K must be between 1 and " + Math.max(width, height) + ".");
+        }
+
+        _layout = LAYOUTS.computeIfAbsent(getLayoutKey(width, height, k), key -> new Layout(width, height, k));
+        _xBits = new long[_layout.words];
+        _oBits = new long[_layout.words];
+        _moveStack = new int[_layout.cells];
+        _hashes = new long[_layout.symmetry.size()];
+        _windowMarks = new int[_layout.windowCount];
+        reset();
+    }
 
-        _movesAvailable.clear();
+    /**
+     * Get the key of a layout, 21 bits each for width, height and K.
+     * @param width     the number of columns (at most MAX_SIDE)
+     * @param height    the number of rows (at most MAX_SIDE)
+     * @param k         the number of marks in a row needed to win (at most MAX_SIDE)
+     * @return          the key
+     */
+    private static long getLayoutKey (int width, int height, int k) {
+        return (long) width << 42 | (long) height << 21 | k;
+    }
 
-        for (int i = 0; i < BOARD_WIDTH*BOARD_HIGHT; i++) {
-            _movesAvailable.add(i);
-        }
+    /**
+     * Construct a copy of another _board.
+     * @param other     the _board to copy
+     */
+    private Board(Board other) {
+        _layout         = other._layout;
+        _xBits          = other._xBits.clone();
+        _oBits          = other._oBits.clone();
+        _hashes         = other._hashes.clone();
+        _windowMarks    = other._windowMarks.clone();
+        _evaluation     = other._evaluation;
+        _moveStack      = other._moveStack.clone();
+        _playersTurn    = other._playersTurn;
+        _winner         = other._winner;
+        moveCount       = other.moveCount;
+        gameOver        = other.gameOver;
     }
 
     /**
@@ -52,7 +142,11 @@ public class Board {
         gameOver = false;
         _playersTurn = State.X;
         _winner = State.Blank;
-        initialize();
+        Arrays.fill(_xBits, 0);
+        Arrays.fill(_oBits, 0);
+        Arrays.fill(_hashes, _layout.emptyHash);
+        Arrays.fill(_windowMarks, 0);
+        _evaluation = 0;
     }
 
     /**
@@ -61,46 +155,167 @@ public class Board {
      * @return          true if the move has not already been played
      */
     public boolean move (int index) {
-        return move(index% BOARD_WIDTH, index/ BOARD_WIDTH);
-    }
-
-    /**
-     * Places an X or an O on the specified location depending on who turn it is.
-     * @param x         the x coordinate of the location
-     * @param y         the y coordinate of the location
-     * @return          true if the move has not already been played
-     */
-    private boolean move (int x, int y) {
 
         if (gameOver) {
             throw new IllegalStateException("TicTacToe is over. No moves can be played.");
         }
 
-        if (_board[y][x] == State.Blank) {
-            _board[y][x] = _playersTurn;
-        } else {
+        if (index < 0 || index >= _layout.cells) {
+            throw new IllegalArgumentException("Index must be between 0 and " + (_layout.cells - 1) + ".");
+        }
+
+        if (!isFree(index)) {
             return false;
         }
 
-        moveCount++;
-        _movesAvailable.remove(y * BOARD_WIDTH + x);
+        long[] playerBits = (_playersTurn == State.X) ? _xBits : _oBits;
+        playerBits[index >>> 6] |= 1L << index;
+        updateHashes(index);
+        updateEvaluation(index, 1);
+
+        _moveStack[moveCount++] = index;
 
         // The game is a draw.
-        if (moveCount == BOARD_WIDTH * BOARD_WIDTH) {
+        if (moveCount == _layout.cells) {
             _winner = State.Blank;
             gameOver = true;
         }
 
         // Check for a _winner.
-        checkRow(y);
-        checkColumn(x);
-        checkDiagonalFromTopLeft(x, y);
-        checkDiagonalFromTopRight(x, y);
+        if (isWinningMove(playerBits, index)) {
+            _winner = _playersTurn;
+            gameOver = true;
+        }
 
         _playersTurn = (_playersTurn == State.X) ? State.O : State.X;
         return true;
     }
 
+    /**
+     * Take back the most recently played move. Restores the turn, the _winner
+     * and the game over flag to what they were before that move.
+     */
+    public void undo () {
+        if (moveCount == 0) {
+            throw new IllegalStateException("No moves have been played.");
+        }
+
+        int index = _moveStack[--moveCount];
+        _playersTurn = (_playersTurn == State.X) ? State.O : State.X;
+
+        long[] playerBits = (_playersTurn == State.X) ? _xBits : _oBits;
+        playerBits[index >>> 6] &= ~(1L << index);
+        updateHashes(index);
+        updateEvaluation(index, -1);
+
+        _winner = State.Blank;
+        gameOver = false;
+    }
+
+    /**
+     * Check to see if a mark on the given cell completes K in a row. The cell
+     * itself does not have to be marked yet. Only the four lines through the
+     * cell are walked, at most K - 1 cells in each direction, so the check
+     * does not depend on the size of the _board.
+     * Boards of up to 64 cells test the precomputed K cell windows through
+     * the cell instead, one mask each.
+     * @param playerBits    the cells of the player
+     * @param index         the position on the _board
+     * @return              true if the mark makes K in a row
+     */
+    private boolean isWinningMove (long[] playerBits, int index) {
+        if (_layout.windows != null) {
+            long bits = playerBits[0] | (1L << index);
+            for (long window : _layout.windows[index]) {
+                if ((bits & window) == window) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        int needed = _layout.k - 1;
+
+        // Directions come in pairs that point away from each other.
+        for (int direction = 0; direction < Layout.DIRECTIONS; direction += 2) {
+            if (count(playerBits, index, direction, needed)
+                    + count(playerBits, index, direction + 1, needed) >= needed) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Count the marks of a player in a row, starting next to a cell.
+     * @param playerBits    the cells of the player
+     * @param index         the position on the _board
+     * @param direction     the direction to walk in
+     * @param max           the most marks to count
+     * @return              the number of marks in a row (at most max)
+     */
+    private int count (long[] playerBits, int index, int direction, int max) {
+        int count = 0;
+        int limit = Math.min(max, _layout.reach[direction][index]);
+        int step = _layout.steps[direction];
+
+        for (int i = index + step; count < limit && (playerBits[i >>> 6] & (1L << i)) != 0; i += step) {
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Toggle the mark of the player to move on the given cell in the hash of
+     * every symmetric copy of the position.
+     * @param index     the position on the _board
+     */
+    private void updateHashes (int index) {
+        long[] keys = _layout.zobrist[(_playersTurn == State.X) ? 0 : 1];
+        int offset = index * _hashes.length;
+
+        for (int t = 0; t < _hashes.length; t++) {
+            _hashes[t] ^= keys[offset + t];
+        }
+    }
+
+    /**
+     * Add or take away the mark of the player to move on the given cell in
+     * the windows through the cell, and update the evaluation by how much
+     * those windows changed.
+     * @param index     the position on the _board
+     * @param delta     1 to add the mark, -1 to take it away
+     */
+    private void updateEvaluation (int index, int delta) {
+        int step = (_playersTurn == State.X) ? delta : delta * (_layout.k + 1);
+        int[] values = _layout.windowValues;
+
+        for (int window : _layout.cellWindows[index]) {
+            int marks = _windowMarks[window];
+            _windowMarks[window] = marks + step;
+            _evaluation += values[marks + step] - values[marks];
+        }
+    }
+
+    /**
+     * Score the position by its open lines: every K cell window that holds
+     * marks of only one player counts for that player, 1 for one mark, 8 for
+     * two, 64 for three and so on. Kept up to date by move() and undo(), so a
+     * call costs the same on every _board.
+     * @param player    the player to score the position for
+     * @return          the score, positive if the player is ahead (at most MAX_EVALUATION either way)
+     */
+    public int getEvaluation (State player) {
+        if (player == State.Blank) {
+            throw new IllegalArgumentException("Player must be X or O.");
+        }
+
+        int evaluation = Math.max(-MAX_EVALUATION, Math.min(MAX_EVALUATION, _evaluation));
+        return (player == State.X) ? evaluation : -evaluation;
+    }
+
     /**
      * Check to see if the game is over (if there is a _winner or a draw).
      * @return          true if the game is over
@@ -114,7 +329,68 @@ public class Board {
      * @return          the _board array
      */
     State[][] toArray () {
-        return _board.clone();
+        State[][] board = new State[_layout.height][_layout.width];
+
+        for (int y = 0; y < _layout.height; y++) {
+            for (int x = 0; x < _layout.width; x++) {
+                board[y][x] = getState(y * _layout.width + x);
+            }
+        }
+
+        return board;
+    }
+
+    /**
+     * Get the content of a single cell.
+     * @param index     the position on the _board
+     * @return          the player occupying the cell (or Blank)
+     */
+    public State getState (int index) {
+        if ((_xBits[index >>> 6] & (1L << index)) != 0) {
+            return State.X;
+        } else if ((_oBits[index >>> 6] & (1L << index)) != 0) {
+            return State.O;
+        }
+        return State.Blank;
+    }
+
+    /**
+     * Check to see if a cell is empty.
+     * @param index     the position on the _board
+     * @return          true if nobody has played there
+     */
+    private boolean isFree (int index) {
+        return ((_xBits[index >>> 6] | _oBits[index >>> 6]) & (1L << index)) == 0;
+    }
+
+    /**
+     * Check to see if a player would win by playing on a cell, without
+     * playing the move.
+     * @param index     the position on the _board
+     * @param player    the player to check for
+     * @return          true if the cell is free and a mark there makes K in a row
+     */
+    public boolean wouldWin (int index, State player) {
+        if (player == State.Blank) {
+            throw new IllegalArgumentException("Player must be X or O.");
+        }
+
+        if (gameOver || !isFree(index)) {
+            return false;
+        }
+
+        return isWinningMove((player == State.X) ? _xBits : _oBits, index);
+    }
+
+    /**
+     * Count the K cell windows that go through a cell. On an empty _board
+     * this is how many ways a mark there can become part of a win, so the
+     * center and the corners of a 3x3 _board score highest.
+     * @param index     the position on the _board
+     * @return          the number of windows
+     */
+    public int getWindowCount (int index) {
+        return _layout.cellWindows[index].length;
     }
 
     /**
@@ -138,118 +414,223 @@ public class Board {
 
     /**
      * Get the indexes of all the positions on the _board that are empty.
+     * The set is a read-only view of the empty cells, iterated in ascending order.
      * @return          the empty cells
      */
-    public HashSet<Integer> getAvailableMoves () {
+    public Set<Integer> getAvailableMoves () {
+        if (_movesAvailable == null) {
+            _movesAvailable = new AvailableMoves();
+        }
         return _movesAvailable;
     }
 
     /**
-     * Checks the specified row to see if there is a _winner.
-     * @param row       the row to check
+     * Write the indexes of all the empty positions into the given array, in
+     * ascending order. Does not allocate, so it is safe to call once per search node.
+     * @param moves     the array to fill (must hold at least getCellCount() entries)
+     * @return          the number of moves written
      */
-    private void checkRow (int row) {
-        for (int i = 1; i < BOARD_WIDTH; i++) {
-            if (_board[row][i] != _board[row][i-1]) {
-                break;
-            }
-            if (i == BOARD_WIDTH -1) {
-                _winner = _playersTurn;
-                gameOver = true;
+    public int getAvailableMoves (int[] moves) {
+        int count = 0;
+
+        for (int word = 0; word < _xBits.length; word++) {
+            long remaining = ~(_xBits[word] | _oBits[word]) & _layout.fullWords[word];
+            for (; remaining != 0; remaining &= remaining - 1) {
+                moves[count++] = (word << 6) + Long.numberOfTrailingZeros(remaining);
             }
         }
+
+        return count;
     }
 
     /**
-     * Checks the specified column to see if there is a _winner.
-     * @param column    the column to check
+     * Get the Zobrist hash of the position. Whose turn it is follows from the
+     * number of marks on the _board, so it is not hashed separately.
+     * @return          the hash of the position
      */
-    private void checkColumn (int column) {
-        for (int i = 1; i < BOARD_WIDTH; i++) {
-            if (_board[i][column] != _board[i-1][column]) {
-                break;
-            }
-            if (i == BOARD_WIDTH -1) {
-                _winner = _playersTurn;
-                gameOver = true;
+    public long getHash () {
+        return _hashes[0];
+    }
+
+    /**
+     * Get the Zobrist hash of a symmetric copy of the position.
+     * @param transform the transformation (see getSymmetry())
+     * @return          the hash of the transformed position
+     */
+    public long getHash (int transform) {
+        return _hashes[transform];
+    }
+
+    /**
+     * Find the transformation that maps the position onto its canonical form,
+     * the symmetric copy with the smallest hash. All symmetric positions share
+     * the same canonical form, so caches keyed by getHash(getCanonicalTransform())
+     * treat them as one position. Moves are mapped to and from the canonical
+     * form with getSymmetry().apply() and getSymmetry().invert().
+     * @return          the transformation to the canonical form
+     */
+    public int getCanonicalTransform () {
+        int canonical = 0;
+
+        for (int t = 1; t < _hashes.length; t++) {
+            if (_hashes[t] < _hashes[canonical]) {
+                canonical = t;
             }
         }
+
+        return canonical;
     }
 
     /**
-     * Check the left diagonal to see if there is a _winner.
-     * @param x         the x coordinate of the most recently played move
-     * @param y         the y coordinate of the most recently played move
+     * Get the symmetries of the _board.
+     * @return          the symmetries
      */
-    private void checkDiagonalFromTopLeft (int x, int y) {
-        if (x == y) {
-            for (int i = 1; i < BOARD_WIDTH; i++) {
-                if (_board[i][i] != _board[i-1][i-1]) {
-                    break;
-                }
-                if (i == BOARD_WIDTH -1) {
-                    _winner = _playersTurn;
-                    gameOver = true;
-                }
+    public Symmetry getSymmetry () {
+        return _layout.symmetry;
+    }
+
+    /**
+     * Check to see if the position looks the same after a transformation.
+     * @param transform the transformation
+     * @return          true if the transformed position is identical
+     */
+    private boolean isSymmetric (int transform) {
+        for (int i = 0; i < _layout.cells; i++) {
+            if (getState(i) != getState(_layout.symmetry.apply(transform, i))) {
+                return false;
             }
         }
+        return true;
     }
 
     /**
-     * Check the right diagonal to see if there is a _winner.
-     * @param x     the x coordinate of the most recently played move
-     * @param y     the y coordinate of the most recently played move
+     * Like getAvailableMoves(int[]), but leaves out moves that lead to a
+     * position symmetric to that of a move already written. Only one
+     * representative of each group is searched, which cuts the number of
+     * moves on an empty 3x3 _board from 9 to 3.
+     * @param moves     the array to fill (must hold at least getCellCount() entries)
+     * @return          the number of moves written
      */
-    private void checkDiagonalFromTopRight (int x, int y) {
-        if (BOARD_WIDTH -1-x == y) {
-            for (int i = 1; i < BOARD_WIDTH; i++) {
-                if (_board[BOARD_WIDTH -1-i][i] != _board[BOARD_WIDTH -i][i-1]) {
-                    break;
-                }
-                if (i == BOARD_WIDTH -1) {
-                    _winner = _playersTurn;
-                    gameOver = true;
+    public int getUniqueMoves (int[] moves) {
+        int symmetric = 0;
+
+        // The transformations that leave the position unchanged.
+        for (int t = 1; t < _hashes.length; t++) {
+            if (_hashes[t] == _hashes[0] && isSymmetric(t)) {
+                symmetric |= 1 << t;
+            }
+        }
+
+        int count = getAvailableMoves(moves);
+
+        if (symmetric == 0) {
+            return count;
+        }
+
+        int unique = 0;
+
+        // Keep a move if it is the smallest index of all the cells the
+        // symmetries of the position can move it to.
+        for (int i = 0; i < count; i++) {
+            boolean smallest = true;
+            for (int t = 1; t < _hashes.length && smallest; t++) {
+                if ((symmetric & (1 << t)) != 0 && _layout.symmetry.apply(t, moves[i]) < moves[i]) {
+                    smallest = false;
                 }
             }
+            if (smallest) {
+                moves[unique++] = moves[i];
+            }
         }
+
+        return unique;
     }
 
     /**
-     * Get a deep copy of the Tic Tac Toe _board.
-     * @return      an identical copy of the _board
+     * Get the number of cells on the _board.
+     * @return          the number of cells
      */
-    public Board getDeepCopy () {
-        Board board             = new Board();
+    public int getCellCount () {
+        return _layout.cells;
+    }
+
+    /**
+     * Get the number of columns.
+     * @return          the width of the _board
+     */
+    public int getWidth () {
+        return _layout.width;
+    }
+
+    /**
+     * Get the number of rows.
+     * @return          the height of the _board
+     */
+    public int getHeight () {
+        return _layout.height;
+    }
+
+    /**
+     * Get the number of marks in a row needed to win.
+     * @return          K
+     */
+    public int getK () {
+        return _layout.k;
+    }
 
-        for (int i = 0; i < board._board.length; i++) {
-            board._board[i] = this._board[i].clone();
+    /**
+     * Get the number of moves that have been played.
+     * @return          the number of moves played
+     */
+    public int getMoveCount () {
+        return moveCount;
+    }
+
+    /**
+     * Get the move that was played last.
+     * @return          the position on the board (-1 if no move was played yet)
+     */
+    public int getLastMove () {
+        return (moveCount == 0) ? -1 : _moveStack[moveCount - 1];
+    }
+
+    /**
+     * Get a move that was played.
+     * @param ply       the number of the move, starting at 0 for the first move of the game
+     * @return          the position on the board
+     */
+    public int getMove (int ply) {
+        if (ply < 0 || ply >= moveCount) {
+            throw new IllegalArgumentException("Ply must be between 0 and " + (moveCount - 1) + ".");
         }
+        return _moveStack[ply];
+    }
 
-        board._playersTurn = this._playersTurn;
-        board._winner = this._winner;
-        board._movesAvailable = new HashSet<>();
-        board._movesAvailable.addAll(this._movesAvailable);
-        board.moveCount         = this.moveCount;
-        board.gameOver          = this.gameOver;
-        return board;
+    /**
+     * Get a deep copy of the Tic Tac Toe _board.
+     * @return      an identical copy of the _board
+     */
+    public Board getDeepCopy () {
+        return new Board(this);
     }
 
     @Override
     public String toString () {
         StringBuilder sb = new StringBuilder();
 
-        for (int y = 0; y < BOARD_WIDTH; y++) {
-            for (int x = 0; x < BOARD_WIDTH; x++) {
+        for (int y = 0; y < _layout.height; y++) {
+            for (int x = 0; x < _layout.width; x++) {
 
-                if (_board[y][x] == State.Blank) {
+                State state = getState(y * _layout.width + x);
+                if (state == State.Blank) {
                     sb.append("-");
                 } else {
-                    sb.append(_board[y][x].name());
+                    sb.append(state.name());
                 }
                 sb.append(" ");
 
             }
-            if (y != BOARD_WIDTH -1) {
+            if (y != _layout.height -1) {
                 sb.append("\n");
             }
         }
@@ -257,4 +638,280 @@ public class Board {
         return new String(sb);
     }
 
+    /**
+     * Everything about a _board that only depends on its width, height and K.
+     * Shared by all boards of the same size.
+     */
+    private static class Layout {
+        private final int width;
+        private final int height;
+        private final int k;
+        private final int cells;
+        private final int words;
+
+        /**
+         * For every word of a bit set, the bits that belong to a cell.
+         */
+        private final long[] fullWords;
+
+        private final Symmetry symmetry;
+
+        /**
+         * The eight directions a line can run in, as steps in x and y.
+         * Every even direction is followed by its opposite.
+         */
+        private static final int[][] DELTAS = {
+                {1, 0}, {-1, 0}, {0, 1}, {0, -1}, {1, 1}, {-1, -1}, {1, -1}, {-1, 1}
+        };
+        private static final int DIRECTIONS = DELTAS.length;
+
+        /**
+         * For every direction, the change of the cell index per step.
+         */
+        private final int[] steps;
+
+        /**
+         * For every direction and cell, how many cells lie between the cell and
+         * the edge of the _board.
+         */
+        private final int[][] reach;
+
+        /**
+         * For every cell, the masks of all the K cell windows through it.
+         * Only built if the _board fits into a single word, null otherwise.
+         */
+        private final long[][] windows;
+
+        /**
+         * For every cell, the numbers of all the K cell windows through it,
+         * and how many windows there are. Built for every size, the
+         * evaluation keeps count of the marks in each window.
+         */
+        private final int[][] cellWindows;
+        private final int windowCount;
+
+        /**
+         * The value of a window seen from X, indexed by its marks counted as
+         * x + o * (K + 1). Every mark is worth 8 times the one before, up to a
+         * limit so big K cannot overflow. A window with marks of both players
+         * can never be completed and is worth nothing.
+         */
+        private final int[] windowValues;
+
+        /**
+         * Random keys for every (player, cell) pair. The hash of a position is
+         * the XOR of the keys of all occupied cells and the hash of the empty
+         * board. The seed is fixed per size so hashes are the same on every
+         * run, but boards of different sizes can share a transposition table
+         * without colliding on every position. For every cell the keys of all its
+         * symmetric cells are stored next to each other, indexed by
+         * transformation, so a move can update the hashes of all symmetric
+         * copies in one sweep.
+         */
+        private final long[][] zobrist;
+        private final long emptyHash;
+
+        /**
+         * Construct the Layout.
+         * @param width     the number of columns
+         * @param height    the number of rows
+         * @param k         the number of marks in a row needed to win
+         */
+        private Layout (int width, int height, int k) {
+            this.width = width;
+            this.height = height;
+            this.k = k;
+            cells = width * height;
+            words = (cells + 63) >>> 6;
+
+            fullWords = new long[words];
+            Arrays.fill(fullWords, -1L);
+            if ((cells & 63) != 0) {
+                fullWords[words - 1] = (1L << cells) - 1;
+            }
+
+            steps = new int[DIRECTIONS];
+            reach = new int[DIRECTIONS][cells];
+
+            for (int direction = 0; direction < DIRECTIONS; direction++) {
+                int dx = DELTAS[direction][0];
+                int dy = DELTAS[direction][1];
+                steps[direction] = dy * width + dx;
+
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        int distance = 0;
+                        for (int cx = x + dx, cy = y + dy; cx >= 0 && cx < width && cy >= 0 && cy < height;
+                             cx += dx, cy += dy) {
+                            distance++;
+                        }
+                        reach[direction][y * width + x] = distance;
+                    }
+                }
+            }
+
+            symmetry = new Symmetry(width, height);
+            Random random = new Random(0x5EED ^ getLayoutKey(width, height, k));
+            emptyHash = random.nextLong();
+            zobrist = createZobristKeys(random);
+            windows = (words == 1) ? createWindows() : null;
+            cellWindows = createCellWindows();
+            windowCount = Arrays.stream(cellWindows).mapToInt(ids -> ids.length).sum() / k;
+
+            windowValues = new int[(k + 1) * (k + 1)];
+            for (int marks = 1; marks <= k; marks++) {
+                int weight = 1 << Math.min(3 * (marks - 1), 12);
+                windowValues[marks] = weight;
+                windowValues[marks * (k + 1)] = -weight;
+            }
+        }
+
+        /**
+         * Build the masks of all the K cell windows through every cell.
+         * @return          the window masks, indexed by cell
+         */
+        private long[][] createWindows () {
+            long[][] cellWindows = new long[cells][DIRECTIONS / 2 * k];
+            int[] counts = new int[cells];
+
+            // Only the even directions, every window is found from its first cell.
+            for (int direction = 0; direction < DIRECTIONS; direction += 2) {
+                for (int start = 0; start < cells; start++) {
+                    if (reach[direction][start] < k - 1) {
+                        continue;
+                    }
+
+                    long window = 0;
+                    for (int i = 0, cell = start; i < k; i++, cell += steps[direction]) {
+                        window |= 1L << cell;
+                    }
+                    for (int i = 0, cell = start; i < k; i++, cell += steps[direction]) {
+                        cellWindows[cell][counts[cell]++] = window;
+                    }
+                }
+            }
+
+            for (int cell = 0; cell < cells; cell++) {
+                cellWindows[cell] = Arrays.copyOf(cellWindows[cell], counts[cell]);
+            }
+
+            return cellWindows;
+        }
+
+        /**
+         * Number all the K cell windows and list the ones through every cell.
+         * @return          the window numbers, indexed by cell
+         */
+        private int[][] createCellWindows () {
+            int[][] ids = new int[cells][DIRECTIONS / 2 * k];
+            int[] counts = new int[cells];
+            int window = 0;
+
+            // Only the even directions, every window is found from its first cell.
+            for (int direction = 0; direction < DIRECTIONS; direction += 2) {
+                for (int start = 0; start < cells; start++) {
+                    if (reach[direction][start] < k - 1) {
+                        continue;
+                    }
+
+                    for (int i = 0, cell = start; i < k; i++, cell += steps[direction]) {
+                        ids[cell][counts[cell]++] = window;
+                    }
+                    window++;
+                }
+            }
+
+            for (int cell = 0; cell < cells; cell++) {
+                ids[cell] = Arrays.copyOf(ids[cell], counts[cell]);
+            }
+
+            return ids;
+        }
+
+        /**
+         * Build the Zobrist keys.
+         * @param random    the random numbers to draw the keys from
+         * @return          the keys, indexed by player (0 = X, 1 = O) and then by
+         *                  cell * symmetry.size() + transformation
+         */
+        private long[][] createZobristKeys (Random random) {
+            long[][] cellKeys = new long[2][cells];
+            long[][] keys = new long[2][cells * symmetry.size()];
+
+            for (int player = 0; player < 2; player++) {
+                for (int i = 0; i < cells; i++) {
+                    cellKeys[player][i] = random.nextLong();
+                }
+                for (int i = 0; i < cells; i++) {
+                    for (int t = 0; t < symmetry.size(); t++) {
+                        keys[player][i * symmetry.size() + t] = cellKeys[player][symmetry.apply(t, i)];
+                    }
+                }
+            }
+
+            return keys;
+        }
+    }
+
+    /**
+     * The empty cells of the _board, read straight from the complement of the
+     * player bits.
+     */
+    private class AvailableMoves extends AbstractSet<Integer> {
+
+        @Override
+        public Iterator<Integer> iterator () {
+            return new Iterator<Integer>() {
+                private int next = nextEmpty(0);
+
+                @Override
+                public boolean hasNext () {
+                    return next != -1;
+                }
+
+                @Override
+                public Integer next () {
+                    if (next == -1) {
+                        throw new NoSuchElementException();
+                    }
+                    int index = next;
+                    next = nextEmpty(index + 1);
+                    return index;
+                }
+            };
+        }
+
+        /**
+         * Find the next empty cell.
+         * @param from      the first index to look at
+         * @return          the index of the next empty cell (-1 if there is none)
+         */
+        private int nextEmpty (int from) {
+            for (int word = from >>> 6; word < _xBits.length; word++) {
+                long remaining = ~(_xBits[word] | _oBits[word]) & _layout.fullWords[word];
+                if (word == from >>> 6) {
+                    remaining &= -1L << from;
+                }
+                if (remaining != 0) {
+                    return (word << 6) + Long.numberOfTrailingZeros(remaining);
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public int size () {
+            return _layout.cells - moveCount;
+        }
+
+        @Override
+        public boolean contains (Object o) {
+            if (!(o instanceof Integer)) {
+                return false;
+            }
+            int index = (Integer) o;
+            return index >= 0 && index < _layout.cells && isFree(index);
+        }
+    }
+
 }
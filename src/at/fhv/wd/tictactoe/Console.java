@@ -1,8 +1,9 @@
 package at.fhv.wd.tictactoe;
 
 import at.fhv.wd.logic.Algorithms;
-import com.sun.org.apache.xpath.internal.operations.Mod;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Scanner;
 
 public class Console {
@@ -15,6 +16,12 @@ public class Console {
     private enum Algo{Random, MinMax, AlphaBeta}
     private Algo _algo;
 
+    /**
+     * Records every game if the tictactoe.records system property names a
+     * file (null if it does not).
+     */
+    private GameRecordWriter _records;
+
     /**
      * Construct Console.
      */
@@ -22,6 +29,12 @@ public class Console {
         _board = new Board();
         _algo = algo;
         _mode = mode;
+
+        try {
+            _records = GameRecordWriter.fromProperty();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Game records could not be opened.", ex);
+        }
     }
 
     /**
@@ -37,6 +50,7 @@ public class Console {
 
             if (_board.isGameOver()) {
                 printWinner();
+                recordGame();
 
                 if (!tryAgain()) {
                     break;
@@ -83,10 +97,10 @@ public class Console {
 
         int move = _sc.nextInt();
 
-        if (move < 0 || move >= Board.BOARD_WIDTH* Board.BOARD_WIDTH) {
+        if (move < 0 || move >= _board.getCellCount()) {
             System.out.println("\nInvalid move.");
             System.out.println("\nThe index of the move must be between 0 and "
-                    + (Board.BOARD_WIDTH * Board.BOARD_WIDTH - 1) + ", inclusive.");
+                    + (_board.getCellCount() - 1) + ", inclusive.");
         } else if (!_board.move(move)) {
             System.out.println("\nInvalid move.");
             System.out.println("\nThe selected index must be blank.");
@@ -108,6 +122,24 @@ public class Console {
         }
     }
 
+    /**
+     * Add the game to the records, if there are any.
+     */
+    private void recordGame () {
+        if (_records == null) {
+            return;
+        }
+
+        String computer = (_algo == Algo.AlphaBeta) ? "alphaBetaAdvanced"
+                : (_algo == Algo.MinMax) ? "minMax" : "random";
+        try {
+            _records.write(_board, "human", (_mode == Mode.AI) ? computer : "human");
+            _records.flush();
+        } catch (IOException ex) {
+            System.out.println("The game could not be recorded: " + ex.getMessage());
+        }
+    }
+
     /**
      * Reset the game if the player wants to play again.
      * @return      true if the player wants to play again
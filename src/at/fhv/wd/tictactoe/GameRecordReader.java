@@ -0,0 +1,374 @@
+package at.fhv.wd.tictactoe;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Reads a file written by GameRecordWriter. The file is memory mapped and the
+ * games are looked at where they lie, through one Game that moves from
+ * record to record, so scanning a file creates no objects per game. Files
+ * larger than a mapping can be are mapped a gigabyte at a time.
+ */
+public class GameRecordReader implements Closeable {
+
+    /**
+     * The bytes mapped at a time. Mappings overlap by the largest entry, so
+     * every entry lies within one mapping.
+     */
+    private static final long SEGMENT = 1L << 30;
+
+    private final RandomAccessFile _file;
+    private final FileChannel _channel;
+    private final long _size;
+
+    private MappedByteBuffer _buffer;
+    private long _bufferStart;
+
+    private final List<String> _players = new ArrayList<>();
+
+    /**
+     * True once forEach() went through the whole file, so all players are known.
+     */
+    private boolean _scanned;
+
+    /**
+     * Construct a GameRecordReader.
+     * @param file      the file to read
+     * @throws IOException  if the file cannot be opened or is not a game record file
+     */
+    public GameRecordReader (File file) throws IOException {
+        _file = new RandomAccessFile(file, "r");
+        _channel = _file.getChannel();
+        _size = _channel.size();
+
+        try {
+            map(0);
+            if (_size < GameRecordWriter.HEADER || _buffer.getInt(0) != GameRecordWriter.MAGIC) {
+                throw new IOException("Not a game record file: " + file);
+            }
+            if (_buffer.getInt(4) != GameRecordWriter.VERSION) {
+                throw new IOException("Game record version " + _buffer.getInt(4) + " is not supported.");
+            }
+        } catch (IOException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Get the size of the file.
+     * @return          the size in bytes
+     */
+    public long getSize () {
+        return _size;
+    }
+
+    /**
+     * Get the names of all players in the file, the index being the number
+     * the file gave the player. Scans the file unless forEach() already did.
+     * @return          the names of the players
+     * @throws IOException  if the file is damaged
+     */
+    public List<String> getPlayers () throws IOException {
+        if (!_scanned) {
+            forEach(game -> { });
+        }
+        return Collections.unmodifiableList(new ArrayList<>(_players));
+    }
+
+    /**
+     * Look at every game in the file, in the order they were written. The
+     * game is only valid during the call, it is moved on to the next
+     * record afterwards.
+     * @param action    what to do with every game
+     * @return          the number of games
+     * @throws IOException  if the file is damaged
+     */
+    public long forEach (Consumer<Game> action) throws IOException {
+        Game game = new Game();
+        long games = 0;
+        long position = GameRecordWriter.HEADER;
+        _players.clear();
+        _scanned = false;
+
+        while (position < _size) {
+            if (position + Math.min(GameRecordWriter.MAX_ENTRY, _size - position)
+                    > _bufferStart + _buffer.limit()) {
+                map(position);
+            }
+
+            // Every entry starts with at least two bytes.
+            if (_size - position < 2) {
+                throw new IOException("Game record file ends in the middle of an entry.");
+            }
+
+            int offset = (int) (position - _bufferStart);
+            int width = _buffer.get(offset) & 0xFF;
+
+            if (width == 0) {
+                int length = _buffer.get(offset + 1) & 0xFF;
+                if (_size - position < 2 + length) {
+                    throw new IOException("Game record file ends in the middle of an entry.");
+                }
+                byte[] name = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    name[i] = _buffer.get(offset + 2 + i);
+                }
+                _players.add(new String(name, StandardCharsets.US_ASCII));
+                position += 2 + length;
+                continue;
+            }
+
+            int header = (width * (_buffer.get(offset + 1) & 0xFF) > 255) ? 8 : 7;
+            if (_size - position < header || position + game.moveTo(offset) > _size) {
+                throw new IOException("Game record file ends in the middle of an entry.");
+            }
+            if (game.getXPlayerNumber() >= _players.size() || game.getOPlayerNumber() >= _players.size()) {
+                throw new IOException("Game at " + position + " has a player that was never named.");
+            }
+            if (game.getResult() > GameRecordWriter.DRAW) {
+                throw new IOException("Game at " + position + " has an unknown result.");
+            }
+
+            action.accept(game);
+            games++;
+            position += game.getLength();
+        }
+
+        _scanned = true;
+        return games;
+    }
+
+    /**
+     * Map the part of the file starting at a position.
+     * @param position  the position in the file
+     * @throws IOException  if the file cannot be mapped
+     */
+    private void map (long position) throws IOException {
+        long length = Math.min(SEGMENT + GameRecordWriter.MAX_ENTRY, _size - position);
+        _buffer = _channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        _bufferStart = position;
+    }
+
+    @Override
+    public void close () throws IOException {
+        _buffer = null;
+        _file.close();
+    }
+
+    /**
+     * A game in the file. Reads its fields from the mapping when asked.
+     */
+    public class Game {
+        private int offset;
+        private int width, height, k;
+        private int moveCount;
+        private int bits;
+
+        /**
+         * The offset of the first move in the mapping.
+         */
+        private int moves;
+
+        /**
+         * Construct a Game. It is moved to a record before it is handed out.
+         */
+        private Game () {}
+
+        /**
+         * Look at the record at an offset of the mapping.
+         * @param offset    the offset of the record
+         * @return          the length of the record in bytes
+         */
+        private int moveTo (int offset) {
+            this.offset = offset;
+            width = _buffer.get(offset) & 0xFF;
+            height = _buffer.get(offset + 1) & 0xFF;
+            k = _buffer.get(offset + 2) & 0xFF;
+
+            int cells = width * height;
+            if (cells > 255) {
+                moveCount = _buffer.getShort(offset + 6) & 0xFFFF;
+                moves = offset + 8;
+            } else {
+                moveCount = _buffer.get(offset + 6) & 0xFF;
+                moves = offset + 7;
+            }
+
+            bits = GameRecordWriter.getMoveBits(cells);
+            return getLength();
+        }
+
+        /**
+         * Get the number of bytes the record takes.
+         * @return          the length of the record
+         */
+        public int getLength () {
+            return moves - offset + (moveCount * bits + 7) / 8;
+        }
+
+        /**
+         * Get the number of columns.
+         * @return          the width of the board
+         */
+        public int getWidth () {
+            return width;
+        }
+
+        /**
+         * Get the number of rows.
+         * @return          the height of the board
+         */
+        public int getHeight () {
+            return height;
+        }
+
+        /**
+         * Get the number of marks in a row needed to win.
+         * @return          K
+         */
+        public int getK () {
+            return k;
+        }
+
+        /**
+         * Check to see if the game was played to the end.
+         * @return          true if the game is over
+         */
+        public boolean isFinished () {
+            return getResult() != GameRecordWriter.UNFINISHED;
+        }
+
+        /**
+         * Get the winner of a finished game.
+         * @return          the winner (Blank for a draw or an unfinished game)
+         */
+        public Board.State getWinner () {
+            int result = getResult();
+            return (result == GameRecordWriter.X_WON) ? Board.State.X
+                    : (result == GameRecordWriter.O_WON) ? Board.State.O : Board.State.Blank;
+        }
+
+        /**
+         * Get how the game ended.
+         * @return          UNFINISHED, X_WON, O_WON or DRAW of GameRecordWriter
+         */
+        int getResult () {
+            return _buffer.get(offset + 3) & 0xFF;
+        }
+
+        /**
+         * Get the number the file gave the player who played X.
+         * @return          the index into getPlayers()
+         */
+        public int getXPlayerNumber () {
+            return _buffer.get(offset + 4) & 0xFF;
+        }
+
+        /**
+         * Get the number the file gave the player who played O.
+         * @return          the index into getPlayers()
+         */
+        public int getOPlayerNumber () {
+            return _buffer.get(offset + 5) & 0xFF;
+        }
+
+        /**
+         * Get the name of the player who played X.
+         * @return          the name
+         */
+        public String getXPlayer () {
+            return _players.get(getXPlayerNumber());
+        }
+
+        /**
+         * Get the name of the player who played O.
+         * @return          the name
+         */
+        public String getOPlayer () {
+            return _players.get(getOPlayerNumber());
+        }
+
+        /**
+         * Get the number of moves that were played.
+         * @return          the number of moves
+         */
+        public int getMoveCount () {
+            return moveCount;
+        }
+
+        /**
+         * Get a move that was played.
+         * @param ply       the number of the move, starting at 0 for the first move of the game
+         * @return          the position on the board
+         */
+        public int getMove (int ply) {
+            if (ply < 0 || ply >= moveCount) {
+                throw new IllegalArgumentException("Ply must be between 0 and " + (moveCount - 1) + ".");
+            }
+
+            // A move spans at most three bytes.
+            int bit = ply * bits;
+            int index = moves + (bit >>> 3);
+            int end = moves + (moveCount * bits + 7) / 8;
+            int packed = 0;
+            for (int i = 0; i < 3; i++) {
+                packed = (packed << 8) | ((index + i < end) ? _buffer.get(index + i) & 0xFF : 0);
+            }
+            return (packed >>> (24 - (bit & 7) - bits)) & ((1 << bits) - 1);
+        }
+
+        /**
+         * Play the game on a new board.
+         * @return          the board after the last move
+         */
+        public Board toBoard () {
+            Board board = new Board(width, height, k);
+            for (int i = 0; i < moveCount; i++) {
+                board.move(getMove(i));
+            }
+            return board;
+        }
+    }
+
+    /**
+     * Scan a game record file from the command line and count the results.
+     * Usage: GameRecordReader FILE
+     * @param args      the arguments
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: GameRecordReader FILE");
+            return;
+        }
+
+        long[] results = new long[4];
+        long[] moves = new long[1];
+        long start = System.nanoTime();
+
+        try (GameRecordReader reader = new GameRecordReader(new File(args[0]))) {
+            long games = reader.forEach(game -> {
+                results[game.getResult()]++;
+                moves[0] += game.getMoveCount();
+            });
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.printf("%,d games (%,d bytes) in %.2f s, %,.0f games/sec%n", games, reader.getSize(),
+                    seconds, games / seconds);
+            System.out.printf("X won %,d, O won %,d, draws %,d, unfinished %,d, %.2f moves per game%n",
+                    results[GameRecordWriter.X_WON], results[GameRecordWriter.O_WON],
+                    results[GameRecordWriter.DRAW], results[GameRecordWriter.UNFINISHED],
+                    (games > 0) ? (double) moves[0] / games : 0);
+            System.out.println("Players: " + reader._players);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package at.fhv.wd.tictactoe;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Appends finished (or abandoned) games to a file of game records. The file
+ * starts with an 8 byte header (MAGIC and VERSION), followed by entries:
+ * <pre>
+ * player  0, length, name (ASCII)         gives the next player number a name
+ * game    width, height, k, result, x player, o player, move count, moves
+ * </pre>
+ * All numbers are single bytes, except the move count which takes two bytes
+ * (big endian) on boards with more than 255 cells. The result is UNFINISHED,
+ * X_WON, O_WON or DRAW. The moves are packed back to back with just enough
+ * bits for the cells of the board (4 bits on 3x3, 6 bits on 7x6), the first
+ * move in the highest bits, and padded to a whole byte. A 3x3 game takes 7
+ * to 12 bytes.
+ *
+ * A player is named once per file, the first time it plays. Games are
+ * buffered, they are only safe on disk after flush() or close().
+ */
+public class GameRecordWriter implements Closeable {
+
+    static final int MAGIC = 0x54545447;      // "TTTG"
+    static final int VERSION = 1;
+    static final int HEADER = 8;
+
+    static final int UNFINISHED = 0;
+    static final int X_WON = 1;
+    static final int O_WON = 2;
+    static final int DRAW = 3;
+
+    /**
+     * The most players a file can name.
+     */
+    static final int MAX_PLAYERS = 255;
+
+    /**
+     * The widest and the highest board a record can hold.
+     */
+    static final int MAX_SIDE = 255;
+
+    /**
+     * The bytes of the largest entry: a game that fills a 255x255 board.
+     */
+    static final int MAX_ENTRY = 8 + (MAX_SIDE * MAX_SIDE * 16 + 7) / 8;
+
+    /**
+     * The system property that makes Console and Window record their games,
+     * like -Dtictactoe.records=games.ttt.
+     */
+    public static final String PROPERTY = "tictactoe.records";
+
+    private final DataOutputStream _out;
+    private final Map<String, Integer> _players = new HashMap<>();
+
+    /**
+     * Construct a GameRecordWriter.
+     * @param file      the file to write to
+     * @param append    true to add to the games already in the file, false to replace them
+     * @throws IOException  if the file cannot be opened or is not a game record file
+     */
+    public GameRecordWriter (File file, boolean append) throws IOException {
+        boolean existing = append && file.length() > 0;
+
+        if (existing) {
+            // Keep the numbers the file already gave its players.
+            try (GameRecordReader reader = new GameRecordReader(file)) {
+                List<String> players = reader.getPlayers();
+                for (int i = 0; i < players.size(); i++) {
+                    _players.put(players.get(i), i);
+                }
+            }
+        }
+
+        _out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, existing), 1 << 16));
+        if (!existing) {
+            _out.writeInt(MAGIC);
+            _out.writeInt(VERSION);
+        }
+    }
+
+    /**
+     * Open the file named by the PROPERTY system property for appending.
+     * @return          the writer (null if the property is not set)
+     * @throws IOException  if the file cannot be opened
+     */
+    public static GameRecordWriter fromProperty () throws IOException {
+        String path = System.getProperty(PROPERTY);
+        return (path != null) ? new GameRecordWriter(new File(path), true) : null;
+    }
+
+    /**
+     * Record the moves of a game. A game that is not over is recorded as
+     * unfinished. Safe to call from several threads.
+     * @param board     the game to record (not changed)
+     * @param xPlayer   the name of the player who played X, like "human" or "alphaBetaAdvanced:4"
+     * @param oPlayer   the name of the player who played O
+     * @throws IOException  if the file cannot be written
+     */
+    public synchronized void write (Board board, String xPlayer, String oPlayer) throws IOException {
+        if (board.getWidth() > MAX_SIDE || board.getHeight() > MAX_SIDE || board.getK() > MAX_SIDE) {
+            throw new IllegalArgumentException("Width, height and K must be at most " + MAX_SIDE + ".");
+        }
+
+        int x = getPlayer(xPlayer);
+        int o = getPlayer(oPlayer);
+
+        int result = UNFINISHED;
+        if (board.isGameOver()) {
+            result = (board.getWinner() == Board.State.X) ? X_WON
+                    : (board.getWinner() == Board.State.O) ? O_WON : DRAW;
+        }
+
+        _out.writeByte(board.getWidth());
+        _out.writeByte(board.getHeight());
+        _out.writeByte(board.getK());
+        _out.writeByte(result);
+        _out.writeByte(x);
+        _out.writeByte(o);
+
+        int cells = board.getCellCount();
+        if (cells > 255) {
+            _out.writeShort(board.getMoveCount());
+        } else {
+            _out.writeByte(board.getMoveCount());
+        }
+
+        int bits = getMoveBits(cells);
+        int pending = 0, pendingBits = 0;
+        for (int i = 0; i < board.getMoveCount(); i++) {
+            pending = (pending << bits) | board.getMove(i);
+            pendingBits += bits;
+            while (pendingBits >= 8) {
+                pendingBits -= 8;
+                _out.writeByte(pending >>> pendingBits);
+            }
+        }
+        if (pendingBits > 0) {
+            _out.writeByte(pending << (8 - pendingBits));
+        }
+    }
+
+    /**
+     * Get the number of a player, naming it in the file the first time.
+     * @param name      the name of the player
+     * @return          the number of the player
+     * @throws IOException  if the file cannot be written
+     */
+    private int getPlayer (String name) throws IOException {
+        Integer player = _players.get(name);
+        if (player != null) {
+            return player;
+        }
+
+        byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+        if (bytes.length > 255) {
+            throw new IllegalArgumentException("Player name must be at most 255 characters.");
+        }
+        if (_players.size() == MAX_PLAYERS) {
+            throw new IllegalStateException("A file can name at most " + MAX_PLAYERS + " players.");
+        }
+
+        _out.writeByte(0);
+        _out.writeByte(bytes.length);
+        _out.write(bytes);
+        _players.put(name, _players.size());
+        return _players.size() - 1;
+    }
+
+    /**
+     * Get the number of bits a move takes.
+     * @param cells     the number of cells of the board
+     * @return          the bits per move
+     */
+    static int getMoveBits (int cells) {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(cells - 1));
+    }
+
+    /**
+     * Write the buffered games to the file.
+     * @throws IOException  if the file cannot be written
+     */
+    public synchronized void flush () throws IOException {
+        _out.flush();
+    }
+
+    @Override
+    public synchronized void close () throws IOException {
+        _out.close();
+    }
+}
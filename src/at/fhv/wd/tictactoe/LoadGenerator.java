@@ -0,0 +1,396 @@
+package at.fhv.wd.tictactoe;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Opens many sessions on a local Server and keeps them open. Most of them sit
+ * idle after starting a game, a few play games against the engine as fast as
+ * they are answered. Reports how many sessions the server holds, the heap
+ * it uses for them and the latency of the commands.
+ */
+public class LoadGenerator {
+
+    /**
+     * The most connections waiting to be accepted at the same time.
+     */
+    private static final int MAX_CONNECTING = 256;
+
+    private final InetSocketAddress _address;
+    private final String _engine;
+    private final Selector _selector;
+    private final Random _random;
+    private final List<Client> _clients = new ArrayList<>();
+
+    private final Tournament.LatencyHistogram _moveLatency = new Tournament.LatencyHistogram();
+    private final Tournament.LatencyHistogram _aiLatency = new Tournament.LatencyHistogram();
+
+    private int _connecting;
+    private int _waiting;
+    private long _games;
+    private long _errors;
+
+    /**
+     * Construct a LoadGenerator.
+     * @param port      the port of the server on the loopback address
+     * @param engine    the engine the sessions play against
+     * @param seed      the seed of the moves the active sessions play
+     * @throws IOException  if the selector cannot be opened
+     */
+    public LoadGenerator (int port, String engine, long seed) throws IOException {
+        _address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        _engine = engine;
+        _selector = Selector.open();
+        _random = new Random(seed);
+    }
+
+    /**
+     * Open sessions until there are the given number, every one of them
+     * starting a game.
+     * @param sessions  the number of sessions
+     * @throws IOException  if a connection fails
+     */
+    public void open (int sessions) throws IOException {
+        while (_clients.size() < sessions || _waiting > 0) {
+            while (_clients.size() < sessions && _connecting < MAX_CONNECTING) {
+                SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+
+                Client client = new Client(channel);
+                _clients.add(client);
+                _connecting++;
+                _waiting++;
+
+                if (channel.connect(_address)) {
+                    client.connected();
+                } else {
+                    channel.register(_selector, SelectionKey.OP_CONNECT, client);
+                }
+            }
+            select(1000);
+        }
+    }
+
+    /**
+     * Play games on the first sessions for a while. The other sessions stay
+     * idle.
+     * @param active    the number of sessions that play
+     * @param seconds   how long to play
+     * @throws IOException  if a connection fails
+     */
+    public void play (int active, double seconds) throws IOException {
+        if (active > _clients.size()) {
+            throw new IllegalArgumentException("Number of active sessions must be at most " + _clients.size() + ".");
+        }
+
+        long end = System.nanoTime() + (long) (seconds * 1e9);
+        for (int i = 0; i < active; i++) {
+            _clients.get(i).playing = true;
+            _clients.get(i).next();
+        }
+
+        while (System.nanoTime() < end) {
+            select(100);
+        }
+
+        for (int i = 0; i < active; i++) {
+            _clients.get(i).playing = false;
+        }
+        while (_waiting > 0) {
+            select(1000);
+        }
+    }
+
+    /**
+     * Ask every session for its board, to make sure the server still holds
+     * all of them.
+     * @return          the number of sessions that answered
+     * @throws IOException  if a connection fails
+     */
+    public int check () throws IOException {
+        long errors = _errors;
+        for (Client client : _clients) {
+            client.send("STATE", null);
+        }
+        while (_waiting > 0) {
+            select(1000);
+        }
+        return _clients.size() - (int) (_errors - errors);
+    }
+
+    /**
+     * Close all sessions.
+     */
+    public void close () {
+        for (Client client : _clients) {
+            try {
+                client.channel.close();
+            } catch (IOException ex) {
+                // Closing anyway.
+            }
+        }
+        try {
+            _selector.close();
+        } catch (IOException ex) {
+            // Closing anyway.
+        }
+    }
+
+    /**
+     * Wait for the sessions and handle what they got.
+     * @param millis    how long to wait at most
+     * @throws IOException  if a connection fails
+     */
+    private void select (long millis) throws IOException {
+        _selector.select(millis);
+
+        Iterator<SelectionKey> keys = _selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+
+            Client client = (Client) key.attachment();
+            if (key.isConnectable()) {
+                client.channel.finishConnect();
+                client.connected();
+            } else if (key.isReadable()) {
+                client.read();
+            }
+        }
+    }
+
+    /**
+     * Ask the server for its sessions and heap.
+     * @return          the INFO line
+     * @throws IOException  if the server cannot be reached
+     */
+    public String info () throws IOException {
+        try (SocketChannel channel = SocketChannel.open(_address)) {
+            channel.write(ByteBuffer.wrap("INFO\nQUIT\n".getBytes(StandardCharsets.US_ASCII)));
+
+            ByteBuffer input = ByteBuffer.allocate(256);
+            while (input.position() == 0 || input.get(input.position() - 1) != '\n') {
+                if (channel.read(input) < 0) {
+                    break;
+                }
+            }
+            return new String(input.array(), 0, input.position(), StandardCharsets.US_ASCII).trim();
+        }
+    }
+
+    /**
+     * Get a number out of an INFO line.
+     * @param info      the INFO line
+     * @param name      the name of the number
+     * @return          the number
+     */
+    private static long getInfo (String info, String name) {
+        for (String field : info.split(" ")) {
+            if (field.startsWith(name + "=")) {
+                return Long.parseLong(field.substring(name.length() + 1));
+            }
+        }
+        throw new IllegalArgumentException("Not an INFO line: " + info);
+    }
+
+    /**
+     * One session. A playing session alternates between a random move and a
+     * move of the engine, and starts a new game when one is over.
+     */
+    private class Client {
+        private final SocketChannel channel;
+        private final ByteBuffer input = ByteBuffer.allocate(256);
+
+        private boolean playing;
+        private boolean engineToMove;
+        private String state;
+
+        /**
+         * The latencies of the command waiting for its reply (null if they
+         * are not counted).
+         */
+        private Tournament.LatencyHistogram latency;
+        private long sentAt;
+
+        /**
+         * Construct a Client.
+         * @param channel   the connection
+         */
+        private Client (SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Start a game once the connection is made.
+         * @throws IOException  if the connection fails
+         */
+        private void connected () throws IOException {
+            _connecting--;
+            channel.register(_selector, SelectionKey.OP_READ, this);
+            _waiting--;
+            send("NEW " + _engine, null);
+        }
+
+        /**
+         * Send a command. Commands are tiny, the socket always takes them.
+         * @param command   the command without the line break
+         * @param latency   the latencies to count the reply in (null for none)
+         * @throws IOException  if the connection fails
+         */
+        private void send (String command, Tournament.LatencyHistogram latency) throws IOException {
+            ByteBuffer output = ByteBuffer.wrap((command + "\n").getBytes(StandardCharsets.US_ASCII));
+            while (output.hasRemaining()) {
+                channel.write(output);
+            }
+            this.latency = latency;
+            sentAt = System.nanoTime();
+            _waiting++;
+        }
+
+        /**
+         * Read the replies and answer them if the session is playing.
+         * @throws IOException  if the connection fails
+         */
+        private void read () throws IOException {
+            if (channel.read(input) < 0) {
+                throw new IOException("Server closed a session.");
+            }
+
+            for (int end = indexOf('\n'); end >= 0; end = indexOf('\n')) {
+                String line = new String(input.array(), 0, end, StandardCharsets.US_ASCII);
+                input.flip();
+                input.position(end + 1);
+                input.compact();
+
+                _waiting--;
+                if (latency != null) {
+                    latency.record(System.nanoTime() - sentAt);
+                    latency = null;
+                }
+
+                if (line.startsWith("ERR")) {
+                    _errors++;
+                    continue;
+                }
+
+                state = line;
+                if (playing) {
+                    next();
+                }
+            }
+        }
+
+        /**
+         * Play the next command of the game.
+         * @throws IOException  if the connection fails
+         */
+        private void next () throws IOException {
+            String[] words = state.split(" ");
+            if (!words[3].equals("-") || words[2].equals("-")) {
+                _games++;
+                engineToMove = false;
+                send("NEW " + _engine, null);
+            } else if (engineToMove) {
+                engineToMove = false;
+                send("AI", _aiLatency);
+            } else {
+                int free = 0;
+                for (int i = 0; i < words[1].length(); i++) {
+                    free += (words[1].charAt(i) == '.') ? 1 : 0;
+                }
+
+                int move = _random.nextInt(free);
+                for (int i = 0; i < words[1].length(); i++) {
+                    if (words[1].charAt(i) == '.' && move-- == 0) {
+                        engineToMove = true;
+                        send("MOVE " + i, _moveLatency);
+                        break;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Find a byte in the input read so far.
+         * @param b         the byte
+         * @return          the index (-1 if not found)
+         */
+        private int indexOf (char b) {
+            for (int i = 0; i < input.position(); i++) {
+                if (input.get(i) == b) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Put load on a local server from the command line.
+     * Usage: LoadGenerator [SESSIONS] [ACTIVE] [SECONDS] [--port P] [--engine NAME] [--seed S]
+     * @param args      the arguments
+     */
+    public static void main(String[] args) throws IOException {
+        List<String> positional = new ArrayList<>();
+        int port = Server.DEFAULT_PORT;
+        String engine = "alphaBetaAdvanced";
+        long seed = 0;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--port") && i + 1 < args.length) {
+                port = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--engine") && i + 1 < args.length) {
+                engine = args[++i];
+            } else if (args[i].equals("--seed") && i + 1 < args.length) {
+                seed = Long.parseLong(args[++i]);
+            } else {
+                positional.add(args[i]);
+            }
+        }
+
+        int sessions = (positional.size() > 0) ? Integer.parseInt(positional.get(0)) : 10000;
+        int active = (positional.size() > 1) ? Integer.parseInt(positional.get(1)) : 16;
+        double seconds = (positional.size() > 2) ? Double.parseDouble(positional.get(2)) : 10;
+
+        LoadGenerator generator = new LoadGenerator(port, engine, seed);
+        try {
+            long before = getInfo(generator.info(), "heap");
+            long start = System.nanoTime();
+            generator.open(sessions);
+            double connectSeconds = (System.nanoTime() - start) / 1e9;
+
+            String info = generator.info();
+            long heap = getInfo(info, "heap");
+            System.out.printf("%,d sessions open in %.2f s (%,.0f/sec), server: %s%n", sessions, connectSeconds,
+                    sessions / connectSeconds, info);
+            System.out.printf("Heap grew by %,d bytes, about %,d bytes per session (without a GC, so an upper "
+                    + "bound)%n", heap - before, (heap - before) / sessions);
+
+            start = System.nanoTime();
+            generator.play(active, seconds);
+            double playSeconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%d active sessions: %,d games, %,.1f games/sec, %d errors%n", active,
+                    generator._games, generator._games / playSeconds, generator._errors);
+            System.out.printf("%-6s %,10d commands  %s%n", "MOVE", generator._moveLatency.getCount(),
+                    generator._moveLatency);
+            System.out.printf("%-6s %,10d commands  %s%n", "AI", generator._aiLatency.getCount(),
+                    generator._aiLatency);
+
+            System.out.printf("%,d of %,d sessions still answer, server: %s%n", generator.check(), sessions,
+                    generator.info());
+        } finally {
+            generator.close();
+        }
+    }
+}
@@ -0,0 +1,442 @@
+package at.fhv.wd.tictactoe;
+
+import at.fhv.wd.logic.AlphaBetaAdvanced;
+import at.fhv.wd.logic.AlphaBetaPruning;
+import at.fhv.wd.logic.HeapTranspositionTable;
+import at.fhv.wd.logic.MinMax;
+import at.fhv.wd.logic.PerfectPlay;
+import at.fhv.wd.logic.PrincipalVariationSearch;
+import at.fhv.wd.logic.SearchEngine;
+import at.fhv.wd.logic.TranspositionTable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Replays recorded games and scores every move with an engine, to find out
+ * where the players gave away value. A move loses the difference between
+ * the score of the position before it and the score after it, both for the
+ * player who moved. A blunder is a move that turns a won game into a draw or
+ * a loss, or a drawn game into a loss.
+ *
+ * The reader hands the games out in batches to a pool of threads. Only a
+ * few batches are on their way at a time, so the memory stays the same
+ * however many games the file holds.
+ */
+public class ReplayAnalysis {
+
+    /**
+     * The games per batch.
+     */
+    private static final int BATCH = 256;
+
+    /**
+     * A won position. Scores beyond it only tell how far away the win is,
+     * which does not count as a loss of value.
+     */
+    private static final int WIN = Board.MAX_EVALUATION + 1;
+
+    private final SearchEngine _engine;
+
+    /**
+     * Construct a ReplayAnalysis.
+     * @param engine    the engine to score the positions with, searched from several threads at once
+     */
+    public ReplayAnalysis (SearchEngine engine) {
+        _engine = engine;
+    }
+
+    /**
+     * Get an engine that scores positions by name. Engines that search to a
+     * depth limit can only tell wins and losses apart within it.
+     * @param name      alphaBetaAdvanced, principalVariationSearch, alphaBetaPruning, minMax or perfectPlay,
+     *                  optionally followed by ":" and a depth limit
+     * @return          the engine
+     */
+    public static SearchEngine getEngine (String name) {
+        int colon = name.indexOf(':');
+        String base = (colon < 0) ? name : name.substring(0, colon);
+        int ply = (colon < 0) ? 0 : Integer.parseInt(name.substring(colon + 1));
+
+        switch (base) {
+            case "alphaBetaAdvanced":
+                AlphaBetaAdvanced alphaBetaAdvanced =
+                        new AlphaBetaAdvanced(new HeapTranspositionTable(TranspositionTable.DEFAULT_SIZE), true);
+                return (ply > 0) ? alphaBetaAdvanced.withMaxPly(ply) : alphaBetaAdvanced;
+            case "principalVariationSearch":
+                PrincipalVariationSearch principalVariationSearch =
+                        new PrincipalVariationSearch(new HeapTranspositionTable(TranspositionTable.DEFAULT_SIZE), true);
+                return (ply > 0) ? principalVariationSearch.withMaxPly(ply) : principalVariationSearch;
+            case "alphaBetaPruning":
+                AlphaBetaPruning alphaBetaPruning =
+                        new AlphaBetaPruning(new HeapTranspositionTable(TranspositionTable.DEFAULT_SIZE), true);
+                return (ply > 0) ? alphaBetaPruning.withMaxPly(ply) : alphaBetaPruning;
+            case "minMax":
+                return (ply > 0) ? new MinMax(ply) : new MinMax();
+            case "perfectPlay":
+                return new PerfectPlay();
+            default:
+                throw new IllegalArgumentException("Engine cannot score positions: " + name + ". Engines: "
+                        + "[alphaBetaAdvanced, principalVariationSearch, alphaBetaPruning, minMax, perfectPlay]");
+        }
+    }
+
+    /**
+     * Score every move of every game in a file.
+     * @param reader    the games
+     * @param threads   the number of threads to score on
+     * @return          the statistics of every player
+     * @throws IOException          if the file is damaged
+     * @throws InterruptedException if the thread is interrupted while waiting for the threads
+     */
+    public Result run (GameRecordReader reader, int threads) throws IOException, InterruptedException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be greater than 0.");
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Semaphore inFlight = new Semaphore(2 * threads);
+        Result total = new Result();
+        Batch[] batch = {new Batch()};
+        long start = System.nanoTime();
+
+        try {
+            reader.forEach(game -> {
+                batch[0].add(game);
+                if (batch[0].games == BATCH) {
+                    submit(executor, inFlight, batch[0], total);
+                    batch[0] = new Batch();
+                }
+            });
+            submit(executor, inFlight, batch[0], total);
+
+            // Wait for every batch to be done.
+            inFlight.acquire(2 * threads);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        total.players = reader.getPlayers();
+        total.elapsedNanos = System.nanoTime() - start;
+        if (total.failure != null) {
+            throw new RuntimeException("A game could not be analysed.", total.failure);
+        }
+        return total;
+    }
+
+    /**
+     * Hand a batch to the threads, waiting while too many are on their way.
+     * @param executor  the threads
+     * @param inFlight  the batches that may still be handed out
+     * @param batch     the batch
+     * @param total     the statistics to add the batch to
+     */
+    private void submit (ExecutorService executor, Semaphore inFlight, Batch batch, Result total) {
+        inFlight.acquireUninterruptibly();
+        executor.execute(() -> {
+            try {
+                Result result = analyse(batch);
+                synchronized (total) {
+                    total.add(result);
+                }
+            } catch (RuntimeException ex) {
+                synchronized (total) {
+                    total.failure = ex;
+                }
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    /**
+     * Replay and score the games of a batch.
+     * @param batch     the games
+     * @return          the statistics of the batch
+     */
+    private Result analyse (Batch batch) {
+        Result result = new Result();
+        Board board = null;
+
+        for (int game = 0, i = 0; game < batch.games; game++) {
+            int width = batch.data[i++], height = batch.data[i++], k = batch.data[i++];
+            int[] players = {batch.data[i++], batch.data[i++]};
+            int moveCount = batch.data[i++];
+
+            if (board != null && board.getWidth() == width && board.getHeight() == height && board.getK() == k) {
+                board.reset();
+            } else {
+                board = new Board(width, height, k);
+            }
+
+            int before = score(board, result);
+            for (int ply = 0; ply < moveCount; ply++) {
+                board.move(batch.data[i++]);
+                int after = -score(board, result);
+                int loss = Math.max(0, before - after);
+
+                result.count(players[ply & 1], ply, loss, getOutcome(after) < getOutcome(before));
+                before = -after;
+            }
+            result.games++;
+        }
+
+        return result;
+    }
+
+    /**
+     * Score a position for the player to move.
+     * @param board     the position
+     * @param result    the statistics to count the search in
+     * @return          the score, between -WIN and WIN
+     */
+    private int score (Board board, Result result) {
+        if (board.isGameOver()) {
+            // The player who moved last either won or drew.
+            return (board.getWinner() == Board.State.Blank) ? 0 : -WIN;
+        }
+
+        result.positions++;
+        return Math.max(-WIN, Math.min(WIN, _engine.search(board).getScore()));
+    }
+
+    /**
+     * Get the outcome a score stands for.
+     * @param score     the score
+     * @return          1 for a win, -1 for a loss, 0 for a draw or a position the engine cannot decide
+     */
+    private static int getOutcome (int score) {
+        return (score >= WIN) ? 1 : (score <= -WIN) ? -1 : 0;
+    }
+
+    /**
+     * Games copied out of the file, so the reader can move on while they are
+     * scored. Every game is stored as width, height, k, X player, O player,
+     * move count and the moves.
+     */
+    private static class Batch {
+        private int[] data = new int[BATCH * 16];
+        private int length;
+        private int games;
+
+        /**
+         * Copy a game into the batch.
+         * @param game      the game
+         */
+        private void add (GameRecordReader.Game game) {
+            int size = 6 + game.getMoveCount();
+            if (length + size > data.length) {
+                data = Arrays.copyOf(data, Math.max(2 * data.length, length + size));
+            }
+
+            data[length++] = game.getWidth();
+            data[length++] = game.getHeight();
+            data[length++] = game.getK();
+            data[length++] = game.getXPlayerNumber();
+            data[length++] = game.getOPlayerNumber();
+            data[length++] = game.getMoveCount();
+            for (int i = 0; i < game.getMoveCount(); i++) {
+                data[length++] = game.getMove(i);
+            }
+            games++;
+        }
+    }
+
+    /**
+     * The moves, blunders and lost value of every player, and of every move
+     * number.
+     */
+    public static class Result {
+        private long games;
+        private long positions;
+        private long elapsedNanos;
+        private List<String> players = new ArrayList<>();
+        private RuntimeException failure;
+
+        private final long[] moves = new long[GameRecordWriter.MAX_PLAYERS];
+        private final long[] blunders = new long[GameRecordWriter.MAX_PLAYERS];
+        private final long[] loss = new long[GameRecordWriter.MAX_PLAYERS];
+
+        private long[] plyMoves = new long[16];
+        private long[] plyBlunders = new long[16];
+
+        /**
+         * Count a move.
+         * @param player    the number of the player who moved
+         * @param ply       the number of the move
+         * @param loss      the value the move gave away
+         * @param blunder   true if the move changed the outcome of the game
+         */
+        private void count (int player, int ply, int loss, boolean blunder) {
+            if (ply >= plyMoves.length) {
+                plyMoves = Arrays.copyOf(plyMoves, Math.max(2 * plyMoves.length, ply + 1));
+                plyBlunders = Arrays.copyOf(plyBlunders, plyMoves.length);
+            }
+
+            moves[player]++;
+            this.loss[player] += loss;
+            plyMoves[ply]++;
+            if (blunder) {
+                blunders[player]++;
+                plyBlunders[ply]++;
+            }
+        }
+
+        /**
+         * Add the statistics of another batch.
+         * @param other     the statistics to add
+         */
+        private void add (Result other) {
+            games += other.games;
+            positions += other.positions;
+            for (int i = 0; i < moves.length; i++) {
+                moves[i] += other.moves[i];
+                blunders[i] += other.blunders[i];
+                loss[i] += other.loss[i];
+            }
+
+            if (other.plyMoves.length > plyMoves.length) {
+                plyMoves = Arrays.copyOf(plyMoves, other.plyMoves.length);
+                plyBlunders = Arrays.copyOf(plyBlunders, other.plyMoves.length);
+            }
+            for (int i = 0; i < other.plyMoves.length; i++) {
+                plyMoves[i] += other.plyMoves[i];
+                plyBlunders[i] += other.plyBlunders[i];
+            }
+        }
+
+        /**
+         * Get the number of games that were replayed.
+         * @return          the number of games
+         */
+        public long getGames () {
+            return games;
+        }
+
+        /**
+         * Get the number of positions the engine scored.
+         * @return          the number of positions
+         */
+        public long getPositions () {
+            return positions;
+        }
+
+        /**
+         * Get the number of positions scored per second.
+         * @return          the positions per second
+         */
+        public double getPositionsPerSecond () {
+            return positions * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * Get the names of the players, the index being the number of the player.
+         * @return          the names
+         */
+        public List<String> getPlayers () {
+            return players;
+        }
+
+        /**
+         * Get the number of moves a player played.
+         * @param player    the number of the player
+         * @return          the number of moves
+         */
+        public long getMoves (int player) {
+            return moves[player];
+        }
+
+        /**
+         * Get the number of moves of a player that changed the outcome of the game.
+         * @param player    the number of the player
+         * @return          the number of blunders
+         */
+        public long getBlunders (int player) {
+            return blunders[player];
+        }
+
+        /**
+         * Get the value a player gave away per move on average. Won positions
+         * count as Board.MAX_EVALUATION + 1.
+         * @param player    the number of the player
+         * @return          the average loss
+         */
+        public double getAverageLoss (int player) {
+            return (moves[player] > 0) ? (double) loss[player] / moves[player] : 0;
+        }
+
+        /**
+         * Get the number of moves played with a move number.
+         * @param ply       the number of the move, starting at 0
+         * @return          the number of moves
+         */
+        public long getPlyMoves (int ply) {
+            return (ply < plyMoves.length) ? plyMoves[ply] : 0;
+        }
+
+        /**
+         * Get the number of blunders played with a move number.
+         * @param ply       the number of the move, starting at 0
+         * @return          the number of blunders
+         */
+        public long getPlyBlunders (int ply) {
+            return (ply < plyBlunders.length) ? plyBlunders[ply] : 0;
+        }
+
+        /**
+         * Get the highest move number plus one.
+         * @return          the number of move numbers
+         */
+        public int getPlies () {
+            int plies = plyMoves.length;
+            while (plies > 0 && plyMoves[plies - 1] == 0) {
+                plies--;
+            }
+            return plies;
+        }
+    }
+
+    /**
+     * Analyse a game record file from the command line.
+     * Usage: ReplayAnalysis FILE [ENGINE] [THREADS]
+     * @param args      the arguments
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.out.println("Usage: ReplayAnalysis FILE [ENGINE] [THREADS]");
+            System.out.println("Engines: alphaBetaAdvanced, principalVariationSearch, alphaBetaPruning, minMax "
+                    + "(NAME:DEPTH to limit the depth), perfectPlay");
+            return;
+        }
+
+        SearchEngine engine = getEngine((args.length > 1) ? args[1] : "alphaBetaAdvanced");
+        int threads = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        Result result;
+        try (GameRecordReader reader = new GameRecordReader(new File(args[0]))) {
+            result = new ReplayAnalysis(engine).run(reader, threads);
+        }
+
+        System.out.printf("%,d games, %,d positions, %,.0f positions/sec%n", result.getGames(),
+                result.getPositions(), result.getPositionsPerSecond());
+        System.out.printf("%-24s %12s %12s %8s %14s%n", "player", "moves", "blunders", "rate", "loss/move");
+        for (int i = 0; i < result.getPlayers().size(); i++) {
+            System.out.printf("%-24s %,12d %,12d %7.2f%% %,14.1f%n", result.getPlayers().get(i),
+                    result.getMoves(i), result.getBlunders(i),
+                    100.0 * result.getBlunders(i) / Math.max(1, result.getMoves(i)), result.getAverageLoss(i));
+        }
+
+        System.out.printf("%-6s %12s %12s %8s%n", "move", "moves", "blunders", "rate");
+        for (int ply = 0; ply < result.getPlies(); ply++) {
+            System.out.printf("%-6d %,12d %,12d %7.2f%%%n", ply + 1, result.getPlyMoves(ply),
+                    result.getPlyBlunders(ply),
+                    100.0 * result.getPlyBlunders(ply) / Math.max(1, result.getPlyMoves(ply)));
+        }
+    }
+}
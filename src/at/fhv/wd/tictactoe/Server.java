@@ -0,0 +1,623 @@
+package at.fhv.wd.tictactoe;
+
+import at.fhv.wd.logic.Algorithms;
+import at.fhv.wd.logic.SearchMonitor;
+import at.fhv.wd.logic.SearchStats;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Serves games over a local TCP port. Every connection is a session with its
+ * own board and engine, speaking one command per line:
+ * <pre>
+ * NEW [WxHxK] [ENGINE]   start a game (3x3x3 and iterativeDeepening by default)
+ * MOVE INDEX             play a move for the player to move
+ * AI                     let the engine play a move for the player to move
+ * STATE                  show the board
+ * INFO                   show the number of sessions and the heap in use
+ * QUIT                   close the session
+ * </pre>
+ * Every command is answered by one line: "STATE CELLS TURN WINNER" (like
+ * "STATE X...O.... X -", the turn and the winner being "-" if there is none
+ * and the winner "D" for a draw), "INFO ...", or "ERR MESSAGE".
+ *
+ * One thread waits for all connections at once, so an idle session costs a
+ * socket and a small buffer rather than a thread. The engines search on a
+ * pool of worker threads. A session runs no further commands while its
+ * engine is searching, so commands can be sent ahead and are answered in
+ * order. It keeps reading while there is room in its buffer, so a session
+ * that disconnects during a search is noticed.
+ *
+ * A search is stopped after MAX_SEARCH_MILLIS or when its session closes,
+ * so no session can keep a worker busy for good. The engines that can be
+ * stopped are minMax, alphaBetaAdvanced and iterativeDeepening (with an
+ * optional budget like iterativeDeepening:500). The other engines of
+ * Tournament cannot be stopped and only play on boards of up to
+ * MAX_UNSTOPPABLE_CELLS cells.
+ */
+public class Server implements Runnable {
+
+    public static final int DEFAULT_PORT = 4000;
+
+    /**
+     * The longest command, longer ones close the session.
+     */
+    private static final int MAX_LINE = 64;
+
+    /**
+     * The most cells a session may ask for, so one session cannot take all
+     * the memory.
+     */
+    private static final int MAX_CELLS = 32 * 32;
+
+    private static final String DEFAULT_ENGINE = "iterativeDeepening";
+
+    /**
+     * The time budget of iterativeDeepening if the name gives none.
+     */
+    private static final long DEFAULT_BUDGET_MILLIS = 1000;
+
+    /**
+     * The longest a search may run before it is stopped.
+     */
+    private static final long MAX_SEARCH_MILLIS = 10_000;
+
+    /**
+     * The most cells an engine that cannot be stopped may play on.
+     */
+    private static final int MAX_UNSTOPPABLE_CELLS = 9;
+
+    private final ServerSocketChannel _channel;
+    private final Selector _selector;
+    private final ExecutorService _workers;
+    private final ScheduledExecutorService _timer;
+    private final int _maxSessions;
+
+    /**
+     * Work handed back from the workers, run on the selector thread.
+     */
+    private final Queue<Runnable> _tasks = new ConcurrentLinkedQueue<>();
+
+    private volatile int _sessions;
+    private volatile boolean _closed;
+
+    /**
+     * Construct a Server listening on the loopback address.
+     * @param port          the port to listen on (0 for any free port)
+     * @param threads       the number of engines searching at the same time
+     * @param maxSessions   the most sessions open at the same time
+     * @throws IOException  if the port cannot be opened
+     */
+    public Server (int port, int threads, int maxSessions) throws IOException {
+        if (threads < 1 || maxSessions < 1) {
+            throw new IllegalArgumentException("Number of threads and sessions must be greater than 0.");
+        }
+
+        _maxSessions = maxSessions;
+        _selector = Selector.open();
+        _channel = ServerSocketChannel.open();
+        _channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 4096);
+        _channel.configureBlocking(false);
+        _channel.register(_selector, SelectionKey.OP_ACCEPT);
+
+        _workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "server-engine");
+            thread.setDaemon(true);
+            return thread;
+        });
+        _timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "server-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Get the port the server listens on.
+     * @return          the port
+     */
+    public int getPort () {
+        return _channel.socket().getLocalPort();
+    }
+
+    /**
+     * Get the number of open sessions.
+     * @return          the number of sessions
+     */
+    public int getSessions () {
+        return _sessions;
+    }
+
+    /**
+     * Serve sessions until close() is called.
+     */
+    @Override
+    public void run () {
+        try {
+            while (!_closed) {
+                _selector.select();
+
+                for (Runnable task = _tasks.poll(); task != null; task = _tasks.poll()) {
+                    task.run();
+                }
+
+                Iterator<SelectionKey> keys = _selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+
+                    Session session = (Session) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            session.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            session.flush();
+                        }
+                    } catch (IOException ex) {
+                        session.close();
+                    } catch (RuntimeException ex) {
+                        session.fail(ex);
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            if (!_closed) {
+                throw new RuntimeException("Server stopped.", ex);
+            }
+        } finally {
+            shutdown();
+        }
+    }
+
+    /**
+     * Stop serving. Open sessions are closed once run() notices.
+     */
+    public void close () {
+        _closed = true;
+        _selector.wakeup();
+    }
+
+    /**
+     * Close the sessions, the port and the workers.
+     */
+    private void shutdown () {
+        _workers.shutdownNow();
+        _timer.shutdownNow();
+        for (SelectionKey key : _selector.keys()) {
+            try {
+                key.channel().close();
+            } catch (IOException ex) {
+                // Closing anyway.
+            }
+        }
+        try {
+            _selector.close();
+        } catch (IOException ex) {
+            // Closing anyway.
+        }
+    }
+
+    /**
+     * Look up an engine a session may play with. Engines that cannot be
+     * stopped are only allowed on small boards.
+     * @param name      the name of the engine
+     * @param cells     the number of cells of the board
+     * @return          the engine, searching with a monitor that can stop it
+     */
+    private static BiFunction<Board, SearchMonitor, SearchStats> getEngine (String name, int cells) {
+        switch (name) {
+            case "minMax":
+                return Algorithms::minMax;
+            case "alphaBetaAdvanced":
+                return Algorithms::alphaBetaAdvanced;
+            case "iterativeDeepening":
+                return (board, monitor) -> Algorithms.iterativeDeepening(board, DEFAULT_BUDGET_MILLIS, monitor);
+            default:
+                break;
+        }
+
+        if (name.startsWith("iterativeDeepening:")) {
+            long budget = Long.parseLong(name.substring(name.indexOf(':') + 1));
+            if (budget < 1 || budget > MAX_SEARCH_MILLIS) {
+                throw new IllegalArgumentException("Budget must be between 1 and " + MAX_SEARCH_MILLIS + " ms.");
+            }
+            return (board, monitor) -> Algorithms.iterativeDeepening(board, budget, monitor);
+        }
+
+        if (cells > MAX_UNSTOPPABLE_CELLS) {
+            throw new IllegalArgumentException("Engine cannot be stopped, it only plays on boards of at most "
+                    + MAX_UNSTOPPABLE_CELLS + " cells: " + name);
+        }
+        Function<Board, SearchStats> engine = Tournament.getEngine(name);
+        return (board, monitor) -> engine.apply(board);
+    }
+
+    /**
+     * Accept all waiting connections.
+     * @throws IOException  if the port fails
+     */
+    private void accept () throws IOException {
+        for (SocketChannel channel = _channel.accept(); channel != null; channel = _channel.accept()) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+
+            Session session = new Session(channel);
+            session.key = channel.register(_selector, SelectionKey.OP_READ, session);
+            _sessions++;
+
+            if (_sessions > _maxSessions) {
+                session.reply("ERR Too many sessions.");
+                session.closing = true;
+                session.updateInterest();
+            }
+        }
+    }
+
+    /**
+     * A connection and its game. Only touched by the selector thread, except
+     * for the board while the engine searches on a worker.
+     */
+    private class Session {
+        private final SocketChannel channel;
+        private SelectionKey key;
+
+        private final ByteBuffer input = ByteBuffer.allocate(MAX_LINE);
+
+        /**
+         * The part of the replies the socket did not take yet (null if none).
+         */
+        private ByteBuffer output;
+
+        private Board board;
+        private BiFunction<Board, SearchMonitor, SearchStats> engine;
+
+        /**
+         * The monitor of the running search (null if the engine is not searching).
+         */
+        private SearchMonitor monitor;
+
+        private boolean searching;
+        private boolean closing;
+
+        /**
+         * Construct a Session. The game is created by the first command.
+         * @param channel   the connection
+         */
+        private Session (SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Read what the socket has and run the complete commands.
+         * @throws IOException  if the connection fails
+         */
+        private void read () throws IOException {
+            if (channel.read(input) < 0) {
+                close();
+                return;
+            }
+            process();
+        }
+
+        /**
+         * Run the complete commands in the input until the engine is asked to
+         * search.
+         */
+        private void process () {
+            while (!searching && !closing) {
+                int end = -1;
+                for (int i = 0; i < input.position(); i++) {
+                    if (input.get(i) == '\n') {
+                        end = i;
+                        break;
+                    }
+                }
+
+                if (end < 0) {
+                    if (!input.hasRemaining()) {
+                        reply("ERR Command must be at most " + MAX_LINE + " characters.");
+                        closing = true;
+                    }
+                    break;
+                }
+
+                String line = new String(input.array(), 0, end, StandardCharsets.US_ASCII).trim();
+                input.flip();
+                input.position(end + 1);
+                input.compact();
+
+                if (!line.isEmpty()) {
+                    execute(line);
+                }
+            }
+            updateInterest();
+        }
+
+        /**
+         * Run a command.
+         * @param line      the command
+         */
+        private void execute (String line) {
+            String[] words = line.split("\\s+");
+            try {
+                switch (words[0].toUpperCase()) {
+                    case "NEW":
+                        newGame(words);
+                        reply(getState());
+                        break;
+                    case "MOVE":
+                        if (words.length != 2) {
+                            throw new IllegalArgumentException("Usage: MOVE INDEX");
+                        }
+                        if (!getBoard().move(Integer.parseInt(words[1]))) {
+                            throw new IllegalArgumentException("Cell is taken.");
+                        }
+                        reply(getState());
+                        break;
+                    case "AI":
+                        search();
+                        break;
+                    case "STATE":
+                        reply(getState());
+                        break;
+                    case "INFO":
+                        Runtime runtime = Runtime.getRuntime();
+                        reply("INFO sessions=" + _sessions + " heap=" + (runtime.totalMemory() - runtime.freeMemory()));
+                        break;
+                    case "QUIT":
+                        closing = true;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown command: " + words[0]);
+                }
+            } catch (IllegalArgumentException | IllegalStateException ex) {
+                reply("ERR " + ex.getMessage());
+            }
+        }
+
+        /**
+         * Start a game.
+         * @param words     the command and its arguments
+         */
+        private void newGame (String[] words) {
+            int width = Board.BOARD_WIDTH, height = Board.BOARD_HIGHT, k = Board.BOARD_K;
+            String name = DEFAULT_ENGINE;
+
+            for (int i = 1; i < words.length; i++) {
+                String[] layout = words[i].split("x");
+                if (layout.length == 3 && Character.isDigit(words[i].charAt(0))) {
+                    width = Integer.parseInt(layout[0]);
+                    height = Integer.parseInt(layout[1]);
+                    k = Integer.parseInt(layout[2]);
+                } else {
+                    name = words[i];
+                }
+            }
+
+            // Checked one side at a time, the product of two large sides overflows.
+            if (width < 1 || height < 1 || width > MAX_CELLS || height > MAX_CELLS || width * height > MAX_CELLS) {
+                throw new IllegalArgumentException("Board must have at most " + MAX_CELLS + " cells.");
+            }
+
+            BiFunction<Board, SearchMonitor, SearchStats> engine = getEngine(name, width * height);
+            board = (board != null && board.getWidth() == width && board.getHeight() == height
+                    && board.getK() == k) ? board : new Board(width, height, k);
+            board.reset();
+            this.engine = engine;
+        }
+
+        /**
+         * Get the board, starting the default game if there is none.
+         * @return          the board
+         */
+        private Board getBoard () {
+            if (board == null) {
+                newGame(new String[] {"NEW"});
+            }
+            return board;
+        }
+
+        /**
+         * Let the engine move on a worker. The reply and the rest of the
+         * commands wait on the selector thread until it is done. The search
+         * is stopped after MAX_SEARCH_MILLIS.
+         */
+        private void search () {
+            Board board = getBoard();
+            if (board.isGameOver()) {
+                throw new IllegalStateException("TicTacToe is over. No moves can be played.");
+            }
+
+            BiFunction<Board, SearchMonitor, SearchStats> engine = this.engine;
+            SearchMonitor monitor = new SearchMonitor();
+            ScheduledFuture<?> timeout = _timer.schedule(monitor::cancel, MAX_SEARCH_MILLIS, TimeUnit.MILLISECONDS);
+            this.monitor = monitor;
+            searching = true;
+
+            _workers.execute(() -> {
+                String reply;
+                try {
+                    int moves = board.getMoveCount();
+                    engine.apply(board, monitor);
+                    reply = (board.getMoveCount() > moves) ? getState()
+                            : "ERR Search was stopped after " + MAX_SEARCH_MILLIS + " ms.";
+                } catch (RuntimeException ex) {
+                    reply = "ERR " + ex.getMessage();
+                } finally {
+                    timeout.cancel(false);
+                }
+
+                String result = reply;
+                _tasks.add(() -> {
+                    searching = false;
+                    this.monitor = null;
+                    if (key.isValid()) {
+                        try {
+                            reply(result);
+                            process();
+                        } catch (RuntimeException ex) {
+                            fail(ex);
+                        }
+                    }
+                });
+                _selector.wakeup();
+            });
+        }
+
+        /**
+         * Describe the board in one line.
+         * @return          the state line
+         */
+        private String getState () {
+            Board board = getBoard();
+            StringBuilder state = new StringBuilder(board.getCellCount() + 16).append("STATE ");
+
+            for (int i = 0; i < board.getCellCount(); i++) {
+                Board.State cell = board.getState(i);
+                state.append((cell == Board.State.Blank) ? '.' : cell.name().charAt(0));
+            }
+
+            if (!board.isGameOver()) {
+                state.append(' ').append(board.getTurn()).append(" -");
+            } else if (board.getWinner() == Board.State.Blank) {
+                state.append(" - D");
+            } else {
+                state.append(" - ").append(board.getWinner());
+            }
+            return state.toString();
+        }
+
+        /**
+         * Send a line, keeping what the socket does not take for later.
+         * @param line      the line without the line break
+         */
+        private void reply (String line) {
+            byte[] bytes = (line + "\n").getBytes(StandardCharsets.US_ASCII);
+
+            if (output != null) {
+                ByteBuffer joined = ByteBuffer.allocate(output.remaining() + bytes.length);
+                joined.put(output).put(bytes).flip();
+                output = joined;
+                return;
+            }
+
+            output = ByteBuffer.wrap(bytes);
+            try {
+                flush();
+            } catch (IOException ex) {
+                close();
+            }
+        }
+
+        /**
+         * Write as much of the waiting output as the socket takes.
+         * @throws IOException  if the connection fails
+         */
+        private void flush () throws IOException {
+            if (output != null) {
+                channel.write(output);
+                if (!output.hasRemaining()) {
+                    output = null;
+                }
+            }
+
+            if (output == null && closing) {
+                close();
+            } else {
+                updateInterest();
+            }
+        }
+
+        /**
+         * Listen for input unless the session is closing or the engine is
+         * searching with a full buffer, and for the socket to take more
+         * output if some is waiting.
+         */
+        private void updateInterest () {
+            if (!key.isValid()) {
+                return;
+            }
+            if (closing && output == null) {
+                close();
+                return;
+            }
+            boolean reading = !closing && (!searching || input.hasRemaining());
+            key.interestOps((reading ? SelectionKey.OP_READ : 0)
+                    | ((output != null) ? SelectionKey.OP_WRITE : 0));
+        }
+
+        /**
+         * Give up on a session after an error nobody expected, so it cannot
+         * stop the other sessions.
+         * @param ex        the error
+         */
+        private void fail (RuntimeException ex) {
+            reply("ERR " + ex);
+            close();
+        }
+
+        /**
+         * Close the connection. A search that is still running is stopped
+         * and its reply dropped.
+         */
+        private void close () {
+            if (monitor != null) {
+                monitor.cancel();
+            }
+            if (!key.isValid()) {
+                return;
+            }
+            key.cancel();
+            _sessions--;
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                // Closing anyway.
+            }
+        }
+    }
+
+    /**
+     * Run a server from the command line.
+     * Usage: Server [PORT] [THREADS] [MAX_SESSIONS]
+     * @param args      the arguments
+     */
+    public static void main(String[] args) throws IOException {
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int threads = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int maxSessions = (args.length > 2) ? Integer.parseInt(args[2]) : 100000;
+
+        Server server = new Server(port, threads, maxSessions);
+        System.out.println("Listening on " + InetAddress.getLoopbackAddress().getHostAddress() + ":"
+                + server.getPort());
+        server.run();
+    }
+}
@@ -0,0 +1,92 @@
+package at.fhv.wd.tictactoe;
+
+public class Symmetry {
+
+    /**
+     * For every transformation, the cell that each cell is moved to.
+     */
+    private final int[][] _transforms;
+
+    /**
+     * For every transformation, the cell that each cell came from.
+     */
+    private final int[][] _inverses;
+
+    /**
+     * Construct the Symmetry of a _board. A square _board has 8 symmetries
+     * (4 rotations and 4 reflections), any other rectangle has 4.
+     * Transformation 0 is always the identity.
+     * @param width     the width of the _board
+     * @param height    the height of the _board
+     */
+    Symmetry (int width, int height) {
+        int count = (width == height) ? 8 : 4;
+        int cells = width * height;
+
+        _transforms = new int[count][cells];
+        _inverses = new int[count][cells];
+
+        for (int t = 0; t < count; t++) {
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int to = transform(t, x, y, width, height);
+                    _transforms[t][y * width + x] = to;
+                    _inverses[t][to] = y * width + x;
+                }
+            }
+        }
+    }
+
+    /**
+     * Move a single cell.
+     * @param t         the transformation
+     * @param x         the x coordinate of the cell
+     * @param y         the y coordinate of the cell
+     * @param width     the width of the _board
+     * @param height    the height of the _board
+     * @return          the index of the cell after the transformation
+     */
+    private static int transform (int t, int x, int y, int width, int height) {
+        // Reflections first, then (only on square boards) a swap of the axes.
+        if ((t & 1) != 0) {
+            x = width - 1 - x;
+        }
+        if ((t & 2) != 0) {
+            y = height - 1 - y;
+        }
+        if ((t & 4) != 0) {
+            int swap = x;
+            x = y;
+            y = swap;
+        }
+        return y * width + x;
+    }
+
+    /**
+     * Get the number of transformations.
+     * @return          8 for a square _board, 4 otherwise
+     */
+    public int size () {
+        return _transforms.length;
+    }
+
+    /**
+     * Map a move onto the transformed _board.
+     * @param t         the transformation
+     * @param index     the position on the original _board
+     * @return          the position on the transformed _board
+     */
+    public int apply (int t, int index) {
+        return _transforms[t][index];
+    }
+
+    /**
+     * Map a move on the transformed _board back onto the original _board.
+     * @param t         the transformation
+     * @param index     the position on the transformed _board
+     * @return          the position on the original _board
+     */
+    public int invert (int t, int index) {
+        return _inverses[t][index];
+    }
+}
@@ -0,0 +1,504 @@
+package at.fhv.wd.tictactoe;
+
+import at.fhv.wd.logic.Algorithms;
+import at.fhv.wd.logic.SearchStats;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+public class Tournament {
+
+    /**
+     * The engines by the name of their Algorithms method.
+     */
+    private static final Map<String, Function<Board, SearchStats>> ENGINES = new LinkedHashMap<>();
+
+    /**
+     * The engines that take a number after the name, like "alphaBetaAdvanced:4".
+     * The number is the depth limit, or the playouts for Monte Carlo Tree
+     * Search.
+     */
+    private static final Map<String, BiFunction<Board, Integer, SearchStats>> LIMITED_ENGINES = new LinkedHashMap<>();
+
+    static {
+        ENGINES.put("random", Algorithms::random);
+        ENGINES.put("minMax", Algorithms::minMax);
+        ENGINES.put("alphaBetaPruning", Algorithms::alphaBetaPruning);
+        ENGINES.put("alphaBetaAdvanced", Algorithms::alphaBetaAdvanced);
+        ENGINES.put("alphaBetaParallel", Algorithms::alphaBetaParallel);
+        ENGINES.put("lazySmp", Algorithms::lazySmp);
+        ENGINES.put("principalVariationSearch", Algorithms::principalVariationSearch);
+        ENGINES.put("mtdf", Algorithms::mtdf);
+        ENGINES.put("monteCarloTreeSearch", Algorithms::monteCarloTreeSearch);
+        ENGINES.put("monteCarloParallel", Algorithms::monteCarloParallel);
+        ENGINES.put("perfectPlay", Algorithms::perfectPlay);
+
+        LIMITED_ENGINES.put("minMax", Algorithms::minMax);
+        LIMITED_ENGINES.put("alphaBetaPruning", Algorithms::alphaBetaPruning);
+        LIMITED_ENGINES.put("alphaBetaAdvanced", Algorithms::alphaBetaAdvanced);
+        LIMITED_ENGINES.put("alphaBetaParallel", Algorithms::alphaBetaParallel);
+        LIMITED_ENGINES.put("lazySmp", Algorithms::lazySmp);
+        LIMITED_ENGINES.put("principalVariationSearch", Algorithms::principalVariationSearch);
+        LIMITED_ENGINES.put("mtdf", Algorithms::mtdf);
+        LIMITED_ENGINES.put("monteCarloTreeSearch", Algorithms::monteCarloTreeSearch);
+    }
+
+    private final String _firstName, _secondName;
+    private final Function<Board, SearchStats> _first, _second;
+    private final int _width, _height, _k;
+
+    /**
+     * The number of random moves every game starts with, so deterministic
+     * engines do not play the same game over and over.
+     */
+    private final int _randomPlies;
+    private final long _seed;
+
+    /**
+     * Construct a Tournament.
+     * @param first         the name of the first engine, like "alphaBetaAdvanced" or "alphaBetaAdvanced:4"
+     * @param second        the name of the second engine
+     * @param width         the width of the board
+     * @param height        the height of the board
+     * @param k             the number of marks in a row that wins
+     * @param randomPlies   the number of random moves every game starts with
+     * @param seed          the seed of the random moves, the same seed plays the same openings
+     */
+    public Tournament (String first, String second, int width, int height, int k, int randomPlies, long seed) {
+        if (randomPlies < 0) {
+            throw new IllegalArgumentException("Number of random moves must not be negative.");
+        }
+
+        _firstName = first;
+        _secondName = second;
+        _first = getEngine(first);
+        _second = getEngine(second);
+        _width = width;
+        _height = height;
+        _k = k;
+        _randomPlies = randomPlies;
+        _seed = seed;
+
+        // Fail on a bad layout here rather than on every thread.
+        new Board(width, height, k);
+    }
+
+    /**
+     * Look up an engine by name.
+     * @param name      the name of an Algorithms method, optionally followed by ":" and a depth limit
+     * @return          the engine
+     */
+    static Function<Board, SearchStats> getEngine (String name) {
+        int colon = name.indexOf(':');
+        if (colon < 0) {
+            Function<Board, SearchStats> engine = ENGINES.get(name);
+            if (engine == null) {
+                throw new IllegalArgumentException("Unknown engine: " + name + ". Engines: " + ENGINES.keySet());
+            }
+            return engine;
+        }
+
+        BiFunction<Board, Integer, SearchStats> engine = LIMITED_ENGINES.get(name.substring(0, colon));
+        if (engine == null) {
+            throw new IllegalArgumentException("Engine cannot be limited: " + name + ". Engines: "
+                    + LIMITED_ENGINES.keySet());
+        }
+
+        int limit = Integer.parseInt(name.substring(colon + 1));
+        return board -> engine.apply(board, limit);
+    }
+
+    /**
+     * Play the games on several threads. The first engine plays X in the games
+     * with an even number, the second engine in the others. Every game is
+     * written to the output as soon as it is over, so a long tournament can be
+     * watched while it runs.
+     * @param games     the number of games
+     * @param threads   the number of games played at the same time
+     * @param out       the output to write a CSV line per game to (null for none)
+     * @return          the results
+     * @throws InterruptedException if the thread is interrupted while waiting for the games
+     */
+    public Result run (int games, int threads, PrintWriter out) throws InterruptedException {
+        return run(games, threads, out, null);
+    }
+
+    /**
+     * Play the games on several threads and record every game.
+     * @param games     the number of games
+     * @param threads   the number of games played at the same time
+     * @param out       the output to write a CSV line per game to (null for none)
+     * @param records   the file to record the moves of every game in (null for none)
+     * @return          the results
+     * @throws InterruptedException if the thread is interrupted while waiting for the games
+     */
+    public Result run (int games, int threads, PrintWriter out, GameRecordWriter records)
+            throws InterruptedException {
+        if (games < 1 || threads < 1) {
+            throw new IllegalArgumentException("Number of games and threads must be greater than 0.");
+        }
+
+        if (out != null) {
+            out.println("game,x,o,winner,moves,nanos");
+        }
+
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Result>> workers = new ArrayList<>();
+        long start = System.nanoTime();
+
+        try {
+            for (int i = 0; i < threads; i++) {
+                workers.add(executor.submit(() -> {
+                    Result result = new Result();
+                    for (int game = next.getAndIncrement(); game < games; game = next.getAndIncrement()) {
+                        play(game, result, out, records);
+                    }
+                    return result;
+                }));
+            }
+
+            Result total = new Result();
+            for (Future<Result> worker : workers) {
+                total.add(worker.get());
+            }
+            total.elapsedNanos = System.nanoTime() - start;
+            return total;
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("A game could not be played.", ex.getCause());
+        } finally {
+            executor.shutdownNow();
+            if (out != null) {
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * Play one game and count its result.
+     * @param game      the number of the game
+     * @param result    the results of the thread
+     * @param out       the output to write the game to (null for none)
+     * @param records   the file to record the moves in (null for none)
+     */
+    private void play (int game, Result result, PrintWriter out, GameRecordWriter records) {
+        boolean firstIsX = game % 2 == 0;
+        Board board = new Board(_width, _height, _k);
+        long start = System.nanoTime();
+
+        // The seed is per game, so the openings do not depend on the threads.
+        Random random = new Random(_seed + game);
+        int[] moves = new int[board.getCellCount()];
+        for (int i = 0; i < _randomPlies && !board.isGameOver(); i++) {
+            int count = board.getAvailableMoves(moves);
+            board.move(moves[random.nextInt(count)]);
+        }
+
+        while (!board.isGameOver()) {
+            boolean firstToMove = (board.getTurn() == Board.State.X) == firstIsX;
+            int moveCount = board.getMoveCount();
+
+            long moveStart = System.nanoTime();
+            (firstToMove ? _first : _second).apply(board);
+            long latency = System.nanoTime() - moveStart;
+
+            (firstToMove ? result.firstLatency : result.secondLatency).record(latency);
+
+            if (board.getMoveCount() == moveCount) {
+                throw new IllegalStateException("Engine " + (firstToMove ? _firstName : _secondName)
+                        + " did not move.");
+            }
+        }
+
+        long nanos = System.nanoTime() - start;
+        Board.State winner = board.getWinner();
+        Board.State firstPlayer = firstIsX ? Board.State.X : Board.State.O;
+
+        if (winner == Board.State.Blank) {
+            result.draws++;
+        } else if (winner == firstPlayer) {
+            result.wins++;
+        } else {
+            result.losses++;
+        }
+
+        if (records != null) {
+            try {
+                records.write(board, firstIsX ? _firstName : _secondName, firstIsX ? _secondName : _firstName);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        if (out != null) {
+            String line = String.format("%d,%s,%s,%s,%d,%d", game, firstIsX ? _firstName : _secondName,
+                    firstIsX ? _secondName : _firstName, (winner == Board.State.Blank) ? "draw" : winner,
+                    board.getMoveCount(), nanos);
+            synchronized (out) {
+                out.println(line);
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * The results of a tournament, seen from the first engine.
+     */
+    public static class Result {
+        private long wins, draws, losses;
+        private long elapsedNanos;
+        private final LatencyHistogram firstLatency = new LatencyHistogram();
+        private final LatencyHistogram secondLatency = new LatencyHistogram();
+
+        /**
+         * Add the results of another thread.
+         * @param other     the results to add
+         */
+        private void add (Result other) {
+            wins += other.wins;
+            draws += other.draws;
+            losses += other.losses;
+            firstLatency.add(other.firstLatency);
+            secondLatency.add(other.secondLatency);
+        }
+
+        /**
+         * Get the number of games the first engine won.
+         * @return          the number of wins
+         */
+        public long getWins () {
+            return wins;
+        }
+
+        /**
+         * Get the number of games that ended in a draw.
+         * @return          the number of draws
+         */
+        public long getDraws () {
+            return draws;
+        }
+
+        /**
+         * Get the number of games the first engine lost.
+         * @return          the number of losses
+         */
+        public long getLosses () {
+            return losses;
+        }
+
+        /**
+         * Get the number of games played per second.
+         * @return          the games per second
+         */
+        public double getGamesPerSecond () {
+            return (wins + draws + losses) * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * Get the time the first engine took per move.
+         * @return          the latencies of the first engine
+         */
+        public LatencyHistogram getFirstLatency () {
+            return firstLatency;
+        }
+
+        /**
+         * Get the time the second engine took per move.
+         * @return          the latencies of the second engine
+         */
+        public LatencyHistogram getSecondLatency () {
+            return secondLatency;
+        }
+    }
+
+    /**
+     * Counts latencies in buckets that grow with the latency: every power of
+     * two is split into 8 buckets, so a percentile is off by at most 12.5%.
+     * Millions of moves fit into a few kilobytes. Only ever touched by one
+     * thread at a time.
+     */
+    public static class LatencyHistogram {
+        private static final int SUB_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+        private final long[] counts = new long[64 * SUB_BUCKETS];
+        private long count;
+        private long max;
+
+        /**
+         * Count a latency.
+         * @param nanos     the latency in nanoseconds
+         */
+        void record (long nanos) {
+            counts[bucket(Math.max(nanos, 0))]++;
+            count++;
+            max = Math.max(max, nanos);
+        }
+
+        /**
+         * Add the latencies of another histogram.
+         * @param other     the histogram to add
+         */
+        void add (LatencyHistogram other) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+            count += other.count;
+            max = Math.max(max, other.max);
+        }
+
+        /**
+         * Get the bucket of a latency.
+         * @param nanos     the latency in nanoseconds
+         * @return          the bucket
+         */
+        private static int bucket (long nanos) {
+            if (nanos < SUB_BUCKETS) {
+                return (int) nanos;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+            int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return ((exponent - SUB_BITS + 1) << SUB_BITS) + sub;
+        }
+
+        /**
+         * Get the smallest latency of a bucket.
+         * @param bucket    the bucket
+         * @return          the latency in nanoseconds
+         */
+        private static long lowest (int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = (bucket >> SUB_BITS) + SUB_BITS - 1;
+            return (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << (exponent - SUB_BITS);
+        }
+
+        /**
+         * Get the number of latencies counted.
+         * @return          the number of moves
+         */
+        public long getCount () {
+            return count;
+        }
+
+        /**
+         * Get the highest latency.
+         * @return          the latency in nanoseconds
+         */
+        public long getMax () {
+            return max;
+        }
+
+        /**
+         * Get a percentile of the latencies.
+         * @param percentile    the percentile, between 0 and 100
+         * @return              the highest latency of the bucket the percentile falls into, in nanoseconds
+         */
+        public long getPercentile (double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("Percentile must be between 0 and 100.");
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(lowest(i + 1) - 1, max);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString () {
+            return String.format("p50=%.3fms p90=%.3fms p99=%.3fms p99.9=%.3fms max=%.3fms",
+                    getPercentile(50) / 1e6, getPercentile(90) / 1e6, getPercentile(99) / 1e6,
+                    getPercentile(99.9) / 1e6, max / 1e6);
+        }
+    }
+
+    /**
+     * Play a tournament from the command line.
+     * Usage: Tournament FIRST SECOND [GAMES] [THREADS] [--board WxHxK] [--random-plies N] [--seed S] [--out FILE]
+     * [--record FILE]
+     * @param args      the arguments
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        List<String> positional = new ArrayList<>();
+        int width = 3, height = 3, k = 3;
+        int randomPlies = 2;
+        long seed = 0;
+        String path = null;
+        String recordPath = null;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--board") && i + 1 < args.length) {
+                String[] layout = args[++i].split("x");
+                if (layout.length != 3) {
+                    throw new IllegalArgumentException("Board must be given as WIDTHxHEIGHTxK.");
+                }
+                width = Integer.parseInt(layout[0]);
+                height = Integer.parseInt(layout[1]);
+                k = Integer.parseInt(layout[2]);
+            } else if (args[i].equals("--random-plies") && i + 1 < args.length) {
+                randomPlies = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--seed") && i + 1 < args.length) {
+                seed = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--out") && i + 1 < args.length) {
+                path = args[++i];
+            } else if (args[i].equals("--record") && i + 1 < args.length) {
+                recordPath = args[++i];
+            } else {
+                positional.add(args[i]);
+            }
+        }
+
+        if (positional.size() < 2) {
+            System.out.println("Usage: Tournament FIRST SECOND [GAMES] [THREADS] [--board WxHxK] "
+                    + "[--random-plies N] [--seed S] [--out FILE] [--record FILE]");
+            System.out.println("Engines: " + ENGINES.keySet());
+            System.out.println("Limited (NAME:DEPTH, or NAME:PLAYOUTS for MCTS): " + LIMITED_ENGINES.keySet());
+            return;
+        }
+
+        String first = positional.get(0);
+        String second = positional.get(1);
+        int games = (positional.size() > 2) ? Integer.parseInt(positional.get(2)) : 1000;
+        int threads = (positional.size() > 3) ? Integer.parseInt(positional.get(3))
+                : Runtime.getRuntime().availableProcessors();
+
+        Tournament tournament = new Tournament(first, second, width, height, k, randomPlies, seed);
+        Result result;
+        try (GameRecordWriter records = (recordPath != null) ? new GameRecordWriter(new File(recordPath), true)
+                : null;
+             PrintWriter out = (path != null) ? new PrintWriter(new BufferedWriter(new FileWriter(path))) : null) {
+            result = tournament.run(games, threads, out, records);
+        }
+
+        System.out.printf("%s vs %s on %dx%d k%d: %d games, %d wins, %d draws, %d losses, %,.1f games/sec%n",
+                first, second, width, height, k, games, result.getWins(), result.getDraws(), result.getLosses(),
+                result.getGamesPerSecond());
+        System.out.printf("%-24s %,10d moves  %s%n", first, result.getFirstLatency().getCount(),
+                result.getFirstLatency());
+        System.out.printf("%-24s %,10d moves  %s%n", second, result.getSecondLatency().getCount(),
+                result.getSecondLatency());
+    }
+}
@@ -4,13 +4,19 @@ import javax.imageio.ImageIO;
 import javax.swing.*;
 
 import at.fhv.wd.logic.Algorithms;
+import at.fhv.wd.logic.SearchMonitor;
 
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 
 public class Window extends JFrame{
@@ -39,6 +45,36 @@ public class Window extends JFrame{
      */
     private static final int DISTANCE = 100;
 
+    /**
+     * How often the thinking indicator is repainted, in milliseconds.
+     */
+    private static final int THINKING_REPAINT = 100;
+
+    /**
+     * Runs the searches of the AI, so the window keeps responding while it
+     * thinks. The thread is a daemon, a search that is still running cannot
+     * keep the program alive.
+     */
+    private final ExecutorService _executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "TicTacToe AI");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Watches the search of the AI while it runs (null while it is the
+     * player's turn). The board does not take clicks while it is set.
+     */
+    private SearchMonitor _monitor;
+    private Timer _thinkingTimer;
+
+    /**
+     * Records every game if the tictactoe.records system property names a
+     * file (null if it does not). A game is recorded when the next one is
+     * started or the window is closed, finished or not.
+     */
+    private GameRecordWriter _records;
+
     /**
      * Construct the Window.
      */
@@ -56,6 +92,14 @@ public class Window extends JFrame{
         _board = new Board();
         loadCells();
         _panel = createPanel();
+        _thinkingTimer = new Timer(THINKING_REPAINT, e -> _panel.repaint());
+
+        try {
+            _records = GameRecordWriter.fromProperty();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Game records could not be opened.", ex);
+        }
+
         setWindowProperties();
         loadImages();
     }
@@ -85,9 +129,111 @@ public class Window extends JFrame{
         pack();
         setTitle("Lazo's Tic Tac Toe");
         setDefaultCloseOperation(EXIT_ON_CLOSE);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                cancelAiMove();
+                _executor.shutdownNow();
+                recordGame();
+                if (_records != null) {
+                    try {
+                        _records.close();
+                    } catch (IOException ex) {
+                        System.out.println("The game records could not be closed: " + ex.getMessage());
+                    }
+                }
+            }
+        });
         setVisible(true);
     }
 
+    /**
+     * Let the AI search for its move on the background thread. It searches a
+     * copy of the board, the move is played on the event dispatch thread
+     * once it is found.
+     */
+    private void startAiMove () {
+        Board copy = _board.getDeepCopy();
+        SearchMonitor monitor = new SearchMonitor();
+        Algorithm algorithm = _algo;
+
+        _monitor = monitor;
+        _thinkingTimer.start();
+
+        _executor.execute(() -> {
+            try {
+                if (algorithm == Algorithm.AlphaBetha) {
+                    Algorithms.alphaBetaAdvanced(copy, monitor);
+                } else if (algorithm == Algorithm.Random) {
+                    Algorithms.random(copy);
+                } else if (algorithm == Algorithm.MinMax) {
+                    Algorithms.minMax(copy, monitor);
+                }
+            } finally {
+                SwingUtilities.invokeLater(() -> finishAiMove(monitor, copy));
+            }
+        });
+    }
+
+    /**
+     * Play the move the AI found, unless its search was cancelled in the
+     * meantime.
+     * @param monitor   the monitor of the search
+     * @param copy      the board the AI searched and played on
+     */
+    private void finishAiMove (SearchMonitor monitor, Board copy) {
+        if (monitor != _monitor) {
+            return;
+        }
+
+        _monitor = null;
+        _thinkingTimer.stop();
+
+        if (copy.getMoveCount() > _board.getMoveCount()) {
+            _board.move(copy.getLastMove());
+        }
+        _panel.repaint();
+    }
+
+    /**
+     * Stop the search of the AI if it is thinking. Its move is never played.
+     */
+    private void cancelAiMove () {
+        if (_monitor != null) {
+            _monitor.cancel();
+            _monitor = null;
+            _thinkingTimer.stop();
+        }
+    }
+
+    /**
+     * Start a new game, even while the AI is thinking.
+     */
+    private void newGame () {
+        cancelAiMove();
+        recordGame();
+        _board.reset();
+        _panel.repaint();
+    }
+
+    /**
+     * Add the game to the records, if there are any and it has begun.
+     */
+    private void recordGame () {
+        if (_records == null || _board.getMoveCount() == 0) {
+            return;
+        }
+
+        String computer = (_algo == Algorithm.AlphaBetha) ? "alphaBetaAdvanced"
+                : (_algo == Algorithm.MinMax) ? "minMax" : "random";
+        try {
+            _records.write(_board, "human", (_mode == Mode.AI) ? computer : "human");
+            _records.flush();
+        } catch (IOException ex) {
+            System.out.println("The game could not be recorded: " + ex.getMessage());
+        }
+    }
+
     /**
      * Create the panel that will be used for drawing Tic Tac Toe to the screen.
      * @return      the panel with the specified dimensions and mouse listener
@@ -150,6 +296,7 @@ public class Window extends JFrame{
             setProperties(g);
             paintBoard(g);
             paintWinner(g);
+            paintThinking(g);
         }
 
         /**
@@ -210,19 +357,38 @@ public class Window extends JFrame{
 
             }
         }
+
+        /**
+         * Paints that the AI is thinking and how many positions it has
+         * searched so far.
+         * @param g     the Graphics object that will perform the panting
+         */
+        private void paintThinking (Graphics2D g) {
+            if (_monitor != null) {
+                g.setColor(new Color(255, 255, 255));
+                g.setFont(new Font("TimesRoman", Font.PLAIN, 20));
+
+                String s = String.format("Thinking... %,d positions", _monitor.getNodes());
+                g.drawString(s, 300 - getFontMetrics(g.getFont()).stringWidth(s)/2, 590);
+            }
+        }
     }
 
     /**
-     * For detecting mouse clicks.
+     * For detecting mouse clicks. A right click starts a new game at any
+     * time, other clicks are ignored while the AI is thinking.
      */
     private class MyMouseAdapter extends MouseAdapter {
         @Override
         public void mousePressed(MouseEvent e) {
             super.mouseClicked(e);
 
-            if (_board.isGameOver()) {
-                _board.reset();
-                _panel.repaint();
+            if (SwingUtilities.isRightMouseButton(e)) {
+                newGame();
+            } else if (_monitor != null) {
+                return;
+            } else if (_board.isGameOver()) {
+                newGame();
             } else {
                 playMove(e);
             }
@@ -239,13 +405,7 @@ public class Window extends JFrame{
             if (!_board.isGameOver() && move != -1) {
                 boolean validMove = _board.move(move);
                 if (_mode == Mode.AI && validMove && !_board.isGameOver()) {
-                    if (_algo == Algorithm.AlphaBetha) {
-                        Algorithms.alphaBetaAdvanced(_board);
-                    } else if (_algo == Algorithm.Random){
-                        Algorithms.random(_board);
-                    } else if (_algo == Algorithm.MinMax){
-                        Algorithms.minMax(_board);
-                    }
+                    startAiMove();
                 }
                 _panel.repaint();
             }